@@ -0,0 +1,28 @@
+package com.oose2017.rshen3.hareandhounds.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of target/benchmarks.jar. Takes the usual JMH command line and
+ * always adds the GC profiler, so every run reports gc.alloc.rate.norm, the
+ * bytes allocated per operation, next to the timings.
+ *
+ * <pre>
+ *   mvn install                       (in Assignment1/HandH)
+ *   mvn package                       (in Assignment1/HandH/benchmarks)
+ *   java -jar target/benchmarks.jar [regexp] [JMH options]
+ * </pre>
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
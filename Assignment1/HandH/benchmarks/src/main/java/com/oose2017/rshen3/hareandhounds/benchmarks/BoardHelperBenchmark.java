@@ -0,0 +1,123 @@
+package com.oose2017.rshen3.hareandhounds.benchmarks;
+
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+import com.oose2017.rshen3.hareandhounds.utils.BoardHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The board rules on their own. Each invocation works on the next board of a
+ * fixed set taken from seeded random games, so the branches are exercised the
+ * way real games do and the runs are comparable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardHelperBenchmark {
+
+    private static final int BOARDS = 256;
+    private static final String[] STATES = {"TURN_HOUND", "TURN_HARE"};
+
+    private final List<List<PieceInfo>> boards = new ArrayList<>();
+    private final List<PieceInfo> movers = new ArrayList<>();
+    private final List<int[]> targets = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        while (boards.size() < BOARDS) {
+            List<PieceInfo> board = BoardHelper.generatePieces("benchmark");
+            for (int turn = 0; turn < 40 && boards.size() < BOARDS; turn++) {
+                String pieceType = turn % 2 == 0 ? "HOUND" : "HARE";
+                List<PieceInfo> pieces = new ArrayList<>();
+                for (PieceInfo piece: board) {
+                    if (piece.getPieceType().equals(pieceType)) {
+                        pieces.add(piece);
+                    }
+                }
+                PieceInfo mover = pieces.get(random.nextInt(pieces.size()));
+                // Any cell of the board, so validateMove also sees illegal moves
+                targets.add(new int[] {random.nextInt(5), random.nextInt(3)});
+                movers.add(mover);
+                boards.add(copy(board));
+                List<BoardHelper.Loc> moves = free(board, BoardHelper.getNextMoves(pieceType, mover.getX(), mover.getY()));
+                if (moves.isEmpty()) {
+                    break;
+                }
+                BoardHelper.Loc to = moves.get(random.nextInt(moves.size()));
+                mover.setX(to.x);
+                mover.setY(to.y);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean validateMove() {
+        int i = advance();
+        PieceInfo mover = movers.get(i);
+        int[] target = targets.get(i);
+        return BoardHelper.validateMove(mover.getPieceType(), mover.getX(), mover.getY(), target[0], target[1]);
+    }
+
+    @Benchmark
+    public void getNextMoves(Blackhole blackhole) {
+        PieceInfo mover = movers.get(advance());
+        blackhole.consume(BoardHelper.getNextMoves(mover.getPieceType(), mover.getX(), mover.getY()));
+    }
+
+    @Benchmark
+    public String judge() {
+        int i = advance();
+        return BoardHelper.judge(boards.get(i), STATES[i & 1]);
+    }
+
+    @Benchmark
+    public String getPieceStates() {
+        return BoardHelper.getPieceStates(boards.get(advance()));
+    }
+
+    private int advance() {
+        next = (next + 1) & (BOARDS - 1);
+        return next;
+    }
+
+    private static List<BoardHelper.Loc> free(List<PieceInfo> board, List<BoardHelper.Loc> moves) {
+        List<BoardHelper.Loc> free = new ArrayList<>();
+        for (BoardHelper.Loc loc: moves) {
+            boolean occupied = false;
+            for (PieceInfo piece: board) {
+                occupied |= piece.getX() == loc.x && piece.getY() == loc.y;
+            }
+            if (!occupied) {
+                free.add(loc);
+            }
+        }
+        return free;
+    }
+
+    private static List<PieceInfo> copy(List<PieceInfo> board) {
+        List<PieceInfo> copy = new ArrayList<>();
+        for (PieceInfo piece: board) {
+            copy.add(new PieceInfo(piece));
+        }
+        return copy;
+    }
+}
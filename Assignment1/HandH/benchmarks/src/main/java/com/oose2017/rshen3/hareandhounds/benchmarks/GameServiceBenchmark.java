@@ -0,0 +1,131 @@
+package com.oose2017.rshen3.hareandhounds.benchmarks;
+
+import com.oose2017.rshen3.hareandhounds.GameService;
+import com.oose2017.rshen3.hareandhounds.db.ConnectionPool;
+import com.oose2017.rshen3.hareandhounds.model.GameState;
+import com.oose2017.rshen3.hareandhounds.model.MovePiece;
+import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.store.GameStore;
+import com.oose2017.rshen3.hareandhounds.store.LogGameStore;
+import com.oose2017.rshen3.hareandhounds.store.MemoryGameStore;
+import com.oose2017.rshen3.hareandhounds.store.SqliteGameStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole games through GameService against each GameStore, with the files in
+ * a temporary directory, set up the way Bootstrap does it.
+ *
+ * cycle creates a game, joins it and plays four moves, then waits for the
+ * write-behind thread, so one operation includes the writes of the game to
+ * the store. fetchState is the read the clients poll with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameServiceBenchmark {
+
+    /** fromX, fromY, toX, toY of the moves of one cycle, hounds first */
+    private static final int[][] MOVES = {
+            {1, 0, 2, 0},
+            {4, 1, 3, 0},
+            {2, 0, 2, 1},
+            {3, 0, 4, 1}
+    };
+
+    @Param({"sqlite", "memory", "log"})
+    public String store;
+
+    private Path directory;
+    private ConnectionPool pool;
+    private GameService gameService;
+    private String polledGameId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("hareandhounds-bench");
+        gameService = new GameService(openStore());
+        polledGameId = gameService.createGame("{\"pieceType\":\"HOUND\"}").getGameId();
+        gameService.joinGame(polledGameId);
+    }
+
+    private GameStore openStore() {
+        switch (store) {
+            case "memory":
+                return new MemoryGameStore();
+            case "log":
+                return new LogGameStore(directory.resolve("game.log"), 64 * 1024, 1000, 100000);
+            default:
+                SQLiteDataSource dataSource = new SQLiteDataSource();
+                dataSource.setUrl("jdbc:sqlite:" + directory.resolve("game.db"));
+                dataSource.setJournalMode("WAL");
+                dataSource.setSynchronous("NORMAL");
+                pool = new ConnectionPool(dataSource, 4, 32, 5000);
+                return new SqliteGameStore(pool, 256, 16);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        gameService.close();
+        if (pool != null) {
+            pool.close();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ex) {
+                    path.toFile().deleteOnExit();
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public PlayerInfo cycle() throws Exception {
+        PlayerInfo player = gameService.createGame("{\"pieceType\":\"HOUND\"}");
+        String gameId = player.getGameId();
+        gameService.joinGame(gameId);
+        PlayerInfo last = null;
+        for (int i = 0; i < MOVES.length; i++) {
+            MovePiece move = new MovePiece();
+            move.setGameId(gameId);
+            move.setPlayerId(i % 2 == 0 ? "HOUND_player" : "HARE_player");
+            move.setFromX(MOVES[i][0]);
+            move.setFromY(MOVES[i][1]);
+            move.setToX(MOVES[i][2]);
+            move.setToY(MOVES[i][3]);
+            last = gameService.makeMove(move);
+        }
+        gameService.flush();
+        return last;
+    }
+
+    @Benchmark
+    public GameState fetchState() throws Exception {
+        return gameService.fetchState(polledGameId);
+    }
+}
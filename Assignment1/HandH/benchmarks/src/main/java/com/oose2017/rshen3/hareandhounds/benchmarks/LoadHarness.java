@@ -0,0 +1,304 @@
+package com.oose2017.rshen3.hareandhounds.benchmarks;
+
+import com.google.gson.Gson;
+import com.oose2017.rshen3.hareandhounds.Bootstrap;
+import com.oose2017.rshen3.hareandhounds.metrics.LatencyHistogram;
+import com.oose2017.rshen3.hareandhounds.model.GameState;
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.utils.BoardHelper;
+import spark.Spark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives simulated matches through the REST API and reports the throughput
+ * and latency percentiles of every endpoint.
+ *
+ * Each match creates a game, joins it and plays random legal moves picked
+ * with BoardHelper until the game is won, while both players poll the state
+ * and the board like the old frontend did. A finished match is replaced by
+ * a new one until the run is over, so the number of games in play stays
+ * constant. Matches are state machines on a small scheduled pool, thousands
+ * of them do not need thousands of threads.
+ *
+ * Without load.target a server is booted in this JVM on a free port with a
+ * database in a temporary directory.
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar \
+ *        -Dload.games=2000 -Dload.durationSeconds=60 \
+ *        com.oose2017.rshen3.hareandhounds.benchmarks.LoadHarness
+ * </pre>
+ */
+public class LoadHarness {
+
+    private static final String API_PREFIX = "/hareandhounds/api/games";
+
+    private final int games = Integer.getInteger("load.games", 1000);
+    private final int durationSeconds = Integer.getInteger("load.durationSeconds", 60);
+    private final int threads = Integer.getInteger("load.threads", 64);
+    private final int pollMillis = Integer.getInteger("load.pollMillis", 2000);
+    private final int thinkMillis = Integer.getInteger("load.thinkMillis", 250);
+    private final int maxMoves = Integer.getInteger("load.maxMoves", 400);
+
+    private final String baseUrl;
+    private final ScheduledExecutorService workers;
+    private final Gson gson = new Gson();
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        String target = System.getProperty("load.target");
+        if (target == null) {
+            target = bootServer();
+        }
+        System.setProperty("http.maxConnections", Integer.toString(Integer.getInteger("load.threads", 64)));
+        new LoadHarness(target).run();
+        System.exit(0);
+    }
+
+    /**
+     * @return the base URL of a server started in this JVM
+     */
+    private static String bootServer() throws Exception {
+        Path directory = Files.createTempDirectory("hareandhounds-load");
+        directory.toFile().deleteOnExit();
+        System.setProperty("hareandhounds.port", "0");
+        System.setProperty("hareandhounds.db.path", directory.resolve("game.db").toString());
+        Bootstrap.main(new String[0]);
+        Spark.awaitInitialization();
+        return "http://localhost:" + Spark.port();
+    }
+
+    public LoadHarness(String baseUrl) {
+        this.baseUrl = baseUrl + API_PREFIX;
+        this.workers = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "load-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("%d concurrent games against %s for %d s%n", games, baseUrl, durationSeconds);
+        long started = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            // Spread the starts over the first second
+            workers.schedule(() -> new Match().start(), ThreadLocalRandom.current().nextInt(1000),
+                    TimeUnit.MILLISECONDS);
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+        running = false;
+        double seconds = (System.nanoTime() - started) / 1e9;
+        workers.shutdownNow();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+        report(seconds);
+    }
+
+    private void report(double seconds) {
+        System.out.printf("%n%-14s %9s %9s %9s %9s %9s %9s %7s%n",
+                "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        long total = 0;
+        for (Map.Entry<String, LatencyHistogram> entry: new TreeMap<>(latencies).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            long count = histogram.count();
+            total += count;
+            AtomicLong failed = errors.get(entry.getKey());
+            System.out.printf("%-14s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d%n",
+                    entry.getKey(), count, count / seconds,
+                    histogram.percentile(0.50) / 1000.0,
+                    histogram.percentile(0.99) / 1000.0,
+                    histogram.percentile(0.999) / 1000.0,
+                    histogram.max() / 1000.0,
+                    failed == null ? 0 : failed.get());
+        }
+        System.out.printf("%-14s %9d %9.1f%n", "total", total, total / seconds);
+        System.out.printf("%nfinished matches: %s%n", new TreeMap<>(outcomes));
+    }
+
+    //-----------------------------------------------------------------------------//
+    // One simulated match
+    //-----------------------------------------------------------------------------//
+
+    private class Match {
+        private String gameId;
+        private volatile boolean over;
+        private int moves;
+
+        void start() {
+            if (!running) {
+                return;
+            }
+            try {
+                PlayerInfo created = gson.fromJson(
+                        call("create", "POST", baseUrl, "{\"pieceType\":\"HOUND\"}"), PlayerInfo.class);
+                gameId = created.getGameId();
+                call("join", "PUT", baseUrl + "/" + gameId, null);
+            } catch (IOException ex) {
+                // Counted as an error, try again with a new game
+                workers.schedule(() -> new Match().start(), thinkMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            schedulePoll("HOUND_player");
+            schedulePoll("HARE_player");
+            workers.schedule(this::move, thinkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void schedulePoll(String playerId) {
+            workers.schedule(() -> poll(playerId), ThreadLocalRandom.current().nextInt(pollMillis),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void poll(String playerId) {
+            if (over || !running) {
+                return;
+            }
+            try {
+                call("state", "GET", baseUrl + "/" + gameId + "/state", null);
+                call("board", "GET", baseUrl + "/" + gameId + "/board", null);
+            } catch (IOException ex) {
+                // Counted as an error, keep polling
+            }
+            workers.schedule(() -> poll(playerId), pollMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void move() {
+            if (!running) {
+                return;
+            }
+            try {
+                GameState state = gson.fromJson(call("state", "GET", baseUrl + "/" + gameId + "/state", null),
+                        GameState.class);
+                if (!state.getState().startsWith("TURN_") || moves >= maxMoves) {
+                    finish(moves >= maxMoves ? "MOVE_LIMIT" : state.getState());
+                    return;
+                }
+                String pieceType = state.getState().substring("TURN_".length());
+                PieceInfo[] board = gson.fromJson(call("board", "GET", baseUrl + "/" + gameId + "/board", null),
+                        PieceInfo[].class);
+                int[] move = pickMove(board, pieceType);
+                if (move == null) {
+                    finish("NO_MOVE_" + pieceType);
+                    return;
+                }
+                call("move", "POST", baseUrl + "/" + gameId + "/turns", String.format(
+                        "{\"gameId\":\"%s\",\"playerId\":\"%s_player\",\"fromX\":%d,\"fromY\":%d,\"toX\":%d,\"toY\":%d}",
+                        gameId, pieceType, move[0], move[1], move[2], move[3]));
+                moves++;
+            } catch (IOException ex) {
+                // Counted as an error, try the turn again
+            }
+            workers.schedule(this::move, thinkMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void finish(String outcome) {
+            over = true;
+            outcomes.computeIfAbsent(outcome, key -> new AtomicLong()).incrementAndGet();
+            workers.execute(() -> new Match().start());
+        }
+    }
+
+    /**
+     * @return fromX, fromY, toX, toY of a random legal move, null if there is none
+     */
+    private static int[] pickMove(PieceInfo[] board, String pieceType) {
+        boolean[][] occupied = new boolean[5][3];
+        List<PieceInfo> pieces = new ArrayList<>();
+        for (PieceInfo piece: board) {
+            occupied[piece.getX()][piece.getY()] = true;
+            if (piece.getPieceType().equals(pieceType)) {
+                pieces.add(piece);
+            }
+        }
+        Collections.shuffle(pieces, ThreadLocalRandom.current());
+        for (PieceInfo piece: pieces) {
+            List<BoardHelper.Loc> moves = new ArrayList<>();
+            for (BoardHelper.Loc loc: BoardHelper.getNextMoves(pieceType, piece.getX(), piece.getY())) {
+                if (!occupied[loc.x][loc.y]) {
+                    moves.add(loc);
+                }
+            }
+            if (!moves.isEmpty()) {
+                BoardHelper.Loc to = moves.get(ThreadLocalRandom.current().nextInt(moves.size()));
+                return new int[] {piece.getX(), piece.getY(), to.x, to.y};
+            }
+        }
+        return null;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // HTTP
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Send one request and record its latency under the endpoint name.
+     *
+     * @return the response body
+     * @throws IOException on a connection failure or an error status
+     */
+    private String call(String endpoint, String method, String url, String body) throws IOException {
+        long started = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            String response = read(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            latencies.computeIfAbsent(endpoint, key -> new LatencyHistogram())
+                    .record((System.nanoTime() - started) / 1000);
+            if (status >= 400) {
+                throw new IOException(method + " " + url + " answered " + status);
+            }
+            return response;
+        } catch (IOException ex) {
+            errors.computeIfAbsent(endpoint, key -> new AtomicLong()).incrementAndGet();
+            throw ex;
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
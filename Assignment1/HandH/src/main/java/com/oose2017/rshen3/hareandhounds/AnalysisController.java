@@ -0,0 +1,46 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.ai.Analyzer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+
+import static spark.Spark.*;
+
+/**
+ * Serves the move hints of a game on GET /hareandhounds/api/games/:gameId/analysis
+ */
+public class AnalysisController {
+
+    private static final String API_PREFIX = "/hareandhounds/api/games";
+
+    private final GameService gameService;
+
+    private final Analyzer analyzer;
+
+    private final Logger logger = LoggerFactory.getLogger(AnalysisController.class);
+
+    public AnalysisController(GameService gameService, Analyzer analyzer) {
+        this.gameService = gameService;
+        this.analyzer = analyzer;
+        setupEndpoints();
+    }
+
+    private void setupEndpoints() {
+        get(API_PREFIX + "/:gameId" + "/analysis", "application/json", new JsonRoute((request, response) -> {
+            try {
+                byte[] analysis = gameService.readWithHistory(request.params("gameId"), analyzer::analyze);
+                response.status(200);
+                return analysis;
+            } catch (GameService.WrongGameIDException ex) {
+                logger.error("Failed to analyze the game: gameId does not exist!");
+                response.status(404);
+            } catch (GameService.GameServiceException ex) {
+                logger.error("Failed to analyze the game");
+                response.status(400);
+            }
+            return Collections.EMPTY_MAP;
+        }));
+    }
+}
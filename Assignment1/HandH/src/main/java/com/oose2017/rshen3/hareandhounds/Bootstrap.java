@@ -6,6 +6,16 @@
 
 package com.oose2017.rshen3.hareandhounds;
 
+import com.oose2017.rshen3.hareandhounds.ai.Analyzer;
+import com.oose2017.rshen3.hareandhounds.ai.Tablebase;
+import com.oose2017.rshen3.hareandhounds.cluster.ShardMap;
+import com.oose2017.rshen3.hareandhounds.db.ConnectionPool;
+import com.oose2017.rshen3.hareandhounds.store.GameStore;
+import com.oose2017.rshen3.hareandhounds.store.LogGameStore;
+import com.oose2017.rshen3.hareandhounds.store.MemoryGameStore;
+import com.oose2017.rshen3.hareandhounds.store.SqliteGameStore;
+import com.oose2017.rshen3.hareandhounds.store.StoreException;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteDataSource;
@@ -14,6 +24,7 @@ import javax.sql.DataSource;
 
 import static spark.Spark.*;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -21,41 +32,125 @@ import java.nio.file.Paths;
 public class Bootstrap {
     public static final String IP_ADDRESS = "localhost";
     public static final int PORT = 8080;
+    public static final int DB_POOL_SIZE = 4;
+    public static final int DB_STATEMENT_CACHE_SIZE = 32;
+    public static final long DB_POOL_TIMEOUT_MS = 5000;
+    public static final String DB_SYNCHRONOUS = "NORMAL";
+    /** Page cache per connection, negative values are KiB */
+    public static final int DB_CACHE_SIZE = -8192;
+    public static final String DB_PATH = "game.db";
+
+    /** sqlite, memory or log, see openStore */
+    public static final String STORE = "sqlite";
+    public static final String LOG_PATH = "game.log";
+    public static final int LOG_BUFFER_BYTES = 64 * 1024;
+    public static final long LOG_SYNC_MILLIS = 1000;
+    public static final long LOG_SNAPSHOT_RECORDS = 100000;
+    public static final int SNAPSHOT_MOVES = 16;
+
+    public static final String TABLEBASE_PATH = "tablebase.bin";
 
     private static final Logger logger = LoggerFactory.getLogger(Bootstrap.class);
 
     public static void main(String[] args) throws Exception {
         //Check if the database file exists in the current directory. Abort if not
-        DataSource dataSource = configureDataSource();
-        if (dataSource == null) {
-            System.out.printf("Could not find game.db in the current directory (%s). Terminating\n",
-                    Paths.get(".").toAbsolutePath().normalize());
-            System.exit(1);
+        String storeType = Config.getString("store", STORE);
+        DataSource dataSource = null;
+        if (storeType.equals("sqlite")) {
+            dataSource = configureDataSource();
+            if (dataSource == null) {
+                System.out.printf("Could not find game.db in the current directory (%s). Terminating\n",
+                        Paths.get(".").toAbsolutePath().normalize());
+                System.exit(1);
+            }
         }
 
-        //Specify the IP address and Port at which the server should be run
-        ipAddress(IP_ADDRESS);
-        port(PORT);
+        //Specify the IP address and Port at which the server should be run, port 0 picks a free one
+        ipAddress(Config.getString("ipAddress", IP_ADDRESS));
+        port(Config.getInt("port", PORT));
 
         //Specify the sub-directory from which to serve static resources (like html and css)
         staticFileLocation("/public");
 
+        //Games of the other nodes are passed on before Spark sees them, the server starts with the first route
+        ShardMap shardMap = ShardMap.fromConfig();
+        ShardRouter.install(shardMap);
+
         //Create the model instance and then configure and start the web service
         try {
-            GameService model = new GameService(dataSource);
+            GameService model = new GameService(openStore(storeType, dataSource), shardMap);
+            Runtime.getRuntime().addShutdownHook(new Thread(model::close, "game-store-close"));
+            model.getLifecycle().start();
+            Tablebase tablebase = openTablebase();
+            new ComputerPlayer(model, tablebase);
+            //WebSockets have to be mapped before any HTTP route
+            webSocket(GameSocketHandler.PATH, new GameSocketHandler(model, new SpectatorHub()));
+            new MetricsController(model, dataSource == null ? null : dataSource.unwrap(ConnectionPool.class));
             new GameController(model);
+            new AnalysisController(model, new Analyzer(tablebase, Config.getInt("analysis.cacheSize", Analyzer.CACHE_SIZE)));
+            new HistoryController(model);
+            new EventController(model);
+            new MatchmakingController(new Matchmaker(model));
         } catch (GameService.GameServiceException ex) {
             logger.error("Failed to create a GameService instance. Aborting");
         }
     }
 
+    /**
+     * The GameStore named by the config key store:
+     * <ul>
+     *   <li>sqlite, game.db as configured by configureDataSource, with a
+     *       snapshot of every game at least every store.snapshotMoves moves,</li>
+     *   <li>memory, nothing survives a restart,</li>
+     *   <li>log, an append-only log at store.logPath, forced to disk every
+     *       store.syncMillis and folded into a snapshot every
+     *       store.snapshotRecords records.</li>
+     * </ul>
+     */
+    private static GameStore openStore(String storeType, DataSource dataSource) throws GameService.GameServiceException {
+        try {
+            switch (storeType) {
+                case "sqlite":
+                    return new SqliteGameStore(dataSource,
+                            Config.getInt("lifecycle.vacuumPages", GameLifecycle.VACUUM_PAGES),
+                            Config.getInt("store.snapshotMoves", SNAPSHOT_MOVES));
+                case "memory":
+                    return new MemoryGameStore();
+                case "log":
+                    return new LogGameStore(Paths.get(Config.getString("store.logPath", LOG_PATH)),
+                            Config.getInt("store.bufferBytes", LOG_BUFFER_BYTES),
+                            Config.getLong("store.syncMillis", LOG_SYNC_MILLIS),
+                            Config.getLong("store.snapshotRecords", LOG_SNAPSHOT_RECORDS));
+                default:
+                    throw new GameService.GameServiceException("Unknown store " + storeType, null);
+            }
+        } catch (StoreException ex) {
+            logger.error("Failed to open the " + storeType + " store", ex);
+            throw new GameService.GameServiceException("Failed to open the " + storeType + " store", ex);
+        }
+    }
+
+    /**
+     * @return the mapped tablebase, generated on the first start, or null if
+     *         the file cannot be written and the computer has to search
+     */
+    private static Tablebase openTablebase() {
+        Path path = Paths.get(Config.getString("tablebase.path", TABLEBASE_PATH));
+        try {
+            return Tablebase.open(path);
+        } catch (IOException ex) {
+            logger.error("Failed to open the tablebase " + path + ", the computer player searches instead", ex);
+            return null;
+        }
+    }
+
     /**
      * Check if the database file exists in the current directory. If it does
      * create a DataSource instance for the file and return it.
-     * @return javax.sql.DataSource corresponding to the todo database
+     * @return javax.sql.DataSource corresponding to the game database, pooled and sized from the config
      */
     private static DataSource configureDataSource() {
-        Path gameDBPath = Paths.get(".", "game.db");
+        Path gameDBPath = Paths.get(Config.getString("db.path", DB_PATH));
         if ( !(Files.exists(gameDBPath) )) {
             try { Files.createFile(gameDBPath); }
             catch (java.io.IOException ex) {
@@ -64,8 +159,16 @@ public class Bootstrap {
         }
 
         SQLiteDataSource dataSource = new SQLiteDataSource();
-        dataSource.setUrl("jdbc:sqlite:game.db");
-        return dataSource;
+        dataSource.setUrl("jdbc:sqlite:" + gameDBPath);
+        // WAL lets the readers run next to the write-behind thread, and with WAL
+        // a NORMAL sync is still safe against application crashes
+        dataSource.setJournalMode("WAL");
+        dataSource.setSynchronous(Config.getString("db.synchronous", DB_SYNCHRONOUS));
+        dataSource.setCacheSize(Config.getInt("db.cacheSize", DB_CACHE_SIZE));
+        return new ConnectionPool(dataSource,
+                Config.getInt("db.poolSize", DB_POOL_SIZE),
+                Config.getInt("db.statementCacheSize", DB_STATEMENT_CACHE_SIZE),
+                Config.getLong("db.poolTimeoutMillis", DB_POOL_TIMEOUT_MS));
 
     }
 }
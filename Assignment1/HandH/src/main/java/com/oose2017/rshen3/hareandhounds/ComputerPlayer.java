@@ -0,0 +1,301 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.ai.AlphaBetaSearch;
+import com.oose2017.rshen3.hareandhounds.ai.Tablebase;
+import com.oose2017.rshen3.hareandhounds.ai.TranspositionTable;
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.engine.GameListener;
+import com.oose2017.rshen3.hareandhounds.engine.RepetitionTracker;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.metrics.Timer;
+import com.oose2017.rshen3.hareandhounds.model.MovePiece;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Plays the computer side of the games created with opponent AI.
+ *
+ * When it is the computer's turn the position and the history of the game
+ * are copied while the game is held, and the search runs on a small pool of
+ * its own. Request threads only queue the search and never wait for it. Each
+ * game has at most one search queued, the position only changes again once
+ * the computer has moved. A game loaded from the database has no history
+ * yet, its turn is queued without one and reads the game again, history
+ * included, once a worker runs it.
+ *
+ * The time of a move counts from when it was queued. A search that waited
+ * through its time, or found the queue full, only looks FALLBACK_DEPTH plies
+ * ahead. The full queue hands its moves to a thread of their own, which
+ * only makes these shallow moves. Once its queue of queueSize is full too,
+ * the turn is dropped and the game waits for its next load, as after a
+ * failed move. Making the move on the thread that queued it instead would
+ * change the game in the middle of notifying its listeners.
+ *
+ * A move that fails is tried once more on the game as it is then. A
+ * computer without a legal move concedes the game.
+ *
+ * With a Tablebase the move is looked up instead of searched. Without one,
+ * all searches share one TranspositionTable, the games start from the same
+ * position and keep meeting the same ones. Settings are read from Config
+ * with the prefix ai.
+ */
+public class ComputerPlayer implements GameListener {
+
+    public static final int MAX_DEPTH = 32;
+    public static final long MAX_NODES = 200000;
+    public static final long MOVE_MILLIS = 20;
+    public static final int QUEUE_SIZE = 256;
+    public static final int FALLBACK_DEPTH = 2;
+
+    private final GameService gameService;
+
+    private final Tablebase tablebase;
+
+    private final TranspositionTable table = new TranspositionTable();
+
+    private final int maxDepth = Config.getInt("ai.maxDepth", MAX_DEPTH);
+    private final long maxNodes = Config.getLong("ai.maxNodes", MAX_NODES);
+    private final long moveNanos = TimeUnit.MILLISECONDS.toNanos(Config.getLong("ai.moveMillis", MOVE_MILLIS));
+
+    private final ThreadPoolExecutor workers;
+
+    /** Makes the shallow moves of the turns the full queue of workers rejected */
+    private final ThreadPoolExecutor fallback;
+
+    private final Timer searchTimer;
+    private final LongAdder searchedNodes;
+    private final LongAdder tablebaseMoves;
+    private final LongAdder rejectedSearches;
+    private final LongAdder droppedTurns;
+    private final LongAdder failedMoves;
+    private final LongAdder concededGames;
+
+    private final Logger logger = LoggerFactory.getLogger(ComputerPlayer.class);
+
+    /**
+     * @param tablebase the solved game, null to search every move
+     */
+    public ComputerPlayer(GameService gameService, Tablebase tablebase) {
+        this.gameService = gameService;
+        this.tablebase = tablebase;
+        int threads = Config.getInt("ai.threads", Runtime.getRuntime().availableProcessors());
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Config.getInt("ai.queueSize", QUEUE_SIZE)), runnable -> {
+                    Thread thread = new Thread(runnable, "computer-player");
+                    thread.setDaemon(true);
+                    return thread;
+                }, this::rejected);
+        this.fallback = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Config.getInt("ai.queueSize", QUEUE_SIZE)), runnable -> {
+                    Thread thread = new Thread(runnable, "computer-player-fallback");
+                    thread.setDaemon(true);
+                    return thread;
+                }, this::overflowed);
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.searchTimer = metrics.timer("ai_search_seconds", "Searching the move of the computer player");
+        this.searchedNodes = metrics.counter("ai_search_nodes_total", "Positions searched by the computer player");
+        this.tablebaseMoves = metrics.counter("ai_tablebase_moves_total",
+                "Moves of the computer player looked up in the tablebase");
+        this.rejectedSearches = metrics.counter("ai_rejected_searches_total",
+                "Searches that found the queue full and made a shallow move");
+        this.droppedTurns = metrics.counter("ai_dropped_turns_total",
+                "Turns dropped because both queues were full, the game waits for its next load");
+        this.failedMoves = metrics.counter("ai_failed_moves_total",
+                "Moves of the computer player that failed twice, the game waits for its next load");
+        this.concededGames = metrics.counter("ai_conceded_games_total",
+                "Games the computer player conceded without a legal move");
+        metrics.gauge("ai_pending_searches", "Searches waiting for a computer player thread",
+                () -> workers.getQueue().size() + fallback.getQueue().size());
+        gameService.addListener(this);
+    }
+
+    @Override
+    public void gameChanged(ActiveGame game, MovePiece move) {
+        playIfComputerTurn(game);
+    }
+
+    /**
+     * A game restarted from the database may be waiting for the computer.
+     */
+    @Override
+    public void gameLoaded(ActiveGame game) {
+        playIfComputerTurn(game);
+    }
+
+    private void playIfComputerTurn(ActiveGame game) {
+        if (!game.isHistoryLoaded()) {
+            if (isComputerTurn(game)) {
+                workers.execute(new Turn(game.getGameId(), game.getComputerPieceType()));
+            }
+            return;
+        }
+        Turn turn = turnOf(game, false);
+        if (turn != null) {
+            workers.execute(turn);
+        }
+    }
+
+    /**
+     * The queue of workers is full, the turn is played shallow instead of waiting.
+     */
+    private void rejected(Runnable runnable, ThreadPoolExecutor executor) {
+        rejectedSearches.increment();
+        Turn turn = (Turn) runnable;
+        turn.shallow = true;
+        fallback.execute(turn);
+    }
+
+    /**
+     * The fallback queue is full as well, the turn is dropped.
+     */
+    private void overflowed(Runnable runnable, ThreadPoolExecutor executor) {
+        droppedTurns.increment();
+        logger.error("ComputerPlayer: dropped the turn of game " + ((Turn) runnable).gameId + ", the queues are full");
+    }
+
+    /**
+     * Copy what the search needs, called with the game held.
+     *
+     * @return null if it is not the turn of the computer
+     */
+    private Turn turnOf(ActiveGame game, boolean retry) {
+        if (!isComputerTurn(game)) {
+            return null;
+        }
+        return new Turn(game.getGameId(), game.getComputerPieceType(), game.getPosition(),
+                game.copyRepetitions(), retry);
+    }
+
+    private static boolean isComputerTurn(ActiveGame game) {
+        String pieceType = game.getComputerPieceType();
+        return pieceType != null && game.getState().equals("TURN_" + pieceType);
+    }
+
+    private class Turn implements Runnable {
+        private final String gameId;
+        private final String pieceType;
+        private final int position;
+        /** null until the game is read again with its history */
+        private final RepetitionTracker history;
+        private final boolean retry;
+        private long queuedAt = System.nanoTime();
+        private boolean shallow;
+
+        /**
+         * The turn of a game whose history is not loaded yet.
+         */
+        Turn(String gameId, String pieceType) {
+            this(gameId, pieceType, -1, null, false);
+        }
+
+        Turn(String gameId, String pieceType, int position, RepetitionTracker history, boolean retry) {
+            this.gameId = gameId;
+            this.pieceType = pieceType;
+            this.position = position;
+            this.history = history;
+            this.retry = retry;
+        }
+
+        @Override
+        public void run() {
+            if (history == null) {
+                Turn turn = readTurn(gameId, retry);
+                if (turn != null) {
+                    turn.queuedAt = queuedAt;
+                    turn.shallow = shallow;
+                    turn.run();
+                }
+                return;
+            }
+            int move = chooseMove(position, Bitboard.pieceCode(pieceType), history,
+                    moveNanos - (System.nanoTime() - queuedAt), shallow);
+            if (move < 0) {
+                logger.error("ComputerPlayer: no legal move in game " + gameId);
+                if (retry) {
+                    concede(gameId, pieceType);
+                } else {
+                    playAgain(gameId);
+                }
+                return;
+            }
+            MovePiece movePiece = new MovePiece();
+            movePiece.setGameId(gameId);
+            movePiece.setPlayerId(pieceType + "_player");
+            movePiece.setFromX(Bitboard.cellX(move >>> 4));
+            movePiece.setFromY(Bitboard.cellY(move >>> 4));
+            movePiece.setToX(Bitboard.cellX(move & 15));
+            movePiece.setToY(Bitboard.cellY(move & 15));
+            try {
+                gameService.makeComputerMove(movePiece);
+            } catch (GameService.WrongGameIDException | GameService.WrongPlayerIDException
+                    | GameService.IncorrectTurn | GameService.IllegalMove
+                    | GameService.GameServiceException ex) {
+                logger.error("ComputerPlayer: failed to move in game " + gameId, ex);
+                if (retry) {
+                    failedMoves.increment();
+                } else {
+                    playAgain(gameId);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param budgetNanos what is left of the time of the move
+     * @return the move as from << 4 | to, -1 if there is none
+     */
+    private int chooseMove(int position, int side, RepetitionTracker history, long budgetNanos, boolean shallow) {
+        if (tablebase != null) {
+            tablebaseMoves.increment();
+            return tablebase.bestMove(position, side, history);
+        }
+        boolean late = shallow || budgetNanos <= 0;
+        long started = System.nanoTime();
+        AlphaBetaSearch.Result result = new AlphaBetaSearch(table, late ? FALLBACK_DEPTH : maxDepth, maxNodes,
+                late ? moveNanos : budgetNanos).search(position, side, history);
+        searchTimer.recordSince(started);
+        searchedNodes.add(result.getNodes());
+        return result.getFrom() < 0 ? -1 : result.getFrom() << 4 | result.getTo();
+    }
+
+    /**
+     * Try the move once more on the game as it is now, on this thread.
+     */
+    private void playAgain(String gameId) {
+        Turn turn = readTurn(gameId, true);
+        if (turn != null) {
+            turn.run();
+        }
+    }
+
+    /**
+     * @return the turn of the game as it is now with its history, null if it
+     *         is not the turn of the computer or the game cannot be read
+     */
+    private Turn readTurn(String gameId, boolean retry) {
+        try {
+            return gameService.readWithHistory(gameId, game -> turnOf(game, retry));
+        } catch (GameService.WrongGameIDException | GameService.GameServiceException ex) {
+            failedMoves.increment();
+            logger.error("ComputerPlayer: failed to read game " + gameId + " again", ex);
+            return null;
+        }
+    }
+
+    private void concede(String gameId, String pieceType) {
+        try {
+            gameService.concede(gameId, pieceType);
+            concededGames.increment();
+        } catch (GameService.WrongGameIDException | GameService.GameServiceException ex) {
+            failedMoves.increment();
+            logger.error("ComputerPlayer: failed to concede game " + gameId, ex);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.engine.GameWatchers;
+import com.oose2017.rshen3.hareandhounds.model.GameEvent;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static spark.Spark.*;
+
+/**
+ * Long-poll endpoint that pushes game changes instead of having every client
+ * poll the state and the board.
+ *
+ * GET /hareandhounds/api/games/:gameId/events?since=version answers right away
+ * when the game is at another version than the given one, otherwise the
+ * request is parked as an async servlet request until the game changes or the
+ * poll times out, so waiting clients do not hold a Jetty thread.
+ *
+ * Versions carry on across loads of a game, see ActiveGame.getVersion. A
+ * version newer than the game belongs to a change the store never got, the
+ * game went back to the store's copy, so that poll is answered right away too.
+ */
+public class EventController {
+
+    private static final String API_PREFIX = "/hareandhounds/api/games";
+
+    private static final long LONG_POLL_TIMEOUT_MS = 30000;
+
+    private static final int WRITER_THREADS = 2;
+
+    private final GameService gameService;
+
+    /**
+     * Writes the answers of parked polls. The embedded server has no servlet
+     * context, so AsyncContext.start cannot be used for this.
+     */
+    private final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "long-poll-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Logger logger = LoggerFactory.getLogger(EventController.class);
+
+    public EventController(GameService gameService) {
+        this.gameService = gameService;
+        setupEndpoints();
+    }
+
+    private void setupEndpoints() {
+        get(API_PREFIX + "/:gameId" + "/events", "application/json", new JsonRoute((request, response) -> {
+            String gameId = request.params("gameId");
+            try {
+                long since = parseVersion(request.queryParams("since"));
+                GameEvent gameEvent = gameService.fetchEvent(gameId);
+                response.status(200);
+                if (gameEvent.getVersion() != since) {
+                    return gameEvent;
+                }
+                waitForChange(request.raw(), response.raw(), gameId, since);
+                return "";
+            } catch (NumberFormatException ex) {
+                logger.error("Failed to watch the game: since is not a version");
+                response.status(400);
+            } catch (GameService.WrongGameIDException ex) {
+                logger.error("Failed to watch the game: gameId does not exist!");
+                response.status(404);
+            } catch (GameService.GameServiceException ex) {
+                logger.error("Failed to watch the game");
+                response.status(400);
+            }
+            return Collections.EMPTY_MAP;
+        }));
+    }
+
+    private static long parseVersion(String since) {
+        return since == null ? -1 : Long.parseLong(since);
+    }
+
+    /**
+     * Commit the headers and park the request. Spark leaves a committed
+     * response alone, the body is written once the game changes.
+     */
+    private void waitForChange(HttpServletRequest request, HttpServletResponse response,
+                               String gameId, long since) throws IOException,
+                                                                 GameService.WrongGameIDException,
+                                                                 GameService.GameServiceException {
+        response.setContentType("application/json");
+        response.flushBuffer();
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(LONG_POLL_TIMEOUT_MS);
+        PendingPoll poll = new PendingPoll(gameId, asyncContext);
+        asyncContext.addListener(poll);
+        gameService.watch(gameId, poll);
+        // The game may have changed before the watcher was registered
+        if (gameService.fetchEvent(gameId).getVersion() != since) {
+            poll.changed(gameId, since);
+        }
+    }
+
+    private class PendingPoll implements GameWatchers.Watcher, AsyncListener {
+        private final String gameId;
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        PendingPoll(String gameId, AsyncContext asyncContext) {
+            this.gameId = gameId;
+            this.asyncContext = asyncContext;
+        }
+
+        @Override
+        public void changed(String gameId, long version) {
+            if (done.compareAndSet(false, true)) {
+                // Do not write on the thread that made the move
+                writers.execute(this::respond);
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            gameService.unwatch(gameId, this);
+            if (done.compareAndSet(false, true)) {
+                respond();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            gameService.unwatch(gameId, this);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            gameService.unwatch(gameId, this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void respond() {
+            try {
+                GameEvent gameEvent = gameService.fetchEvent(gameId);
+                JsonCodec.write(gameEvent, asyncContext.getResponse().getOutputStream());
+            } catch (IOException | GameService.GameServiceException | GameService.WrongGameIDException ex) {
+                logger.error("Failed to answer the long-poll of game " + gameId, ex);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+}
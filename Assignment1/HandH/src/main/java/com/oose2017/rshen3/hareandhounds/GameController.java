@@ -5,14 +5,18 @@
 
 package com.oose2017.rshen3.hareandhounds;
 
-import com.oose2017.rshen3.hareandhounds.model.GameState;
-import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+import com.google.gson.JsonParseException;
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.model.MovePiece;
 import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
 
 import java.util.Collections;
-import java.util.List;
+import java.util.function.Function;
 
 import static spark.Spark.*;
 
@@ -20,6 +24,13 @@ public class GameController {
 
     private static final String API_PREFIX = "/hareandhounds/api/games";
 
+    /**
+     * The state and the board in one line, e.g. TURN_HOUND HOUND011012HARE41
+     */
+    public static final String COMPACT_TYPE = "application/vnd.hareandhounds.compact";
+
+    private static final String COMPACT_FORMAT = "compact";
+
     private final GameService gameService;
 
     private final Logger logger = LoggerFactory.getLogger(GameController.class);
@@ -30,20 +41,21 @@ public class GameController {
     }
 
     private void setupEndpoints() {
-        post(API_PREFIX, "application/json", (request, response) -> {
+        post(API_PREFIX, "application/json", new JsonRoute((request, response) -> {
             try {
-                logger.info("Creating a new game for" + request.body());
-                PlayerInfo playerInfo = gameService.createGame(request.body());
+                PlayerInfo playerInfo = JsonCodec.decode(JsonRoute.body(request), PlayerInfo.class);
+                logger.info("Creating a new game for " + playerInfo.getPieceType());
+                playerInfo = gameService.createGame(playerInfo);
                 response.status(201);
                 return playerInfo;
-            } catch (GameService.GameServiceException ex) {
+            } catch (JsonParseException | GameService.GameServiceException ex) {
                 logger.error("Failed to create a new game!");
                 response.status(400);
                 return Collections.EMPTY_MAP;
             }
-        }, new JsonTransformer());
+        }));
 
-        put(API_PREFIX + "/:gameId", "application/json", (request, response)->{
+        put(API_PREFIX + "/:gameId", "application/json", new JsonRoute((request, response) -> {
             try {
                 logger.info("another player is trying to join the game, id:" + request.params("gameId"));
                 PlayerInfo playerInfo = gameService.joinGame(request.params("gameId"));
@@ -61,41 +73,41 @@ public class GameController {
                 response.status(400);
             }
             return Collections.EMPTY_MAP;
-        }, new JsonTransformer());
+        }));
 
-        get(API_PREFIX + "/:gameId" + "/state", "application/json", (request, response) -> {
-            try {
-                GameState gameState = gameService.fetchState(request.params("gameId"));
-                response.status(200);
-                return gameState;
-            } catch (GameService.WrongGameIDException ex) {
-                logger.error("Failed to fetch game state: gameId does not exist!");
-                response.status(404);
-            } catch (GameService.GameServiceException ex) {
-                response.status(400);
-                logger.error("Failed to fetch game state");
-            }
-            return Collections.EMPTY_MAP;
-        }, new JsonTransformer());
+        // The compact form is also served to clients that only accept it
+        for (String acceptType: new String[] {"application/json", COMPACT_TYPE}) {
+            get(API_PREFIX + "/:gameId" + "/state", acceptType, new JsonRoute((request, response) -> {
+                try {
+                    return conditionalGet(request, response, ActiveGame::snapshotState);
+                } catch (GameService.WrongGameIDException ex) {
+                    logger.error("Failed to fetch game state: gameId does not exist!");
+                    response.status(404);
+                } catch (GameService.GameServiceException ex) {
+                    response.status(400);
+                    logger.error("Failed to fetch game state");
+                }
+                return Collections.EMPTY_MAP;
+            }));
 
-        get(API_PREFIX + "/:gameId" + "/board", "application/json", (request, response) -> {
-            try {
-                List<PieceInfo> pieceInfoList = gameService.fetchBoard(request.params("gameId"));
-                response.status(200);
-                return pieceInfoList;
-            } catch (GameService.WrongGameIDException ex) {
-                logger.error("Failed to fetch game board: gameId does not exist!");
-                response.status(404);
-            } catch (GameService.GameServiceException ex) {
-                logger.error("Failed to fetch game board");
-                response.status(400);
-            }
-            return Collections.EMPTY_MAP;
-        }, new JsonTransformer());
+            get(API_PREFIX + "/:gameId" + "/board", acceptType, new JsonRoute((request, response) -> {
+                try {
+                    return conditionalGet(request, response, ActiveGame::getBoardJson);
+                } catch (GameService.WrongGameIDException ex) {
+                    logger.error("Failed to fetch game board: gameId does not exist!");
+                    response.status(404);
+                } catch (GameService.GameServiceException ex) {
+                    logger.error("Failed to fetch game board");
+                    response.status(400);
+                }
+                return Collections.EMPTY_MAP;
+            }));
+        }
 
-        post(API_PREFIX + "/:gameId" + "/turns", "application/json", (request, response) -> {
+        post(API_PREFIX + "/:gameId" + "/turns", "application/json", new JsonRoute((request, response) -> {
             try {
-                PlayerInfo playerInfo = gameService.makeMove(request.body());
+                MovePiece movePiece = JsonCodec.decode(JsonRoute.body(request), MovePiece.class);
+                PlayerInfo playerInfo = gameService.makeMove(movePiece);
                 response.status(200);
                 return playerInfo;
             } catch (GameService.WrongGameIDException ex) {
@@ -114,11 +126,59 @@ public class GameController {
                 logger.error("Failed to make a move, incorrect turn");
                 response.status(422);
                 return ("INCORRECT_TURN");
-            } catch (GameService.GameServiceException ex) {
+            } catch (JsonParseException | GameService.GameServiceException ex) {
                 logger.error("Failed to make a move.");
                 response.status(400);
                 return ("BAD_REQUEST");
             }
-        }, new JsonTransformer());
+        }));
+    }
+
+    /**
+     * Answer a poll of the state or the board. The ETag changes with every
+     * change of the game, a client that sends the current one in
+     * If-None-Match gets 304 without a body.
+     *
+     * Asking for COMPACT_TYPE in Accept or format=compact returns the state
+     * and the board together as one line of text instead.
+     */
+    private Object conditionalGet(Request request, Response response, Function<ActiveGame, Object> render)
+            throws GameService.WrongGameIDException, GameService.GameServiceException {
+        boolean compact = COMPACT_FORMAT.equals(request.queryParams("format"))
+                || acceptsOnly(request.headers("Accept"), COMPACT_TYPE);
+        String ifNoneMatch = request.headers("If-None-Match");
+        Tagged tagged = gameService.read(request.params("gameId"), game -> {
+            String tag = "\"" + game.getETag() + (compact ? "-c" : "") + "\"";
+            if (ifNoneMatch != null && ifNoneMatch.contains(tag)) {
+                return new Tagged(tag, null);
+            }
+            return new Tagged(tag, compact ? game.getCompact() : render.apply(game));
+        });
+        response.header("ETag", tagged.tag);
+        response.header("Vary", "Accept");
+        response.type(compact ? COMPACT_TYPE : "application/json");
+        if (tagged.body == null) {
+            response.status(304);
+            return "";
+        }
+        response.status(200);
+        return tagged.body;
+    }
+
+    private static boolean acceptsOnly(String accept, String type) {
+        return accept != null && accept.contains(type) && !accept.contains("json");
+    }
+
+    /**
+     * A response body together with the ETag of the version it was made from
+     */
+    private static class Tagged {
+        private final String tag;
+        private final Object body;
+
+        Tagged(String tag, Object body) {
+            this.tag = tag;
+            this.body = body;
+        }
     }
 }
@@ -0,0 +1,223 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.db.GameCodes;
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.engine.GameLocks;
+import com.oose2017.rshen3.hareandhounds.engine.GameRegistry;
+import com.oose2017.rshen3.hareandhounds.store.GameStore;
+import com.oose2017.rshen3.hareandhounds.store.StoreException;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Background sweep that keeps the GameStore and the registry from growing forever.
+ *
+ * Every sweep
+ * <ul>
+ *   <li>evicts games that nobody asked for in a while from memory,</li>
+ *   <li>deletes games that waited too long for a second player,</li>
+ *   <li>ends games in play nobody moved in for abandonAfterMinutes as ABANDONED,</li>
+ *   <li>archives finished games past their retention, into GameArchive with SQLite,</li>
+ *   <li>deletes archived games past archiveRetentionDays with their moves, a bounded number,</li>
+ *   <li>and hands a bounded amount of free space back, e.g. with incremental_vacuum.</li>
+ * </ul>
+ * The sweep runs on the write-behind thread of GameService, so every change
+ * queued before it is in the database when a game is dropped from memory.
+ * Settings are read from Config with the prefix lifecycle.
+ */
+public class GameLifecycle {
+
+    public static final long SWEEP_SECONDS = 60;
+    public static final long EVICT_AFTER_MINUTES = 30;
+    public static final long WAITING_TIMEOUT_MINUTES = 60;
+    public static final long ABANDON_AFTER_MINUTES = 24 * 60;
+    public static final long ARCHIVE_AFTER_MINUTES = 10;
+    public static final long ARCHIVE_RETENTION_DAYS = 30;
+    public static final int PURGE_GAMES = 1000;
+    public static final int VACUUM_PAGES = 256;
+
+    private final GameStore store;
+    private final GameRegistry registry;
+    private final GameLocks locks;
+    private final ExecutorService writer;
+
+    private final long sweepSeconds;
+    private final long evictAfterMillis;
+    private final long waitingTimeoutMillis;
+    private final long abandonAfterMillis;
+    private final long archiveAfterMillis;
+    private final long archiveRetentionMillis;
+    private final int purgeGames;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "game-lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong archived = new AtomicLong();
+    private final AtomicLong purged = new AtomicLong();
+    private final AtomicLong vacuumedPages = new AtomicLong();
+    private volatile long lastSweepMillis;
+
+    private final Logger logger = LoggerFactory.getLogger(GameLifecycle.class);
+
+    /**
+     * @param writer the write-behind thread of GameService
+     */
+    GameLifecycle(GameStore store, GameRegistry registry, GameLocks locks, ExecutorService writer) {
+        this.store = store;
+        this.registry = registry;
+        this.locks = locks;
+        this.writer = writer;
+        this.sweepSeconds = Config.getLong("lifecycle.sweepSeconds", SWEEP_SECONDS);
+        this.evictAfterMillis = TimeUnit.MINUTES.toMillis(
+                Config.getLong("lifecycle.evictAfterMinutes", EVICT_AFTER_MINUTES));
+        this.waitingTimeoutMillis = TimeUnit.MINUTES.toMillis(
+                Config.getLong("lifecycle.waitingTimeoutMinutes", WAITING_TIMEOUT_MINUTES));
+        this.abandonAfterMillis = TimeUnit.MINUTES.toMillis(
+                Config.getLong("lifecycle.abandonAfterMinutes", ABANDON_AFTER_MINUTES));
+        this.archiveAfterMillis = TimeUnit.MINUTES.toMillis(
+                Config.getLong("lifecycle.archiveAfterMinutes", ARCHIVE_AFTER_MINUTES));
+        this.archiveRetentionMillis = TimeUnit.DAYS.toMillis(
+                Config.getLong("lifecycle.archiveRetentionDays", ARCHIVE_RETENTION_DAYS));
+        this.purgeGames = Config.getInt("lifecycle.purgeGames", PURGE_GAMES);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> writer.execute(this::sweep),
+                sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void sweep() {
+        long started = System.currentTimeMillis();
+        long waitingCutoff = started - waitingTimeoutMillis;
+        long abandonCutoff = started - abandonAfterMillis;
+        try {
+            // Change the store first, a game evicted before could be loaded and joined or moved again
+            expired.addAndGet(store.expireWaiting(waitingCutoff));
+            abandoned.addAndGet(store.abandonPlaying(abandonCutoff, started));
+            evictGames(started - evictAfterMillis, waitingCutoff, abandonCutoff);
+            archived.addAndGet(store.archiveFinished(started - archiveAfterMillis));
+            purged.addAndGet(store.purgeArchived(started - archiveRetentionMillis, purgeGames));
+            vacuumedPages.addAndGet(store.compact());
+        } catch (StoreException ex) {
+            logger.error("GameLifecycle.sweep: Failed to clean up the game store", ex);
+        }
+        sweeps.incrementAndGet();
+        lastSweepMillis = System.currentTimeMillis() - started;
+    }
+
+    /**
+     * Drop idle games from memory. A waiting game past its timeout goes too,
+     * even if it is still polled, because its rows are deleted already, and
+     * so does a game in play past abandonAfterMinutes, which the store ended.
+     *
+     * A game that is held is skipped, its holder may be waiting for room in
+     * the queue of this very thread. Such a game is in use and not idle, an
+     * expired one is evicted by the next sweep.
+     */
+    private void evictGames(long accessCutoff, long waitingCutoff, long abandonCutoff) {
+        for (ActiveGame game: registry.games()) {
+            Lock lock = locks.lockFor(game.getGameId());
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                boolean idle = game.getLastAccess() < accessCutoff;
+                boolean ended = isExpired(game, waitingCutoff) || isAbandoned(game, abandonCutoff);
+                if ((idle || ended) && registry.remove(game)) {
+                    evicted.incrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Whether a sweep may have deleted the waiting game. GameService does not
+     * let such a game be joined, the join would be written after the delete.
+     *
+     * @param cutoff the time of the check minus the waiting timeout
+     */
+    boolean isExpired(ActiveGame game, long cutoff) {
+        return game.getPlayerCount() < 2 && game.getUpdatedAt() < cutoff;
+    }
+
+    /**
+     * @return the cutoff of isExpired for a check made now
+     */
+    long waitingCutoff() {
+        return System.currentTimeMillis() - waitingTimeoutMillis;
+    }
+
+    /**
+     * Whether a sweep may have ended the game in play as ABANDONED. GameService
+     * does not let such a game be moved, the move would be written after the end.
+     *
+     * @param cutoff the time of the check minus abandonAfterMinutes
+     */
+    boolean isAbandoned(ActiveGame game, long cutoff) {
+        return GameCodes.isPlaying(game.getState()) && game.getUpdatedAt() < cutoff;
+    }
+
+    /**
+     * @return the cutoff of isAbandoned for a check made now
+     */
+    long abandonCutoff() {
+        return System.currentTimeMillis() - abandonAfterMillis;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Metrics
+    //-----------------------------------------------------------------------------//
+
+    public long getSweeps() {
+        return sweeps.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    public long getArchived() {
+        return archived.get();
+    }
+
+    public long getPurged() {
+        return purged.get();
+    }
+
+    public long getVacuumedPages() {
+        return vacuumedPages.get();
+    }
+
+    public long getLastSweepMillis() {
+        return lastSweepMillis;
+    }
+}
@@ -4,25 +4,99 @@
 //-------------------------------------------------------------------------------------------------------------//
 
 package com.oose2017.rshen3.hareandhounds;
-import com.fasterxml.uuid.Generators;
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.oose2017.rshen3.hareandhounds.cluster.ShardMap;
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.engine.GameListener;
+import com.oose2017.rshen3.hareandhounds.engine.GameLocks;
+import com.oose2017.rshen3.hareandhounds.engine.GameRegistry;
+import com.oose2017.rshen3.hareandhounds.engine.GameWatchers;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.metrics.Timer;
+import com.oose2017.rshen3.hareandhounds.model.GameEvent;
+import com.oose2017.rshen3.hareandhounds.model.GameHistory;
 import com.oose2017.rshen3.hareandhounds.model.GameState;
 import com.oose2017.rshen3.hareandhounds.model.MovePiece;
+import com.oose2017.rshen3.hareandhounds.model.MoveRecord;
 import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
 import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.store.ArchivedGame;
+import com.oose2017.rshen3.hareandhounds.store.GameStore;
+import com.oose2017.rshen3.hareandhounds.store.SqliteGameStore;
+import com.oose2017.rshen3.hareandhounds.store.StoreException;
+import com.oose2017.rshen3.hareandhounds.store.StoredGame;
+import com.oose2017.rshen3.hareandhounds.store.StoredMove;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
 import com.oose2017.rshen3.hareandhounds.utils.BoardHelper;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+import com.oose2017.rshen3.hareandhounds.utils.MoveTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sql2o.Connection;
-import org.sql2o.Sql2o;
-import org.sql2o.Sql2oException;
 
 import javax.sql.DataSource;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
 
 public class GameService {
 
-    private Sql2o db;
+    public static final int LOCK_STRIPES = 256;
+    public static final int WRITE_QUEUE = 10000;
+
+    /**
+     * The opponent of createGame that makes the other piece a ComputerPlayer
+     */
+    public static final String COMPUTER_OPPONENT = "AI";
+
+    private final GameStore store;
+
+    /**
+     * The gameIds of new games are in the shards of this node
+     */
+    private final ShardMap shardMap;
+
+    private final GameRegistry registry = new GameRegistry();
+
+    /**
+     * Every access to a game, including loading and evicting it, holds its stripe
+     */
+    private final GameLocks locks = new GameLocks(Config.getInt("engine.lockStripes", LOCK_STRIPES));
+
+    private final GameWatchers watchers = new GameWatchers();
+
+    private final List<GameListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Single writer thread for the write-behind persistence of the in-memory games.
+     * A caller that finds the queue full waits for room, see waitForRoom.
+     */
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Config.getInt("engine.writeQueue", WRITE_QUEUE)), runnable -> {
+                Thread thread = new Thread(runnable, "game-db-writer");
+                thread.setDaemon(true);
+                return thread;
+            }, GameService::waitForRoom);
+
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private final Timer createTimer = operationTimer("createGame");
+    private final Timer joinTimer = operationTimer("joinGame");
+    private final Timer moveTimer = operationTimer("makeMove");
+    private final Timer loadTimer = metrics.timer("game_load_seconds",
+            "Loading a game from the database on a registry miss");
+    private final Map<String, Timer> writeTimers = new ConcurrentHashMap<>();
+    private final LongAdder writeFailures = metrics.counter("db_write_behind_failures_total",
+            "Write-behind transactions that failed, their game is loaded again from the store");
+
+    private final GameLifecycle lifecycle;
 
     private final Logger logger = LoggerFactory.getLogger(GameService.class);
     private HashMap<String, String> stateMap;
@@ -33,76 +107,183 @@ public class GameService {
      * @param dataSource
      */
     public GameService(DataSource dataSource) throws GameServiceException {
+        this(openSqlite(dataSource));
+    }
+
+    /**
+     * Construct the model on any GameStore, see Bootstrap for the choice,
+     * as the only node.
+     */
+    public GameService(GameStore store) {
+        this(store, ShardMap.single());
+    }
+
+    /**
+     * Construct the model as one node of a cluster, it creates games in its
+     * own shards only.
+     */
+    public GameService(GameStore store, ShardMap shardMap) {
+        this.shardMap = shardMap;
         stateMap = new HashMap<>();
         stateMap.put("HARE_player", "TURN_HARE");
         stateMap.put("HOUND_player", "TURN_HOUND");
-        db = new Sql2o(dataSource);
-
-        //Create the schema for the database if necessary. This allows this
-        //program to mostly self-contained. But this is not always what you want;
-        //sometimes you want to create the schema externally via a script.
-        try (Connection conn = db.open()) {
-            String sqlCreatePlayerInfos = "CREATE TABLE IF NOT EXISTS `PlayerInfos` ( `gameId` TEXT NOT NULL, " +
-                                                     "`playerId` TEXT NOT NULL, " +
-                                                     "`pieceType` TEXT NOT NULL )";
-
-            String sqlCreatePieceInfo = "CREATE TABLE IF NOT EXISTS `PieceInfos` ( `gameId` TEXT NOT NULL, " +
-                                                "`pieceType` TEXT NOT NULL, " +
-                                                "`x` INTEGER NOT NULL, `y` INTEGER NOT NULL )";
-            String sqlCreateGameStatus = "CREATE TABLE IF NOT EXISTS `GameStates` ( `gameId` TEXT NOT NULL, " +
-                                                "`state` TEXT NOT NULL )";
-            String sqlCreateGameRecord = "CREATE TABLE IF NOT EXISTS `GameRecord` ( `gameId` TEXT NOT NULL, " +
-                    "`moveRecord` TEXT NOT NULL )";
-
-            conn.createQuery(sqlCreatePlayerInfos).executeUpdate();
-            conn.createQuery(sqlCreatePieceInfo).executeUpdate();
-            conn.createQuery(sqlCreateGameStatus).executeUpdate();
-            conn.createQuery(sqlCreateGameRecord).executeUpdate();
-        } catch(Sql2oException ex) {
-            logger.error("Failed to create schema at startup", ex);
+        this.store = store;
+        // waitForRoom puts into the queue directly, the thread has to be there to take it
+        writer.prestartAllCoreThreads();
+        lifecycle = new GameLifecycle(store, registry, locks, writer);
+    }
+
+    //Create or migrate the schema of the database if necessary. This allows this
+    //program to mostly self-contained. But this is not always what you want;
+    //sometimes you want to create the schema externally via a script.
+    private static GameStore openSqlite(DataSource dataSource) throws GameServiceException {
+        try {
+            return new SqliteGameStore(dataSource,
+                    Config.getInt("lifecycle.vacuumPages", GameLifecycle.VACUUM_PAGES),
+                    Config.getInt("store.snapshotMoves", Bootstrap.SNAPSHOT_MOVES));
+        } catch (StoreException ex) {
+            LoggerFactory.getLogger(GameService.class).error("Failed to create schema at startup", ex);
             throw new GameServiceException("Failed to create schema at startup", ex);
         }
     }
 
+    /**
+     * @return the expiry and archival of the games, started by Bootstrap
+     */
+    public GameLifecycle getLifecycle() {
+        return lifecycle;
+    }
+
+    public ShardMap getShardMap() {
+        return shardMap;
+    }
+
+    /**
+     * @return the number of games in memory per state. Read without taking the
+     *         game locks, the counts are approximate while games change.
+     */
+    public Map<String, Integer> countLoadedGames() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (ActiveGame game: registry.games()) {
+            counts.merge(game.getState(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the writes queued for the database and not yet started
+     */
+    public int getPendingWrites() {
+        return writer.getQueue().size();
+    }
+
+    public int getWatcherCount() {
+        return watchers.size();
+    }
+
+    private Timer operationTimer(String operation) {
+        return metrics.timer("game_operation_seconds",
+                "GameService calls including the wait for the game lock", "operation", operation);
+    }
+
     /**
      * Create a new game for the input piece type
      *
      * @return the gameId, playerId, pieceType
      */
     public PlayerInfo createGame(String body) throws GameServiceException {
-        UUID uuid = Generators.timeBasedGenerator().generate();
-        PlayerInfo playerInfo = new Gson().fromJson(body, PlayerInfo.class);
+        try {
+            return createGame(JsonCodec.decode(body, PlayerInfo.class));
+        } catch (JsonParseException ex) {
+            logger.error("GameService.createGame: malformed request", ex);
+            throw new GameServiceException("GameService.createGame: malformed request", ex);
+        }
+    }
+
+    /**
+     * Create a new game for the piece type of the decoded request. With the
+     * opponent COMPUTER_OPPONENT the other piece is played by ComputerPlayer
+     * and the game starts right away.
+     *
+     * @return the same object with the gameId and playerId filled in
+     */
+    public PlayerInfo createGame(PlayerInfo playerInfo) throws GameServiceException {
+        String pieceType = playerInfo.getPieceType();
+        if (!"HARE".equals(pieceType) && !"HOUND".equals(pieceType)) {
+            logger.error("GameService.createGame: unknown pieceType " + pieceType);
+            throw new GameServiceException("GameService.createGame: unknown pieceType " + pieceType, null);
+        }
+        String opponent = playerInfo.getOpponent();
+        if (opponent != null && !opponent.equals(COMPUTER_OPPONENT)) {
+            logger.error("GameService.createGame: unknown opponent " + opponent);
+            throw new GameServiceException("GameService.createGame: unknown opponent " + opponent, null);
+        }
+        boolean computer = opponent != null;
+        long started = System.nanoTime();
+        String gameId = shardMap.newGameId();
         playerInfo.setPlayerId(playerInfo.getPieceType() + "_player");
-        playerInfo.setGameId(uuid.toString());
+        playerInfo.setGameId(gameId);
+        String state = computer ? "TURN_HOUND" : "WAITING_FOR_SECOND_PLAYER";
+        ActiveGame game = new ActiveGame(gameId, state, Bitboard.fromPieces(BoardHelper.generatePieces(gameId)));
+        game.addPlayer(playerInfo.getPieceType());
+        String computerPieceType = playerInfo.getPieceType().equals("HOUND") ? "HARE" : "HOUND";
+        int position = game.getPosition();
+        if (computer) {
+            game.addComputerPlayer(computerPieceType);
+            game.recordPosition(position);
+            game.setSeq(0);
+        }
         // Insert the new game info into the database
-        String sqlCreateNewGame = "INSERT INTO PlayerInfos (`gameId`, `playerId`, `pieceType`) " +
-                                    "VALUES (:gameId, :playerId, :pieceType)";
-        String sqlCreatePieces = "INSERT INTO PieceInfos (`gameId`, `pieceType`, `x`, `y`) " +
-                                    "VALUES (:gameId, :pieceType, :x, :y)";
-        String sqlCreateGameStatus = "INSERT INTO GameStates (`gameId`, `state`) " +
-                                    "VALUES (:gameId, :state)";
-
-        try (Connection conn = db.open()) {
-            conn.createQuery(sqlCreateNewGame)
-                    .bind(playerInfo)
-                    .executeUpdate();
-            // Initialize the game state
-            conn.createQuery(sqlCreateGameStatus)
-                    .addParameter("gameId", uuid.toString())
-                    .addParameter("state", "WAITING_FOR_SECOND_PLAYER")
-                    .executeUpdate();
-            // Initialize the piece location in the board
-            List<PieceInfo> pieceInfos = BoardHelper.generatePieces(uuid.toString());
-            for (PieceInfo pieceInfo: pieceInfos) {
-                conn.createQuery(sqlCreatePieces)
-                        .bind(pieceInfo)
-                        .executeUpdate();
+        StoredGame stored = new StoredGame(gameId, state, position, game.getUpdatedAt());
+        stored.setSeq(game.getSeq());
+        stored.addPlayer(playerInfo.getPieceType());
+        stored.setComputerPieceType(computer ? computerPieceType : null);
+        writeBehind("createGame", game, () -> store.createGame(stored));
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            registry.putIfAbsent(game);
+            if (computer) {
+                // A computer playing the hounds makes the first move
+                notifyListeners(game, null);
             }
-            return playerInfo;
-        } catch(Sql2oException ex) {
-            logger.error("GameService.createGame: Failed to query database to create the new game", ex);
-            throw new GameServiceException("GameService.createGame: Failed to query database to create the new game", ex);
+        } finally {
+            lock.unlock();
+            createTimer.recordSince(started);
+        }
+        return playerInfo;
+    }
+
+    /**
+     * Create a game that both players join right away, for players paired by
+     * the Matchmaker. The game starts in TURN_HOUND, the playerIds are
+     * HOUND_player and HARE_player as usual.
+     *
+     * @return the gameId
+     */
+    public String createMatchedGame() {
+        long started = System.nanoTime();
+        String gameId = shardMap.newGameId();
+        ActiveGame game = new ActiveGame(gameId, "TURN_HOUND", Bitboard.fromPieces(BoardHelper.generatePieces(gameId)));
+        game.addPlayer("HOUND");
+        game.addPlayer("HARE");
+        int position = game.getPosition();
+        game.recordPosition(position);
+        game.setSeq(0);
+        StoredGame stored = new StoredGame(gameId, "TURN_HOUND", position, game.getUpdatedAt());
+        stored.setSeq(0);
+        stored.addPlayer("HOUND");
+        stored.addPlayer("HARE");
+        writeBehind("createMatchedGame", game, () -> store.createGame(stored));
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            registry.putIfAbsent(game);
+        } finally {
+            lock.unlock();
+            createTimer.recordSince(started);
         }
+        return gameId;
     }
 
     /**
@@ -113,93 +294,234 @@ public class GameService {
     public PlayerInfo joinGame(String gameId) throws FullPlayersException, WrongGameIDException, GameServiceException {
         PlayerInfo newPlayer = new PlayerInfo();
         newPlayer.setGameId(gameId);
-        String sqlFetchPlayers = "SELECT * FROM PlayerInfos WHERE gameId = :gameId";
-        String sqlInsert = "INSERT INTO PlayerInfos (`gameId`, `playerId`, `pieceType`) " +
-                                "VALUES (:gameId, :playerId, :pieceType)";
-        String sqlFetchPieces = "SELECT * FROM PieceInfos WHERE gameId = :gameId";
-        String sqlInsertPieceStates = "INSERT INTO GameRecord (`gameId`, `moveRecord`) " +
-                                "VALUES (:gameId, :moveRecord)";
-        try (Connection conn = db.open()) {
-            // Validate the join game requese
-            List<PlayerInfo> playerInfos = conn.createQuery(sqlFetchPlayers)
-                                                .bind(newPlayer)
-                                                .executeAndFetch(PlayerInfo.class);
-            if (playerInfos.size() == 0) {
+        long version;
+        long started = System.nanoTime();
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
                 // No such game ID before
                 logger.error("GameService.joinGame: the game ID does not exist!");
                 throw new WrongGameIDException("GameService.joinGame: the game ID does not exist!");
             }
-            if (playerInfos.size() == 2) {
+            if (lifecycle.isExpired(game, lifecycle.waitingCutoff())) {
+                // A sweep may delete it before the join is written
+                logger.error("GameService.joinGame: the game expired waiting for a second player!");
+                throw new WrongGameIDException("GameService.joinGame: the game expired waiting for a second player!");
+            }
+            // Validate the join game request
+            if (game.getPlayerCount() >= 2) {
                 // Two players already
                 logger.error("GameService.joinGame: Already two players exist!");
                 throw new FullPlayersException("GameService.joinGame: Already two players exist!");
             }
-            if (playerInfos.size() == 1) {
-                if (playerInfos.get(0).getPieceType().equals("HOUND")) {
-                    newPlayer.setPlayerId("HARE_player");
-                    newPlayer.setPieceType("HARE");
-                } else {
-                    newPlayer.setPlayerId("HOUND_player");
-                    newPlayer.setPieceType("HOUND");
-                }
-                // Insert the joined player into database
-                conn.createQuery(sqlInsert)
-                        .bind(newPlayer)
-                        .executeUpdate();
-                // Update the state of the game
-                String sqlUpdateStatus = "UPDATE GameStates SET state = :state WHERE gameId = :gameId";
-                conn.createQuery(sqlUpdateStatus)
-                        .addParameter("state", "TURN_HOUND")
-                        .addParameter("gameId", gameId)
-                        .executeUpdate();
+            if (game.hasPlayer("HOUND")) {
+                newPlayer.setPlayerId("HARE_player");
+                newPlayer.setPieceType("HARE");
+            } else {
+                newPlayer.setPlayerId("HOUND_player");
+                newPlayer.setPieceType("HOUND");
             }
+            game.addPlayer(newPlayer.getPieceType());
+            game.setState("TURN_HOUND");
             // Record the initial piece status
-            List<PieceInfo> pieceInfos = conn.createQuery(sqlFetchPieces)
-                                                .addParameter("gameId", gameId)
-                                                .executeAndFetch(PieceInfo.class);
-            String pieceStates = BoardHelper.getPieceStates(pieceInfos);
-            conn.createQuery(sqlInsertPieceStates)
-                    .addParameter("gameId", gameId)
-                    .addParameter("moveRecord", pieceStates)
-                    .executeUpdate();
-            return newPlayer;
-        } catch (Sql2oException ex) {
-            logger.error("GameService.joinGame: Failed to query database to join the game", ex);
-            throw new GameServiceException("GameService.joinGame: Failed to query database to join the game", ex);
+            int position = game.getPosition();
+            long updatedAt = game.getUpdatedAt();
+            game.recordPosition(position);
+            game.setSeq(0);
+            writeBehind("joinGame", game,
+                    () -> store.joinGame(gameId, newPlayer.getPieceType(), "TURN_HOUND", position, updatedAt));
+            version = game.getVersion();
+            notifyListeners(game, null);
+        } finally {
+            lock.unlock();
+            joinTimer.recordSince(started);
         }
+        watchers.notifyChanged(gameId, version);
+        return newPlayer;
     }
 
     public GameState fetchState(String gameId) throws WrongGameIDException, GameServiceException{
-        String sqlFetchStatus = "SELECT * FROM GameStates WHERE gameId = :gameId";
-        try (Connection conn = db.open()) {
-            List<GameState> gameStates = conn.createQuery(sqlFetchStatus)
-                    .addParameter("gameId", gameId)
-                    .executeAndFetch(GameState.class);
-            if (gameStates.size() == 0) {
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
                 logger.error("GameService.fetchStatus: Wrong gameId");
                 throw new WrongGameIDException("GameService.fetchStatus: Wrong gameId");
             }
-            return gameStates.get(0);
-        } catch (Sql2oException ex) {
-            logger.error("GameService.fetchStatus: Failed to query database to fetch state", ex);
-            throw new GameServiceException("GameService.fetchStatus: Failed to query database to fetch state", ex);
+            return game.snapshotState();
+        } finally {
+            lock.unlock();
         }
     }
 
     public List<PieceInfo> fetchBoard(String gameId) throws WrongGameIDException, GameServiceException{
-        String sqlFetchBoard = "SELECT * FROM PieceInfos WHERE gameId = :gameId";
-        try (Connection conn = db.open()) {
-            List<PieceInfo> pieceInfos = conn.createQuery(sqlFetchBoard)
-                                                .addParameter("gameId", gameId)
-                                                .executeAndFetch(PieceInfo.class);
-            if (pieceInfos.size() < 4) {
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
                 logger.info("GameService.fetchBoard: Wrong gameId");
                 throw new WrongGameIDException("GameService.fetchBoard: Wrong gameId");
             }
-            return pieceInfos;
-        } catch (Sql2oException ex) {
-            logger.error("GameService.fetchBoard: Failed to query database to fetch board", ex);
-            throw new GameServiceException("GameService.fetchBoard: Failed to query database to fetch board", ex);
+            return game.snapshotPieces();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run the reader on the game while it is held. For responses built from
+     * more than one value of the same version, e.g. a body and its ETag.
+     * Used together with a GameListener this gives subscribers a snapshot
+     * followed by every later change, without gaps or reordering.
+     * The reader must not change the game.
+     */
+    public <T> T read(String gameId, Function<ActiveGame, T> reader) throws WrongGameIDException,
+                                                                           GameServiceException {
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
+                logger.info("GameService.read: Wrong gameId");
+                throw new WrongGameIDException("GameService.read: Wrong gameId");
+            }
+            return reader.apply(game);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * As read, for readers of the positions the game went through. The history
+     * of a game loaded from the database is loaded first, see loadHistory.
+     */
+    public <T> T readWithHistory(String gameId, Function<ActiveGame, T> reader) throws WrongGameIDException,
+                                                                                      GameServiceException {
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
+                logger.info("GameService.readWithHistory: Wrong gameId");
+                throw new WrongGameIDException("GameService.readWithHistory: Wrong gameId");
+            }
+            if (!game.isHistoryLoaded()) {
+                loadHistory(game);
+            }
+            return reader.apply(game);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the state and board of the game together with its version
+     */
+    public GameEvent fetchEvent(String gameId) throws WrongGameIDException, GameServiceException {
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
+                logger.info("GameService.fetchEvent: Wrong gameId");
+                throw new WrongGameIDException("GameService.fetchEvent: Wrong gameId");
+            }
+            return game.snapshotEvent();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The moves come from the GameStore. The last ones may still be queued
+     * for it, then the queue is waited for once.
+     *
+     * @return every move of the game so far in order, empty for a game that
+     *         has not started or ended before its moves were kept
+     */
+    public List<MoveRecord> fetchHistory(String gameId) throws WrongGameIDException, GameServiceException {
+        int seq = read(gameId, ActiveGame::getSeq);
+        try {
+            List<StoredMove> moves = store.moves(gameId);
+            if (moves.size() <= seq) {
+                flush();
+                moves = store.moves(gameId);
+            }
+            return toRecords(moves);
+        } catch (StoreException ex) {
+            logger.error("GameService.fetchHistory: Failed to query database to load the moves", ex);
+            throw new GameServiceException("GameService.fetchHistory: Failed to query database to load the moves", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new GameServiceException("GameService.fetchHistory: Interrupted waiting for the moves", ex);
+        }
+    }
+
+    /**
+     * One page of the archived games, see GameStore.archivedGames. The games
+     * are not loaded into memory and their locks are not taken.
+     *
+     * @param after the last gameId of the previous page, "" for the first page
+     */
+    public List<GameHistory> fetchArchivedGames(String after, int limit) throws GameServiceException {
+        try {
+            List<GameHistory> page = new ArrayList<>(limit);
+            for (ArchivedGame archived: store.archivedGames(after, limit)) {
+                GameHistory game = new GameHistory();
+                game.setGameId(archived.getGameId());
+                game.setState(archived.getState());
+                game.setFinishedAt(archived.getFinishedAt());
+                game.setMoves(toRecords(archived.getMoves()));
+                page.add(game);
+            }
+            return page;
+        } catch (StoreException ex) {
+            logger.error("GameService.fetchArchivedGames: Failed to query database to load the archive", ex);
+            throw new GameServiceException("GameService.fetchArchivedGames: Failed to query database to load the archive", ex);
+        }
+    }
+
+    /**
+     * Register a watcher that is called once on the next change of the game.
+     * Callers must check the version again after watching to not miss a change
+     * that happened in between.
+     */
+    public void watch(String gameId, GameWatchers.Watcher watcher) {
+        watchers.watch(gameId, watcher);
+    }
+
+    public void unwatch(String gameId, GameWatchers.Watcher watcher) {
+        watchers.unwatch(gameId, watcher);
+    }
+
+    /**
+     * Subscribe to all changes of all games, see GameListener.
+     */
+    public void addListener(GameListener listener) {
+        listeners.add(listener);
+    }
+
+    private void notifyListeners(ActiveGame game, MovePiece move) {
+        for (GameListener listener: listeners) {
+            try {
+                listener.gameChanged(game, move);
+            } catch (RuntimeException ex) {
+                logger.error("GameService: a game listener failed", ex);
+            }
+        }
+    }
+
+    private void notifyLoaded(ActiveGame game) {
+        for (GameListener listener: listeners) {
+            try {
+                listener.gameLoaded(game);
+            } catch (RuntimeException ex) {
+                logger.error("GameService: a game listener failed", ex);
+            }
         }
     }
 
@@ -208,106 +530,298 @@ public class GameService {
                                                    IncorrectTurn,
                                                    IllegalMove,
                                                    GameServiceException {
-        MovePiece movePiece = new Gson().fromJson(body, MovePiece.class);
-        PlayerInfo playerInfo = new Gson().fromJson(body, PlayerInfo.class);
+        try {
+            return makeMove(JsonCodec.decode(body, MovePiece.class));
+        } catch (JsonParseException ex) {
+            logger.error("GameService.makeMove: malformed request", ex);
+            throw new GameServiceException("GameService.makeMove: malformed request", ex);
+        }
+    }
+
+    public PlayerInfo makeMove(MovePiece movePiece) throws WrongGameIDException,
+                                                           WrongPlayerIDException,
+                                                           IncorrectTurn,
+                                                           IllegalMove,
+                                                           GameServiceException {
+        return makeMove(movePiece, false);
+    }
+
+    /**
+     * The move of a ComputerPlayer, the only caller allowed to move its pieces.
+     */
+    PlayerInfo makeComputerMove(MovePiece movePiece) throws WrongGameIDException,
+                                                            WrongPlayerIDException,
+                                                            IncorrectTurn,
+                                                            IllegalMove,
+                                                            GameServiceException {
+        return makeMove(movePiece, true);
+    }
+
+    /**
+     * End the game of a ComputerPlayer that has no legal move as a win of
+     * the other side. The last move of the log keeps the position and only
+     * changes the state. A game that is no longer on the computer's turn is
+     * left alone.
+     */
+    void concede(String gameId, String pieceType) throws WrongGameIDException, GameServiceException {
+        long version;
+        Lock lock = locks.lockFor(gameId);
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(gameId);
+            if (game == null) {
+                logger.error("GameService.concede: Wrong game id");
+                throw new WrongGameIDException("GameService.concede: Wrong game id");
+            }
+            if (!pieceType.equals(game.getComputerPieceType()) || !game.getState().equals("TURN_" + pieceType)
+                    || lifecycle.isAbandoned(game, lifecycle.abandonCutoff())) {
+                return;
+            }
+            // Hounds that cannot move have lost the same way as by stalling
+            String state = pieceType.equals("HOUND") ? "WIN_HARE_BY_STALLING" : "WIN_HOUND";
+            game.setState(state);
+            int position = game.getPosition();
+            long updatedAt = game.getUpdatedAt();
+            int seq = game.nextSeq();
+            writeBehind("makeMove", game, () -> store.applyMove(gameId, seq, state, position, updatedAt));
+            version = game.getVersion();
+            notifyListeners(game, null);
+        } finally {
+            lock.unlock();
+        }
+        watchers.notifyChanged(gameId, version);
+    }
+
+    private PlayerInfo makeMove(MovePiece movePiece, boolean computer) throws WrongGameIDException,
+                                                                              WrongPlayerIDException,
+                                                                              IncorrectTurn,
+                                                                              IllegalMove,
+                                                                              GameServiceException {
+        PlayerInfo playerInfo = new PlayerInfo();
+        playerInfo.setGameId(movePiece.getGameId());
+        playerInfo.setPlayerId(movePiece.getPlayerId());
         String playerId = movePiece.getPlayerId();
         // Validate the move
         if (!stateMap.containsKey(playerId)) {
             logger.error("GameService.makeMove: Wrong player id");
             throw new WrongPlayerIDException("GameService.makeMove: Wrong player id");
         }
-        String sqlFetchState = "SELECT state FROM GameStates WHERE gameId = :gameId";
-        String sqlFetchPiece = "SELECT * FROM PieceInfos WHERE gameId = :gameId";
-        String sqlFetchPieceStates = "SELECT COUNT(*) FROM GameRecord WHERE gameId = :gameId " +
-                                        "AND moveRecord = :moveRecord";
-        String sqlUpdatePieceStates = "INSERT INTO GameRecord (`gameId`, `moveRecord`) " +
-                                        "VALUES(:gameId, :moveRecord)";
-        String sqlDeletePieceStates = "DELETE FROM GameRecord WHERE `gameId` = :gameId";
-        try (Connection conn = db.open()) {
-            String state = conn.createQuery(sqlFetchState)
-                                .addParameter("gameId", movePiece.getGameId())
-                                .executeScalar(String.class);
-            if (state == null) {
+        long version;
+        long started = System.nanoTime();
+        Lock lock = locks.lockFor(movePiece.getGameId());
+        lock.lock();
+        try {
+            ActiveGame game = loadGame(movePiece.getGameId());
+            if (game == null) {
                 // Wrong gameId
                 logger.error("GameService.makeMove: Wrong game id");
                 throw new WrongGameIDException("GameService.makeMove: Wrong game id");
             }
+            String state = game.getState();
             if (!stateMap.get(playerId).equals(state)) {
                 // Wrong turn
                 logger.error("GameService.makeMove: it is not your turn!");
                 throw new IncorrectTurn("GameService.makeMove: it is not your turn!");
             }
+            if (lifecycle.isAbandoned(game, lifecycle.abandonCutoff())) {
+                // A sweep may end it before the move is written
+                logger.error("GameService.makeMove: the game was abandoned!");
+                throw new IncorrectTurn("GameService.makeMove: the game was abandoned!");
+            }
             String pieceType = playerId.split("_")[0];
+            if (!computer && pieceType.equals(game.getComputerPieceType())) {
+                logger.error("GameService.makeMove: the piece is played by the computer!");
+                throw new WrongPlayerIDException("GameService.makeMove: the piece is played by the computer!");
+            }
             playerInfo.setPieceType(pieceType);
-            List<PieceInfo> pieceInfos = conn.createQuery(sqlFetchPiece)
-                                            .addParameter("gameId", movePiece.getGameId())
-                                            .executeAndFetch(PieceInfo.class);
-            boolean notFound = true;
-            PieceInfo changePiece = null;
-            for (PieceInfo pieceInfo: pieceInfos) {
-                if (pieceInfo.getX() == movePiece.getFromX() && pieceInfo.getY() == movePiece.getFromY()) {
-                    changePiece = pieceInfo;
-                    notFound = false;
-                }
-                if (pieceInfo.getX() == movePiece.getToX() && pieceInfo.getY() == movePiece.getToY()) {
-                    // meaning that this location is already occupied
-                    logger.error("GameService.makeMove: the destination for that piece is occupied!");
-                    throw new IllegalMove("GameService.makeMove: the destination for that piece is occupied!");
-                }
+            int position = game.getPosition();
+            int from = Bitboard.cellAt(movePiece.getFromX(), movePiece.getFromY());
+            int to = Bitboard.cellAt(movePiece.getToX(), movePiece.getToY());
+            if (from < 0 || !Bitboard.isOccupied(position, from)) {
+                // Meaning that the moving piece has a wrong location.
+                logger.error("GameService.makeMove: Wrong piece for the from location!");
+                throw new IllegalMove("GameService.makeMove: Wrong piece for the from location!");
+            }
+            if (to >= 0 && Bitboard.isOccupied(position, to)) {
+                // meaning that this location is already occupied
+                logger.error("GameService.makeMove: the destination for that piece is occupied!");
+                throw new IllegalMove("GameService.makeMove: the destination for that piece is occupied!");
             }
-            if (!pieceType.equals(changePiece.getPieceType())) {
+            int pieceCode = Bitboard.pieceCode(pieceType);
+            if (Bitboard.pieceAt(position, from) != pieceCode) {
                 // Player picked the wrong piece.
                 logger.error("GameService.makeMove: you have picked the wrong piece!");
                 throw new IllegalMove("GameService.makeMove: you have picked the wrong piece!");
             }
-            if (notFound) {
-                // Meaning that the moving piece has a wrong location.
-                logger.error("GameService.makeMove: Wrong piece for the from location!");
-                throw new IllegalMove("GameService.makeMove: Wrong piece for the from location!");
-            }
             // Validate the "to" location
-            if (BoardHelper.validateMove(pieceType, movePiece.getFromX(),
-                                                movePiece.getFromY(),
-                                                movePiece.getToX(),
-                                                movePiece.getToY())){
-                // Made a validate move:
-                String updateSql = "UPDATE PieceInfos SET x = :toX, y = :toY WHERE gameId = :gameId " +
-                        "AND x = :fromX " +
-                        "AND y = :fromY";
-                conn.createQuery(updateSql)
-                        .bind(movePiece)
-                        .executeUpdate();
-            } else {
+            if (!MoveTable.isLegal(pieceCode, from, to)) {
                 logger.error("GameService.makeMove: Probably the piece cannot reach there");
                 throw new IllegalMove("GameService.makeMove: Probably the piece cannot reach there");
             }
-            // update the game status
-            String judgeResult = "";
-            changePiece.setX(movePiece.getToX());
-            changePiece.setY(movePiece.getToY());
-            String pieceStates = BoardHelper.getPieceStates(pieceInfos);
-            int count = conn.createQuery(sqlFetchPieceStates)
-                                .addParameter("gameId", movePiece.getGameId())
-                                .addParameter("moveRecord", pieceStates)
-                                .executeScalar(Integer.class);
-            if (count == 2) {
+            // Read what may still fail before the game is changed
+            if (!game.isHistoryLoaded()) {
+                loadHistory(game);
+            }
+            // Made a valid move, update the game status
+            int newPosition = Bitboard.move(position, from, to);
+            game.setPosition(newPosition);
+            String judgeResult;
+            boolean stalling = game.isStalling(newPosition);
+            if (stalling) {
                 judgeResult = "WIN_HARE_BY_STALLING";
             } else {
-                conn.createQuery(sqlUpdatePieceStates)
-                        .addParameter("gameId", movePiece.getGameId())
-                        .addParameter("moveRecord", pieceStates)
-                        .executeUpdate();
-                judgeResult = BoardHelper.judge(pieceInfos, state);
+                game.recordPosition(newPosition);
+                judgeResult = Bitboard.judge(newPosition, state);
             }
-            String sqlUpdateState = "UPDATE GameStates set state = :state WHERE gameId = :gameId";
-            conn.createQuery(sqlUpdateState)
-                    .addParameter("state", judgeResult)
-                    .addParameter("gameId", movePiece.getGameId())
-                    .executeUpdate();
-            return playerInfo;
-        } catch (Sql2oException ex) {
-            logger.error("GameService.makeMove: Failed to query database to move piece", ex);
-            throw new GameServiceException("GameService.makeMove: Failed to query database to move piece", ex);
+            game.setState(judgeResult);
+            long updatedAt = game.getUpdatedAt();
+            int seq = game.nextSeq();
+            writeBehind("makeMove", game,
+                    () -> store.applyMove(movePiece.getGameId(), seq, judgeResult, newPosition, updatedAt));
+            version = game.getVersion();
+            notifyListeners(game, movePiece);
+        } finally {
+            lock.unlock();
+            moveTimer.recordSince(started);
+        }
+        watchers.notifyChanged(movePiece.getGameId(), version);
+        return playerInfo;
+    }
+
+    /**
+     * Find the in-memory game, loading it from the database on a cache miss.
+     * Called with the stripe of the game held, so a game is loaded only once
+     * and cannot be evicted while the caller works on it.
+     *
+     * @return the game or null if the gameId does not exist
+     */
+    private ActiveGame loadGame(String gameId) throws GameServiceException {
+        ActiveGame game = registry.get(gameId);
+        if (game != null && game.isStale()) {
+            // A write failed, the store has the game as it was before that write
+            registry.remove(game);
+            game = null;
+        }
+        if (game != null) {
+            game.touch();
+            return game;
+        }
+        long started = System.nanoTime();
+        try {
+            StoredGame stored = store.load(gameId);
+            if (stored == null) {
+                return null;
+            }
+            String state = stored.getState();
+            // A waiting game has no records yet, the history of the others is
+            // only needed once somebody moves, see loadHistory
+            game = new ActiveGame(gameId, state, stored.getPosition(), state.equals("WAITING_FOR_SECOND_PLAYER"));
+            for (String pieceType: stored.getPlayers()) {
+                game.addPlayer(pieceType);
+            }
+            if (stored.getComputerPieceType() != null) {
+                game.addComputerPlayer(stored.getComputerPieceType());
+            }
+            game.setUpdatedAt(stored.getUpdatedAt());
+            game.setSeq(stored.getSeq());
+            game = registry.putIfAbsent(game);
+            notifyLoaded(game);
+            return game;
+        } catch (StoreException ex) {
+            logger.error("GameService.loadGame: Failed to query database to load the game", ex);
+            throw new GameServiceException("GameService.loadGame: Failed to query database to load the game", ex);
+        } finally {
+            loadTimer.recordSince(started);
+        }
+    }
+
+    /**
+     * Load the recorded positions of a game that was loaded from the database.
+     * Called with the game held. The game only reaches the database through
+     * its own writes, so the records are complete once those are done.
+     */
+    private void loadHistory(ActiveGame game) throws GameServiceException {
+        try {
+            game.loadHistory(store.history(game.getGameId()));
+        } catch (StoreException ex) {
+            logger.error("GameService.loadHistory: Failed to query database to load the move records", ex);
+            throw new GameServiceException("GameService.loadHistory: Failed to query database to load the move records", ex);
+        }
+    }
+
+    /**
+     * Block until every write queued so far is in the database.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (ExecutionException ex) {
+            // An empty task does not fail
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Write what is still queued and close the GameStore, e.g. the log store
+     * still has records in its buffer.
+     */
+    public void close() {
+        lifecycle.stop();
+        try {
+            flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    /**
+     * Queue a database write of the game. Writes run in submission order on a
+     * single thread, so the database always converges to the in-memory state.
+     * Each write is atomic in the GameStore. When one fails the game is marked
+     * stale, its later writes are dropped and the next access loads it again
+     * from the store, so memory and store do not drift apart.
+     */
+    private void writeBehind(String operation, ActiveGame game, Runnable write) {
+        Timer timer = writeTimers.computeIfAbsent(operation, key -> metrics.timer("db_write_behind_seconds",
+                "Transactions of the write-behind thread", "operation", key));
+        try {
+            writer.execute(() -> {
+                if (game.isStale()) {
+                    // Built on a change that never reached the store
+                    return;
+                }
+                long started = System.nanoTime();
+                try {
+                    write.run();
+                } catch (StoreException ex) {
+                    logger.error("GameService." + operation + ": Failed to persist the change, game "
+                            + game.getGameId() + " is loaded again", ex);
+                    game.markStale();
+                    writeFailures.increment();
+                }
+                timer.recordSince(started);
+            });
+        } catch (RejectedExecutionException ex) {
+            logger.error("GameService." + operation + ": Failed to queue the change, game "
+                    + game.getGameId() + " is loaded again", ex);
+            game.markStale();
+            writeFailures.increment();
+        }
+    }
+
+    /**
+     * The write queue is full, the caller waits for room. This holds back
+     * the request threads while the store is slow, instead of growing the
+     * heap. The writer thread never waits for a game held by a caller, see
+     * GameLifecycle.evictGames, so the queue always drains.
+     */
+    private static void waitForRoom(Runnable write, ThreadPoolExecutor executor) {
+        try {
+            executor.getQueue().put(write);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted waiting for room in the write queue", ex);
         }
     }
 
@@ -315,21 +829,47 @@ public class GameService {
     // Helper Classes and Methods
     //-----------------------------------------------------------------------------//
 
+    /**
+     * Tell the piece that moved and where from the positions before and after
+     * each move, either the hare cell changed or one hound left a cell for another.
+     */
+    private static List<MoveRecord> toRecords(List<StoredMove> moves) {
+        List<MoveRecord> records = new ArrayList<>(moves.size());
+        int previous = 0;
+        for (StoredMove move: moves) {
+            int position = move.getPosition();
+            MoveRecord record = new MoveRecord();
+            record.setSeq(move.getSeq());
+            record.setState(move.getState());
+            record.setBoard(Bitboard.toPieceStates(position));
+            record.setMovedAt(move.getMovedAt());
+            // A conceded game ends with a move that moved nothing
+            if (move.getSeq() > 0 && position != previous) {
+                int from = Bitboard.hareCell(previous);
+                int to = Bitboard.hareCell(position);
+                record.setPieceType("HARE");
+                if (from == to) {
+                    from = Integer.numberOfTrailingZeros(Bitboard.houndMask(previous) & ~Bitboard.houndMask(position));
+                    to = Integer.numberOfTrailingZeros(Bitboard.houndMask(position) & ~Bitboard.houndMask(previous));
+                    record.setPieceType("HOUND");
+                }
+                record.setFromX(Bitboard.cellX(from));
+                record.setFromY(Bitboard.cellY(from));
+                record.setToX(Bitboard.cellX(to));
+                record.setToY(Bitboard.cellY(to));
+            }
+            records.add(record);
+            previous = position;
+        }
+        return records;
+    }
+
     public static class GameServiceException extends Exception {
         public GameServiceException(String message, Throwable cause) {
             super(message, cause);
         }
     }
 
-    /**
-     * This Sqlite specific method returns the number of rows changed by the most recent
-     * INSERT, UPDATE, DELETE operation. Note that you MUST use the same connection to get
-     * this information
-     */
-    private int getChangedRows(Connection conn) throws Sql2oException {
-        return conn.createQuery("SELECT changes()").executeScalar(Integer.class);
-    }
-
     public static class FullPlayersException extends Exception {
         public FullPlayersException(String message) {
             super(message);
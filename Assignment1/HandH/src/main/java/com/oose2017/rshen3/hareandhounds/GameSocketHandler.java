@@ -0,0 +1,194 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.google.gson.JsonParseException;
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.engine.GameListener;
+import com.oose2017.rshen3.hareandhounds.model.GameUpdate;
+import com.oose2017.rshen3.hareandhounds.model.MovePiece;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * WebSocket channel of a game at /hareandhounds/api/socket?gameId=...&amp;playerId=...
+ *
+ * A connection first receives a SNAPSHOT frame with the whole board, then a
+ * MOVE frame for every move and a SNAPSHOT frame when the second player joins.
+ * Players send their moves as the same JSON as POST .../turns, the gameId is
+ * taken from the connection and the playerId may be given once on connect.
+ * Illegal moves are answered with an ERROR frame carrying the error code of
+ * the REST API, the sender only.
+ *
+ * Connections without a playerId spectate. Their frames go through the
+ * SpectatorHub, which caps the spectators of a game and holds back frames
+ * from connections that do not keep up. A full game closes the connection
+ * with TRY_AGAIN_LATER after an ERROR frame TOO_MANY_SPECTATORS.
+ */
+@WebSocket
+public class GameSocketHandler implements GameListener {
+
+    public static final String PATH = "/hareandhounds/api/socket";
+
+    private final GameService gameService;
+
+    private final SpectatorHub spectators;
+
+    private final ConcurrentMap<String, Set<Session>> sessions = new ConcurrentHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(GameSocketHandler.class);
+
+    private final WriteCallback writeCallback = new WriteCallback() {
+        @Override
+        public void writeFailed(Throwable x) {
+            logger.info("GameSocketHandler: failed to send a frame, " + x.getMessage());
+        }
+
+        @Override
+        public void writeSuccess() {
+        }
+    };
+
+    public GameSocketHandler(GameService gameService, SpectatorHub spectators) {
+        this.gameService = gameService;
+        this.spectators = spectators;
+        gameService.addListener(this);
+    }
+
+    @OnWebSocketConnect
+    public void onConnect(Session session) {
+        String gameId = param(session, "gameId");
+        boolean spectating = param(session, "playerId") == null;
+        if (!gameService.getShardMap().isLocal(gameId)) {
+            // The ShardRouter does not pass WebSockets on, the client has to connect to the owner
+            logger.error("Failed to open the game channel: game " + gameId + " is on node "
+                    + gameService.getShardMap().ownerOf(gameId));
+            reject(session, "WRONG_NODE", StatusCode.POLICY_VIOLATION);
+            return;
+        }
+        try {
+            AtomicBoolean full = new AtomicBoolean();
+            gameService.read(gameId, game -> {
+                if (!spectating) {
+                    sessions.computeIfAbsent(gameId, id -> ConcurrentHashMap.newKeySet()).add(session);
+                } else if (!spectators.join(gameId, session)) {
+                    full.set(true);
+                    return null;
+                }
+                send(session, game.getSnapshotFrame());
+                return null;
+            });
+            if (full.get()) {
+                logger.info("Failed to open the game channel: too many spectators");
+                reject(session, "TOO_MANY_SPECTATORS", StatusCode.TRY_AGAIN_LATER);
+            }
+        } catch (GameService.WrongGameIDException ex) {
+            logger.error("Failed to open the game channel: gameId does not exist!");
+            reject(session, "INVALID_GAME_ID", StatusCode.POLICY_VIOLATION);
+        } catch (GameService.GameServiceException ex) {
+            logger.error("Failed to open the game channel");
+            reject(session, "BAD_REQUEST", StatusCode.POLICY_VIOLATION);
+        }
+    }
+
+    @OnWebSocketClose
+    public void onClose(Session session, int statusCode, String reason) {
+        String gameId = param(session, "gameId");
+        if (gameId != null) {
+            sessions.computeIfPresent(gameId, (id, set) -> {
+                set.remove(session);
+                return set.isEmpty() ? null : set;
+            });
+            spectators.leave(gameId, session);
+        }
+    }
+
+    @OnWebSocketMessage
+    public void onMessage(Session session, String message) {
+        String error;
+        try {
+            MovePiece movePiece = JsonCodec.decode(message, MovePiece.class);
+            movePiece.setGameId(param(session, "gameId"));
+            if (movePiece.getPlayerId() == null) {
+                movePiece.setPlayerId(param(session, "playerId"));
+            }
+            // The resulting MOVE frame reaches the sender through gameChanged
+            gameService.makeMove(movePiece);
+            return;
+        } catch (JsonParseException ex) {
+            logger.error("Failed to make a move: malformed frame");
+            error = "BAD_REQUEST";
+        } catch (GameService.WrongGameIDException ex) {
+            logger.error("Failed to make a move: gameId does not exist!");
+            error = "INVALID_GAME_ID";
+        } catch (GameService.WrongPlayerIDException ex) {
+            logger.error("Failed to make a move, incorrect playerId");
+            error = "INVALID_PLAYER_ID";
+        } catch (GameService.IllegalMove ex) {
+            logger.error("Failed to make a move, illegal move");
+            error = "ILLEGAL_MOVE";
+        } catch (GameService.IncorrectTurn ex) {
+            logger.error("Failed to make a move, incorrect turn");
+            error = "INCORRECT_TURN";
+        } catch (GameService.GameServiceException ex) {
+            logger.error("Failed to make a move.");
+            error = "BAD_REQUEST";
+        }
+        send(session, JsonCodec.toJson(GameUpdate.error(error)));
+    }
+
+    /**
+     * Serialize the change once, queue it on every player connection of the
+     * game and hand it to the spectators. The snapshot is the one of the game,
+     * shared with the connections that open before the next change.
+     */
+    @Override
+    public void gameChanged(ActiveGame game, MovePiece move) {
+        Set<Session> watching = sessions.get(game.getGameId());
+        boolean spectated = spectators.isWatched(game.getGameId());
+        if ((watching == null || watching.isEmpty()) && !spectated) {
+            return;
+        }
+        // Spectators that fell behind need the whole game, players only after a join
+        String snapshot = move == null || spectated ? game.getSnapshotFrame() : null;
+        String frame = move == null
+                ? snapshot
+                : JsonCodec.toJson(GameUpdate.move(game.getVersion(), game.getState(), move));
+        if (watching != null) {
+            for (Session session: watching) {
+                send(session, frame);
+            }
+        }
+        if (spectated) {
+            spectators.publish(game.getGameId(), frame, snapshot);
+        }
+    }
+
+    private void send(Session session, String frame) {
+        if (session.isOpen()) {
+            session.getRemote().sendString(frame, writeCallback);
+        }
+    }
+
+    private void reject(Session session, String error, int statusCode) {
+        send(session, JsonCodec.toJson(GameUpdate.error(error)));
+        session.close(statusCode, error);
+    }
+
+    private static String param(Session session, String name) {
+        List<String> values = session.getUpgradeRequest().getParameterMap().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+}
@@ -0,0 +1,139 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.model.GameHistory;
+import com.oose2017.rshen3.hareandhounds.model.MoveRecord;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Response;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static spark.Spark.*;
+
+/**
+ * Replays of games from the move log of the GameStore.
+ *
+ * GET /hareandhounds/api/games/:gameId/history answers with the moves of the
+ * game as a JSON array of MoveRecords.
+ *
+ * GET /hareandhounds/api/archive answers with every archived game and its
+ * moves, one GameHistory per line (NDJSON), in the order of the gameIds. The
+ * games are read a page of export.pageSize at a time and each page is sent
+ * before the next is read, so the export never holds more than one page. A
+ * client that lost the connection goes on with ?after= and the last gameId
+ * it got. A page that fails to load after the answer has started ends the
+ * export with an error line holding that gameId, instead of a status code.
+ *
+ * Both answers are sent chunked, as they are written.
+ */
+public class HistoryController {
+
+    private static final String API_PREFIX = "/hareandhounds/api/games";
+
+    public static final String ARCHIVE_PATH = "/hareandhounds/api/archive";
+
+    public static final String NDJSON_TYPE = "application/x-ndjson";
+
+    public static final int PAGE_SIZE = 100;
+
+    private final GameService gameService;
+
+    private final int pageSize = Math.max(Config.getInt("export.pageSize", PAGE_SIZE), 1);
+
+    private final LongAdder exported = MetricsRegistry.global().counter("archive_exported_games_total",
+            "Archived games sent by the export");
+
+    private final Logger logger = LoggerFactory.getLogger(HistoryController.class);
+
+    public HistoryController(GameService gameService) {
+        this.gameService = gameService;
+        setupEndpoints();
+    }
+
+    private void setupEndpoints() {
+        get(API_PREFIX + "/:gameId" + "/history", "application/json", new JsonRoute((request, response) -> {
+            try {
+                List<MoveRecord> moves = gameService.fetchHistory(request.params("gameId"));
+                Writer out = startStream(response, "application/json");
+                out.write('[');
+                for (int i = 0; i < moves.size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    JsonCodec.write(moves.get(i), out);
+                }
+                out.write(']');
+                out.flush();
+                return "";
+            } catch (GameService.WrongGameIDException ex) {
+                logger.error("Failed to fetch the history: gameId does not exist!");
+                response.status(404);
+            } catch (GameService.GameServiceException ex) {
+                logger.error("Failed to fetch the history");
+                response.status(400);
+            }
+            return Collections.EMPTY_MAP;
+        }));
+
+        get(ARCHIVE_PATH, NDJSON_TYPE, new JsonRoute((request, response) -> {
+            String after = request.queryParams("after") == null ? "" : request.queryParams("after");
+            List<GameHistory> page;
+            try {
+                // The first page is read before answering, so its failure still gets a status
+                page = gameService.fetchArchivedGames(after, pageSize);
+            } catch (GameService.GameServiceException ex) {
+                logger.error("Failed to export the archive");
+                response.status(400);
+                return Collections.EMPTY_MAP;
+            }
+            Writer out = startStream(response, NDJSON_TYPE);
+            try {
+                while (!page.isEmpty()) {
+                    for (GameHistory game: page) {
+                        JsonCodec.write(game, out);
+                        out.write('\n');
+                    }
+                    out.flush();
+                    exported.add(page.size());
+                    after = page.get(page.size() - 1).getGameId();
+                    if (page.size() < pageSize) {
+                        break;
+                    }
+                    page = gameService.fetchArchivedGames(after, pageSize);
+                }
+            } catch (GameService.GameServiceException ex) {
+                logger.error("Failed to export the archive after " + after);
+                Map<String, String> error = new LinkedHashMap<>();
+                error.put("error", "EXPORT_FAILED");
+                error.put("after", after);
+                JsonCodec.write(error, out);
+                out.write('\n');
+                out.flush();
+            } catch (IOException ex) {
+                logger.info("The client of the archive export went away after " + after);
+            }
+            return "";
+        }));
+    }
+
+    /**
+     * Commit the headers without a length, Jetty sends the body chunked then.
+     */
+    private static Writer startStream(Response response, String type) throws IOException {
+        response.status(200);
+        response.type(type);
+        response.raw().flushBuffer();
+        return new OutputStreamWriter(response.raw().getOutputStream(), StandardCharsets.UTF_8);
+    }
+}
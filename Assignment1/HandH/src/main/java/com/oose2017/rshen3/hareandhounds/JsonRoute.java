@@ -0,0 +1,65 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.metrics.Timer;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes whatever the wrapped route returns as JSON straight to the servlet
+ * output stream, where a ResponseTransformer would have to build a String
+ * of the whole response first.
+ *
+ * A route that answers by itself, like a parked long-poll, commits the
+ * response before returning and is left alone, as is a 304. A route that
+ * sets another content type returns its body already encoded as a byte[].
+ */
+public class JsonRoute implements Route {
+
+    private static final Timer RENDER_TIMER = MetricsRegistry.global().timer("json_render_seconds",
+            "Serializing the responses of the routes");
+
+    private final Route route;
+
+    public JsonRoute(Route route) {
+        this.route = route;
+    }
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        Object model = route.handle(request, response);
+        if (response.raw().isCommitted() || response.raw().getStatus() == 304) {
+            return "";
+        }
+        long started = System.nanoTime();
+        try {
+            if (response.type() == null) {
+                response.type("application/json");
+            }
+            JsonCodec.write(model, response.raw().getOutputStream());
+        } finally {
+            RENDER_TIMER.recordSince(started);
+        }
+        // Spark needs a body to not answer 404, an empty one adds nothing
+        return "";
+    }
+
+    /**
+     * Spark copies the whole body into a buffer of its own the first time it
+     * is read. Routes that decode the body read the stream of Jetty instead.
+     */
+    public static InputStream body(Request request) throws IOException {
+        ServletRequest raw = request.raw();
+        if (raw instanceof ServletRequestWrapper) {
+            raw = ((ServletRequestWrapper) raw).getRequest();
+        }
+        return raw.getInputStream();
+    }
+}
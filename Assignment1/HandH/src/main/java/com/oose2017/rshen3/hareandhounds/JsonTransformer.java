@@ -1,26 +0,0 @@
-//-------------------------------------------------------------------------------------------------------------//
-// Code based on a tutorial by Shekhar Gulati of SparkJava at
-// https://blog.openshift.com/developing-single-page-web-applications-using-java-8-spark-mongodb-and-angularjs/
-//-------------------------------------------------------------------------------------------------------------//
-
-package com.oose2017.rshen3.hareandhounds;
-
-import com.google.gson.Gson;
-import spark.Response;
-import spark.ResponseTransformer;
-
-import java.util.HashMap;
-
-public class JsonTransformer implements ResponseTransformer {
-
-    private Gson gson = new Gson();
-
-    @Override
-    public String render(Object model) {
-        if (model instanceof Response) {
-            return gson.toJson(new HashMap<>());
-        }
-        return gson.toJson(model);
-    }
-
-}
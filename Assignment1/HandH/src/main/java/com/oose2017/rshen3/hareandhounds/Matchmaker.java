@@ -0,0 +1,197 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.metrics.Timer;
+import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Pairs players who want to play the hare with players who want to play the
+ * hounds and starts a game for each pair, so nobody has to pass a gameId
+ * around and no game waits for a second player.
+ *
+ * Each piece type has a lock-free queue of tickets. A new ticket is queued
+ * and then the heads of both queues are paired for as long as both have one.
+ * A thread pairs the heads by claiming the hound ticket first and the hare
+ * ticket second, both with a compare-and-set. A thread that cannot claim the
+ * hound ticket leaves the pairing to the thread that holds it, which goes on
+ * with the next heads once it is done, so every ticket is paired by someone.
+ */
+public class Matchmaker {
+
+    private static final int OPEN = 0;
+    private static final int CLAIMED = 1;
+    private static final int MATCHED = 2;
+    private static final int CANCELLED = 3;
+
+    private final GameService gameService;
+
+    private final Queue<Ticket> hounds = new ConcurrentLinkedQueue<>();
+    private final Queue<Ticket> hares = new ConcurrentLinkedQueue<>();
+
+    /** Tickets still open, ConcurrentLinkedQueue.size walks the whole queue */
+    private final AtomicInteger waitingHounds = new AtomicInteger();
+    private final AtomicInteger waitingHares = new AtomicInteger();
+
+    private final Timer waitTimer;
+    private final LongAdder pairs;
+
+    public Matchmaker(GameService gameService) {
+        this.gameService = gameService;
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("matchmaking_queue_depth", "Players waiting for an opponent", waitingHounds::get,
+                "pieceType", "HOUND");
+        metrics.gauge("matchmaking_queue_depth", "Players waiting for an opponent", waitingHares::get,
+                "pieceType", "HARE");
+        this.waitTimer = metrics.timer("matchmaking_wait_seconds", "Time from queueing a player to its game");
+        this.pairs = metrics.counter("matchmaking_pairs_total", "Games started by the matchmaker");
+    }
+
+    /**
+     * A player waiting for an opponent
+     */
+    public class Ticket {
+        private final String pieceType;
+        private final Consumer<Ticket> onMatched;
+        private final long queuedAt = System.nanoTime();
+        private final AtomicInteger state = new AtomicInteger(OPEN);
+        private volatile PlayerInfo playerInfo;
+
+        Ticket(String pieceType, Consumer<Ticket> onMatched) {
+            this.pieceType = pieceType;
+            this.onMatched = onMatched;
+        }
+
+        /**
+         * @return the gameId, playerId and pieceType of the player once matched, null before
+         */
+        public PlayerInfo getPlayerInfo() {
+            return playerInfo;
+        }
+
+        /**
+         * Take the ticket out of the queue, e.g. when the player gave up.
+         *
+         * @return false if the ticket was matched already
+         */
+        public boolean cancel() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    if (state.compareAndSet(OPEN, CANCELLED)) {
+                        queue(pieceType).remove(this);
+                        waiting(pieceType).decrementAndGet();
+                        return true;
+                    }
+                    // A pairing holds the ticket until it is matched or let go, through
+                    // createMatchedGame, which takes a stripe lock and queues a write
+                    synchronized (this) {
+                        while (state.get() == CLAIMED) {
+                            try {
+                                wait();
+                            } catch (InterruptedException ex) {
+                                interrupted = true;
+                            }
+                        }
+                    }
+                    if (state.get() != OPEN) {
+                        return false;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * End a claim, waking a cancel waiting for it.
+         */
+        private synchronized void release(int newState) {
+            state.set(newState);
+            notifyAll();
+        }
+
+        private void match(String gameId) {
+            PlayerInfo matched = new PlayerInfo();
+            matched.setGameId(gameId);
+            matched.setPieceType(pieceType);
+            matched.setPlayerId(pieceType + "_player");
+            playerInfo = matched;
+            release(MATCHED);
+            waiting(pieceType).decrementAndGet();
+            waitTimer.recordSince(queuedAt);
+            onMatched.accept(this);
+        }
+    }
+
+    /**
+     * Queue a player and pair it if an opponent is waiting. The callback runs
+     * on the thread that made the pair, possibly before this method returns.
+     *
+     * @param pieceType HARE or HOUND
+     */
+    public Ticket enqueue(String pieceType, Consumer<Ticket> onMatched) {
+        Ticket ticket = new Ticket(pieceType, onMatched);
+        waiting(pieceType).incrementAndGet();
+        queue(pieceType).add(ticket);
+        pairHeads();
+        return ticket;
+    }
+
+    private void pairHeads() {
+        while (true) {
+            Ticket hound = head(hounds);
+            Ticket hare = head(hares);
+            if (hound == null || hare == null) {
+                return;
+            }
+            if (!hound.state.compareAndSet(OPEN, CLAIMED)) {
+                if (hound.state.get() == CANCELLED) {
+                    continue;
+                }
+                // The thread that claimed it pairs the rest
+                return;
+            }
+            if (!hare.state.compareAndSet(OPEN, CLAIMED)) {
+                // Only cancelled, the hare ticket is only claimed by whoever holds the hound ticket
+                hound.release(OPEN);
+                continue;
+            }
+            // The claimed hound ticket keeps other threads away until both are out of the queues
+            hares.remove(hare);
+            hounds.remove(hound);
+            String gameId = gameService.createMatchedGame();
+            pairs.increment();
+            hound.match(gameId);
+            hare.match(gameId);
+        }
+    }
+
+    /**
+     * @return the first ticket of the queue still waiting, dropping cancelled ones
+     */
+    private static Ticket head(Queue<Ticket> queue) {
+        while (true) {
+            Ticket ticket = queue.peek();
+            if (ticket == null || ticket.state.get() != CANCELLED) {
+                return ticket;
+            }
+            queue.remove(ticket);
+        }
+    }
+
+    private Queue<Ticket> queue(String pieceType) {
+        return pieceType.equals("HARE") ? hares : hounds;
+    }
+
+    private AtomicInteger waiting(String pieceType) {
+        return pieceType.equals("HARE") ? waitingHares : waitingHounds;
+    }
+}
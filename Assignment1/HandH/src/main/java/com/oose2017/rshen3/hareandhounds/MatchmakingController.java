@@ -0,0 +1,145 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.google.gson.JsonParseException;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static spark.Spark.*;
+
+/**
+ * POST /hareandhounds/api/matchmaking with {pieceType} queues the player in
+ * the Matchmaker and answers with the same gameId, playerId and pieceType as
+ * POST /games once an opponent is found. The game has already started then.
+ *
+ * The request is parked like a long-poll of EventController while it waits.
+ * A player that finds no opponent within matchmaking.timeoutMillis gets
+ * "MATCHMAKING_TIMEOUT" and may queue again.
+ */
+public class MatchmakingController {
+
+    public static final String PATH = "/hareandhounds/api/matchmaking";
+
+    public static final long TIMEOUT_MS = 30000;
+
+    private static final int WRITER_THREADS = 2;
+
+    private final Matchmaker matchmaker;
+
+    private final long timeoutMillis = Config.getLong("matchmaking.timeoutMillis", TIMEOUT_MS);
+
+    private final LongAdder timeouts = MetricsRegistry.global().counter("matchmaking_timeouts_total",
+            "Players that found no opponent in time");
+
+    /**
+     * Writes the answers of parked requests, so the thread that makes a pair
+     * does not write to the connections of both players.
+     */
+    private final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "matchmaking-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Logger logger = LoggerFactory.getLogger(MatchmakingController.class);
+
+    public MatchmakingController(Matchmaker matchmaker) {
+        this.matchmaker = matchmaker;
+        setupEndpoints();
+    }
+
+    private void setupEndpoints() {
+        post(PATH, "application/json", new JsonRoute((request, response) -> {
+            try {
+                PlayerInfo playerInfo = JsonCodec.decode(JsonRoute.body(request), PlayerInfo.class);
+                String pieceType = playerInfo.getPieceType();
+                if (!"HARE".equals(pieceType) && !"HOUND".equals(pieceType)) {
+                    logger.error("Failed to queue the player: unknown pieceType " + pieceType);
+                    response.status(400);
+                    return "BAD_REQUEST";
+                }
+                // Commit the headers and park the request, the body is written once paired
+                response.status(200);
+                response.type("application/json");
+                response.raw().flushBuffer();
+                AsyncContext asyncContext = request.raw().startAsync();
+                asyncContext.setTimeout(timeoutMillis);
+                PendingMatch pending = new PendingMatch(asyncContext);
+                asyncContext.addListener(pending);
+                pending.ticket = matchmaker.enqueue(pieceType, pending::matched);
+                return "";
+            } catch (JsonParseException | IOException ex) {
+                logger.error("Failed to queue the player.");
+                response.status(400);
+                return "BAD_REQUEST";
+            }
+        }));
+    }
+
+    private class PendingMatch implements AsyncListener {
+        private final AsyncContext asyncContext;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile Matchmaker.Ticket ticket;
+
+        PendingMatch(AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+        }
+
+        void matched(Matchmaker.Ticket matched) {
+            if (done.compareAndSet(false, true)) {
+                writers.execute(() -> respond(matched.getPlayerInfo()));
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // The ticket is set before the request can time out
+            if (ticket.cancel()) {
+                timeouts.increment();
+                if (done.compareAndSet(false, true)) {
+                    respond("MATCHMAKING_TIMEOUT");
+                }
+            } else if (done.compareAndSet(false, true)) {
+                // Matched, the answer has not been handed to a writer yet
+                respond(ticket.getPlayerInfo());
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            if (ticket != null) {
+                ticket.cancel();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void respond(Object body) {
+            try {
+                JsonCodec.write(body, asyncContext.getResponse().getOutputStream());
+            } catch (IOException ex) {
+                logger.error("Failed to answer a matchmaking request", ex);
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+}
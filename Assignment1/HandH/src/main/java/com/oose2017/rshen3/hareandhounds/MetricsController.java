@@ -0,0 +1,129 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.db.ConnectionPool;
+import com.oose2017.rshen3.hareandhounds.db.GameCodes;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.metrics.Timer;
+import spark.Request;
+import spark.Response;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static spark.Spark.*;
+
+/**
+ * Times every request and serves all metrics on GET /metrics in the
+ * Prometheus text format.
+ *
+ * Requests are grouped by route, with the gameId replaced by :gameId so the
+ * number of series stays bounded. A parked long-poll is counted when the
+ * route returns, not when the answer is written.
+ */
+public class MetricsController {
+
+    public static final String PATH = "/metrics";
+
+    private static final String API_PREFIX = "/hareandhounds/api/games";
+
+    private static final String START_ATTRIBUTE = "metrics.startNanos";
+
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+
+    private final Map<String, Timer> routeTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> statusCounters = new ConcurrentHashMap<>();
+
+    public MetricsController(GameService gameService, ConnectionPool pool) {
+        registerGameMetrics(gameService);
+        if (pool != null) {
+            registerPoolMetrics(pool);
+        }
+        setupEndpoints();
+    }
+
+    private void setupEndpoints() {
+        before((request, response) -> request.attribute(START_ATTRIBUTE, System.nanoTime()));
+
+        afterAfter((request, response) -> record(request, response));
+
+        get(PATH, (request, response) -> {
+            response.type("text/plain; version=0.0.4");
+            return metrics.scrape();
+        });
+    }
+
+    private void record(Request request, Response response) {
+        Long started = request.attribute(START_ATTRIBUTE);
+        if (started == null) {
+            return;
+        }
+        String method = request.requestMethod();
+        String route = route(request.pathInfo());
+        String key = method + " " + route;
+        routeTimers.computeIfAbsent(key, k -> metrics.timer("http_server_requests_seconds",
+                "Time spent in the routes", "method", method, "route", route))
+                .recordSince(started);
+        String status = Integer.toString(response.raw().getStatus());
+        statusCounters.computeIfAbsent(key + " " + status, k -> metrics.counter("http_server_requests_total",
+                "Requests by route and status code", "method", method, "route", route, "status", status))
+                .increment();
+    }
+
+    /**
+     * @return the path with the gameId replaced, "static" for the files of the frontend
+     */
+    static String route(String path) {
+        if (path == null) {
+            return "static";
+        }
+        if (path.startsWith(API_PREFIX + "/")) {
+            String rest = path.substring(API_PREFIX.length() + 1);
+            int slash = rest.indexOf('/');
+            return API_PREFIX + "/:gameId" + (slash < 0 ? "" : rest.substring(slash));
+        }
+        if (path.startsWith("/hareandhounds/api") || path.equals(PATH)) {
+            return path;
+        }
+        return "static";
+    }
+
+    private void registerGameMetrics(GameService gameService) {
+        for (String state: GameCodes.states()) {
+            metrics.gauge("games_loaded", "Games held in memory by state",
+                    () -> gameService.countLoadedGames().getOrDefault(state, 0), "state", state);
+        }
+        metrics.gauge("game_watchers", "Long-polls waiting for a game to change", gameService::getWatcherCount);
+        metrics.gauge("db_write_behind_pending", "Writes queued for the database", gameService::getPendingWrites);
+
+        GameLifecycle lifecycle = gameService.getLifecycle();
+        metrics.counter("lifecycle_sweeps_total", "Lifecycle sweeps run", lifecycle::getSweeps);
+        metrics.counter("lifecycle_evicted_total", "Games dropped from memory", lifecycle::getEvicted);
+        metrics.counter("lifecycle_expired_total", "Waiting games deleted", lifecycle::getExpired);
+        metrics.counter("lifecycle_abandoned_total", "Games in play ended as abandoned", lifecycle::getAbandoned);
+        metrics.counter("lifecycle_archived_total", "Finished games moved to GameArchive", lifecycle::getArchived);
+        metrics.counter("lifecycle_purged_total", "Archived games deleted with their moves", lifecycle::getPurged);
+        metrics.counter("lifecycle_vacuumed_pages_total", "Pages returned by incremental_vacuum",
+                lifecycle::getVacuumedPages);
+        metrics.gauge("lifecycle_last_sweep_seconds", "Duration of the last sweep",
+                () -> lifecycle.getLastSweepMillis() / 1000.0);
+    }
+
+    private void registerPoolMetrics(ConnectionPool pool) {
+        metrics.gauge("db_pool_max", "Connections the pool may open", pool::getMaxSize);
+        metrics.gauge("db_pool_active", "Connections in use", pool::getActive);
+        metrics.gauge("db_pool_idle", "Open connections not in use", pool::getIdle);
+        metrics.counter("db_pool_opened_total", "Physical connections opened", pool::getOpened);
+        metrics.counter("db_pool_borrowed_total", "Connections handed out", pool::getBorrowed);
+        metrics.counter("db_pool_waited_total", "Borrows that had to wait", pool::getWaited);
+        metrics.counter("db_pool_timeouts_total", "Borrows that gave up waiting", pool::getTimeouts);
+        metrics.counter("db_statement_cache_hits_total", "Prepared statements reused", pool::getStatementHits);
+        metrics.counter("db_statement_cache_misses_total", "Prepared statements parsed", pool::getStatementMisses);
+
+        Map<String, Timer> statementTimers = new ConcurrentHashMap<>();
+        pool.setStatementObserver((sql, nanos) -> statementTimers.computeIfAbsent(sql,
+                key -> metrics.timer("db_statement_seconds", "Executions of each SQL statement", "sql", key))
+                .record(nanos));
+    }
+}
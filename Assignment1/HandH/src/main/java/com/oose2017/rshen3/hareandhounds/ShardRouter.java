@@ -0,0 +1,307 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.cluster.ShardMap;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import spark.embeddedserver.jetty.JettyServerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends the requests for a game to the node that owns it, see ShardMap.
+ *
+ * The router is a Jetty handler in front of Spark, see install. Every request
+ * under /hareandhounds/api/games/:gameId is looked at. A game of this node
+ * passes on to Spark and its routes, any other is either forwarded to its
+ * owner (cluster.routing=forward) or redirected there with a 307
+ * (cluster.routing=redirect). Forwarding is the default, the frontend only
+ * talks to the node it was loaded from.
+ *
+ * A forwarded request is parked as an async servlet request right away, the
+ * answer of the owner is written from the HttpClient once its headers and
+ * then its body arrive. Like a long-poll in EventController it holds no Jetty
+ * thread while it waits. Spark never sees it, that is why it cannot be a
+ * Spark filter: Spark writes an answer for every request it is handed.
+ *
+ * A request arrives forwarded with the X-HareAndHounds-Forwarded header and
+ * is never forwarded again. If the nodes disagree about the owner, because
+ * their cluster.nodes differ, it is answered with 421.
+ *
+ * Creating, matchmaking, the archive and the WebSockets stay on the node
+ * that was asked.
+ */
+public class ShardRouter extends HandlerWrapper {
+
+    private static final String API_PREFIX = "/hareandhounds/api/games/";
+
+    public static final String FORWARDED_HEADER = "X-HareAndHounds-Forwarded";
+
+    /** Longer than a long-poll, which the owner answers after 30 s */
+    public static final long FORWARD_TIMEOUT_MS = 60000;
+
+    /** Every forwarded request in flight to a node holds a connection to it */
+    public static final int CONNECTIONS_PER_NODE = 512;
+
+    /** Bodies are buffered before they are sent on, a game never comes close */
+    private static final int MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+    private static final int MISDIRECTED_REQUEST = 421;
+
+    /**
+     * Headers of a single connection, which the forwarded request and answer
+     * get from their own connection. Date and Server are set by each node and
+     * the content length by the HttpClient or Jetty.
+     */
+    private static final Set<String> HOP_HEADERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-authenticate", "proxy-authorization", "te", "trailer",
+            "transfer-encoding", "upgrade", "host", "content-length", "date", "server")));
+
+    private final ShardMap shardMap;
+
+    private final boolean redirect;
+
+    private final long timeout;
+
+    private final HttpClient client = new HttpClient();
+
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+
+    private final LongAdder forwarded = metrics.counter("cluster_forwarded_requests_total",
+            "Requests forwarded to the node that owns the game");
+
+    private final LongAdder redirected = metrics.counter("cluster_redirected_requests_total",
+            "Requests redirected to the node that owns the game");
+
+    private final LongAdder failed = metrics.counter("cluster_forward_failures_total",
+            "Forwarded requests the owner did not answer");
+
+    private final LongAdder misdirected = metrics.counter("cluster_misdirected_requests_total",
+            "Forwarded requests for a game of another node");
+
+    private final Logger logger = LoggerFactory.getLogger(ShardRouter.class);
+
+    /**
+     * The router of cluster.routing and cluster.forwardTimeoutMillis.
+     */
+    public ShardRouter(ShardMap shardMap) {
+        this(shardMap, Config.getString("cluster.routing", "forward").equals("redirect"),
+                Config.getLong("cluster.forwardTimeoutMillis", FORWARD_TIMEOUT_MS));
+    }
+
+    /**
+     * @param redirect true to answer with 307 instead of forwarding
+     */
+    ShardRouter(ShardMap shardMap, boolean redirect, long timeout) {
+        this.shardMap = shardMap;
+        this.redirect = redirect;
+        this.timeout = timeout;
+        if (!redirect) {
+            // Pass the bodies on as they are and leave the redirects to the client
+            client.getContentDecoderFactories().clear();
+            client.setFollowRedirects(false);
+            client.setMaxConnectionsPerDestination(Config.getInt("cluster.connectionsPerNode", CONNECTIONS_PER_NODE));
+            // Started and stopped with the server
+            addBean(client);
+        }
+    }
+
+    /**
+     * Put a router in front of Spark if there is more than one node. Must be
+     * called before the first route or WebSocket is mapped, Spark starts its
+     * server with the first one.
+     */
+    public static void install(ShardMap shardMap) {
+        if (shardMap.getNodeCount() > 1) {
+            EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY,
+                    new EmbeddedJettyFactory(new ShardRouter(shardMap).serverFactory()));
+        }
+    }
+
+    /**
+     * @return a factory of Spark's Jetty server with the same thread pool as
+     *         Spark's own, whose handler is always wrapped in this router
+     */
+    JettyServerFactory serverFactory() {
+        return (maxThreads, minThreads, idleTimeoutMillis) -> {
+            QueuedThreadPool threadPool = maxThreads > 0
+                    ? new QueuedThreadPool(maxThreads, minThreads > 0 ? minThreads : 8,
+                                           idleTimeoutMillis > 0 ? idleTimeoutMillis : 60000)
+                    : null;
+            return new Server(threadPool) {
+                @Override
+                public void setHandler(Handler handler) {
+                    ShardRouter.this.setHandler(handler);
+                    super.setHandler(ShardRouter.this);
+                }
+            };
+        };
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        String gameId = gameIdOf(target);
+        if (gameId == null || shardMap.isLocal(gameId)) {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+        baseRequest.setHandled(true);
+        int owner = shardMap.ownerOf(gameId);
+        if (request.getHeader(FORWARDED_HEADER) != null) {
+            misdirected.increment();
+            logger.error("ShardRouter: game " + gameId + " was forwarded here, but node " + owner + " owns it");
+            answer(response, MISDIRECTED_REQUEST);
+            return;
+        }
+        String query = request.getQueryString();
+        String url = shardMap.nodeUrl(owner) + request.getRequestURI() + (query == null ? "" : "?" + query);
+        if (redirect) {
+            redirected.increment();
+            response.setHeader("Location", url);
+            response.setStatus(307);
+            return;
+        }
+        forward(request, owner, url);
+    }
+
+    /**
+     * @return the gameId of a request for a game, null for any other
+     */
+    static String gameIdOf(String target) {
+        if (!target.startsWith(API_PREFIX) || target.length() == API_PREFIX.length()) {
+            return null;
+        }
+        int end = target.indexOf('/', API_PREFIX.length());
+        return target.substring(API_PREFIX.length(), end < 0 ? target.length() : end);
+    }
+
+    private void forward(HttpServletRequest request, int owner, String url) throws IOException {
+        org.eclipse.jetty.client.api.Request proxied = client.newRequest(url)
+                .method(request.getMethod())
+                .timeout(timeout, TimeUnit.MILLISECONDS)
+                // The User-Agent of the client is passed on in place of the one of the HttpClient
+                .header(HttpHeader.USER_AGENT, null)
+                .header(FORWARDED_HEADER, Integer.toString(shardMap.getSelf()));
+        for (Enumeration<String> names = request.getHeaderNames(); names.hasMoreElements(); ) {
+            String name = names.nextElement();
+            if (!HOP_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                for (Enumeration<String> values = request.getHeaders(name); values.hasMoreElements(); ) {
+                    proxied.header(name, values.nextElement());
+                }
+            }
+        }
+        // A move is a few bytes, reading it here does not wait on a slow client for long
+        byte[] body = readBody(request.getInputStream());
+        if (body.length > 0) {
+            proxied.content(new BytesContentProvider(body));
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        // The timeout of the forwarded request ends it
+        asyncContext.setTimeout(0);
+        forwarded.increment();
+        proxied.send(new ForwardedAnswer(asyncContext, owner, request.getMethod() + " " + url));
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) >= 0; ) {
+            body.write(buffer, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static void answer(HttpServletResponse response, int status) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.getOutputStream().write("{}".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes the answer of the owner to the parked request: the headers as
+     * soon as they arrive, the buffered body once it is complete.
+     */
+    private class ForwardedAnswer extends BufferingResponseListener {
+        private final AsyncContext asyncContext;
+        private final int owner;
+        private final String request;
+
+        ForwardedAnswer(AsyncContext asyncContext, int owner, String request) {
+            super(MAX_BODY_BYTES);
+            this.asyncContext = asyncContext;
+            this.owner = owner;
+            this.request = request;
+        }
+
+        @Override
+        public void onHeaders(org.eclipse.jetty.client.api.Response upstream) {
+            super.onHeaders(upstream);
+            HttpServletResponse out = (HttpServletResponse) asyncContext.getResponse();
+            out.setStatus(upstream.getStatus());
+            for (HttpField field: upstream.getHeaders()) {
+                if (!HOP_HEADERS.contains(field.getName().toLowerCase(Locale.ROOT))) {
+                    out.addHeader(field.getName(), field.getValue());
+                }
+            }
+            try {
+                out.flushBuffer();
+            } catch (IOException ex) {
+                logger.info("ShardRouter: the client of " + request + " went away");
+            }
+        }
+
+        @Override
+        public void onComplete(Result result) {
+            HttpServletResponse out = (HttpServletResponse) asyncContext.getResponse();
+            try {
+                if (result.isFailed()) {
+                    failed.increment();
+                    logger.error("ShardRouter: node " + owner + " did not answer " + request, result.getFailure());
+                    if (out.isCommitted()) {
+                        // A body cut short must not end like a whole one
+                        Request.getBaseRequest(asyncContext.getRequest()).getHttpChannel().abort(result.getFailure());
+                    } else {
+                        answer(out, 502);
+                    }
+                    return;
+                }
+                out.getOutputStream().write(getContent());
+            } catch (IOException ex) {
+                logger.info("ShardRouter: the client of " + request + " went away");
+            } finally {
+                asyncContext.complete();
+            }
+        }
+    }
+}
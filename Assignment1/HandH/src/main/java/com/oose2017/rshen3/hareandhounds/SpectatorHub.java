@@ -0,0 +1,182 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.engine.BroadcastBuffer;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans the changes of a game out to the WebSocket connections that spectate it.
+ *
+ * Every game with spectators has one BroadcastBuffer. A change is put into
+ * it once, and each spectator has at most one frame on its way. The next
+ * frame is taken from the buffer when the previous one has been written, so
+ * a slow connection never queues more than one frame. A spectator that falls
+ * further behind than the buffer skips to a snapshot of the game.
+ *
+ * A game takes at most spectators.maxPerGame spectators. The buffer size is
+ * spectators.bufferFrames.
+ */
+public class SpectatorHub {
+
+    public static final int MAX_PER_GAME = 500;
+    public static final int BUFFER_FRAMES = 16;
+
+    private final int maxPerGame = Config.getInt("spectators.maxPerGame", MAX_PER_GAME);
+    private final int bufferFrames = Config.getInt("spectators.bufferFrames", BUFFER_FRAMES);
+
+    private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final AtomicInteger spectatorCount = new AtomicInteger();
+    private final LongAdder rejected;
+    private final LongAdder resyncs;
+
+    private final Logger logger = LoggerFactory.getLogger(SpectatorHub.class);
+
+    public SpectatorHub() {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("spectators", "WebSocket connections spectating a game", spectatorCount::get);
+        this.rejected = metrics.counter("spectators_rejected_total", "Spectators turned away from a full game");
+        this.resyncs = metrics.counter("spectator_resyncs_total",
+                "Spectators that fell behind the broadcast buffer and were sent a snapshot");
+    }
+
+    /**
+     * The spectators of one game and their shared buffer
+     */
+    private static class Channel {
+        private final BroadcastBuffer buffer;
+        private final Set<Spectator> spectators = ConcurrentHashMap.newKeySet();
+
+        Channel(int bufferFrames) {
+            this.buffer = new BroadcastBuffer(bufferFrames);
+        }
+    }
+
+    private class Spectator implements WriteCallback {
+        private final Session session;
+        private final Channel channel;
+        private final String gameId;
+
+        /** Only touched by the holder of sending */
+        private long next;
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        Spectator(Session session, Channel channel, String gameId) {
+            this.session = session;
+            this.channel = channel;
+            this.gameId = gameId;
+        }
+
+        /**
+         * Send the next frame unless one is on its way already.
+         */
+        void pump() {
+            while (sending.compareAndSet(false, true)) {
+                String frame = nextFrame();
+                if (frame != null) {
+                    session.getRemote().sendString(frame, this);
+                    return;
+                }
+                sending.set(false);
+                // A frame published between nextFrame and here would be missed otherwise
+                if (next > channel.buffer.getPublished()) {
+                    return;
+                }
+            }
+        }
+
+        private String nextFrame() {
+            if (!session.isOpen() || next > channel.buffer.getPublished()) {
+                return null;
+            }
+            BroadcastBuffer.Frame frame = channel.buffer.get(next);
+            if (frame == null) {
+                frame = channel.buffer.getSnapshot();
+                resyncs.increment();
+            }
+            next = frame.getSequence() + 1;
+            return frame.getText();
+        }
+
+        @Override
+        public void writeSuccess() {
+            sending.set(false);
+            pump();
+        }
+
+        @Override
+        public void writeFailed(Throwable x) {
+            logger.info("SpectatorHub: failed to send a frame, " + x.getMessage());
+            leave(gameId, session);
+        }
+    }
+
+    /**
+     * Start sending the changes of the game to the session. Must be called
+     * while the game is held, right after the snapshot was sent.
+     *
+     * @return false if the game has no room for another spectator
+     */
+    public boolean join(String gameId, Session session) {
+        AtomicBoolean joined = new AtomicBoolean();
+        channels.compute(gameId, (id, channel) -> {
+            if (channel == null) {
+                channel = new Channel(bufferFrames);
+            }
+            if (channel.spectators.size() < maxPerGame) {
+                Spectator spectator = new Spectator(session, channel, gameId);
+                spectator.next = channel.buffer.getPublished() + 1;
+                channel.spectators.add(spectator);
+                joined.set(true);
+            }
+            return channel.spectators.isEmpty() ? null : channel;
+        });
+        if (joined.get()) {
+            spectatorCount.incrementAndGet();
+        } else {
+            rejected.increment();
+        }
+        return joined.get();
+    }
+
+    public void leave(String gameId, Session session) {
+        channels.computeIfPresent(gameId, (id, channel) -> {
+            if (channel.spectators.removeIf(spectator -> spectator.session == session)) {
+                spectatorCount.decrementAndGet();
+            }
+            return channel.spectators.isEmpty() ? null : channel;
+        });
+    }
+
+    /**
+     * Called while the game is held, with the change already serialized.
+     */
+    public void publish(String gameId, String frame, String snapshot) {
+        Channel channel = channels.get(gameId);
+        if (channel == null) {
+            return;
+        }
+        channel.buffer.publish(frame, snapshot);
+        for (Spectator spectator: channel.spectators) {
+            spectator.pump();
+        }
+    }
+
+    /**
+     * @return whether anybody spectates the game, to skip building frames for nobody
+     */
+    public boolean isWatched(String gameId) {
+        return channels.containsKey(gameId);
+    }
+}
@@ -0,0 +1,311 @@
+package com.oose2017.rshen3.hareandhounds.ai;
+
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.engine.RepetitionTracker;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import com.oose2017.rshen3.hareandhounds.utils.MoveTable;
+
+/**
+ * Iterative deepening negamax with alpha-beta pruning over the packed
+ * positions of Bitboard and the moves of MoveTable.
+ *
+ * The search stops at the first of its depth, node and time budget and
+ * plays the best move of the last depth it finished. Scores are from the
+ * point of view of the side to move, a won position scores WIN minus the
+ * number of plies to the win, so faster wins and slower losses are preferred.
+ *
+ * An instance holds the counters of one search and is used by one thread,
+ * the TranspositionTable may be shared.
+ */
+public class AlphaBetaSearch {
+    public static final int WIN = 10000;
+
+    /** The deepest depth the TranspositionTable can hold */
+    public static final int MAX_DEPTH = 63;
+
+    /** Three hounds with at most 8 neighbours each */
+    private static final int MAX_MOVES = 24;
+
+    /** Scores above this are forced wins */
+    private static final int WON = WIN - 1000;
+
+    /** Checking the clock on every node costs more than the node itself */
+    private static final int CLOCK_INTERVAL = 1023;
+
+    /** Moving into a position seen before helps the hare towards the stalling rule */
+    private static final int REPEAT_PENALTY = 50;
+
+    private final TranspositionTable table;
+    private final int maxDepth;
+    private final long maxNodes;
+    private final long budgetNanos;
+
+    /** One move list per ply, so the search does not allocate per node */
+    private final int[][] moveLists;
+
+    private long deadline;
+    private long nodes;
+    private boolean aborted;
+
+    /**
+     * @param maxDepth the deepest depth to search, at most MAX_DEPTH
+     * @param budgetNanos the time for one move, the search may overrun it by
+     *                    the time of CLOCK_INTERVAL nodes
+     */
+    public AlphaBetaSearch(TranspositionTable table, int maxDepth, long maxNodes, long budgetNanos) {
+        this.table = table;
+        this.maxDepth = Math.min(maxDepth, MAX_DEPTH);
+        this.maxNodes = maxNodes;
+        this.budgetNanos = budgetNanos;
+        this.moveLists = new int[this.maxDepth + 1][MAX_MOVES];
+    }
+
+    /**
+     * The outcome of one search
+     */
+    public static class Result {
+        private final int from;
+        private final int to;
+        private final int score;
+        private final int depth;
+        private final long nodes;
+
+        Result(int from, int to, int score, int depth, long nodes) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @return the cell the piece moves from, -1 if the side cannot move
+         */
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * @return the deepest depth that was searched completely
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+    }
+
+    /**
+     * Find the move for the side to move.
+     *
+     * @param side Bitboard.HARE or Bitboard.HOUND
+     * @param history the positions of the game so far, only read
+     */
+    public Result search(int position, int side, RepetitionTracker history) {
+        deadline = System.nanoTime() + budgetNanos;
+        nodes = 0;
+        aborted = false;
+        int[] moves = moveLists[0];
+        int count = generateMoves(position, side, moves);
+        if (count == 0) {
+            return new Result(-1, -1, -WIN, 0, 0);
+        }
+        int[] scores = new int[count];
+        int bestMove = moves[0];
+        int bestScore = -WIN;
+        int finishedDepth = 0;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int alpha = -WIN - 1;
+            int iterationMove = bestMove;
+            for (int i = 0; i < count; i++) {
+                int child = Bitboard.move(position, moves[i] >>> 4, moves[i] & 15);
+                int score;
+                if (history.wouldReach(child, ActiveGame.STALLING_REPETITIONS)) {
+                    score = side == Bitboard.HARE ? WIN - 1 : -(WIN - 1);
+                } else {
+                    score = scoreMove(child, side, depth - 1, -WIN - 1, -alpha, 1);
+                    if (side == Bitboard.HOUND && history.count(child) > 0) {
+                        score -= REPEAT_PENALTY;
+                    }
+                }
+                if (aborted) {
+                    break;
+                }
+                scores[i] = score;
+                if (score > alpha) {
+                    alpha = score;
+                    iterationMove = moves[i];
+                }
+            }
+            if (aborted) {
+                break;
+            }
+            bestMove = iterationMove;
+            bestScore = alpha;
+            finishedDepth = depth;
+            sortByScore(moves, scores, count);
+            if (Math.abs(bestScore) > WON) {
+                break;
+            }
+        }
+        return new Result(bestMove >>> 4, bestMove & 15, bestScore, finishedDepth, nodes);
+    }
+
+    /**
+     * @return the score of the move that led to the child, for the side that made it
+     */
+    private int scoreMove(int child, int side, int depth, int alpha, int beta, int ply) {
+        if (Bitboard.hareEscaped(child)) {
+            return side == Bitboard.HARE ? WIN - ply : -(WIN - ply);
+        }
+        if (side == Bitboard.HOUND && Bitboard.hareTrapped(child)) {
+            return WIN - ply;
+        }
+        return -negamax(child, 1 - side, depth, alpha, beta, ply);
+    }
+
+    private int negamax(int position, int side, int depth, int alpha, int beta, int ply) {
+        if ((++nodes & CLOCK_INTERVAL) == 0 && (nodes >= maxNodes || System.nanoTime() >= deadline)) {
+            aborted = true;
+        }
+        if (aborted) {
+            return 0;
+        }
+        if (depth == 0) {
+            return evaluate(position, side);
+        }
+        int originalAlpha = alpha;
+        long entry = table.probe(position, side);
+        int hashMove = TranspositionTable.NO_MOVE;
+        if (TranspositionTable.isPresent(entry)) {
+            hashMove = TranspositionTable.move(entry);
+            if (TranspositionTable.depth(entry) >= depth) {
+                int stored = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && stored >= beta)
+                        || (bound == TranspositionTable.UPPER && stored <= alpha)) {
+                    return stored;
+                }
+            }
+        }
+        int[] moves = moveLists[ply];
+        int count = generateMoves(position, side, moves);
+        if (count == 0) {
+            // A side that cannot move has lost
+            return -(WIN - ply);
+        }
+        moveToFront(moves, count, hashMove);
+        int best = -WIN - 1;
+        int bestMove = moves[0];
+        for (int i = 0; i < count; i++) {
+            int child = Bitboard.move(position, moves[i] >>> 4, moves[i] & 15);
+            int score = scoreMove(child, side, depth - 1, -beta, -alpha, ply + 1);
+            if (aborted) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = moves[i];
+            }
+            if (best > alpha) {
+                alpha = best;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        int bound = best <= originalAlpha ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+        table.store(position, side, depth, bound, toTable(best, ply), bestMove);
+        return best;
+    }
+
+    /**
+     * Wins are stored as plies from the stored position rather than from the
+     * root, so they stay right when the position is reached at another ply.
+     */
+    private static int toTable(int score, int ply) {
+        return score > WON ? score + ply : score < -WON ? score - ply : score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        return score > WON ? score - ply : score < -WON ? score + ply : score;
+    }
+
+    /**
+     * Static score of a position for the side to move. The hounds want the
+     * hare pushed to the right with few cells to go to and themselves still
+     * on its left, the hare wants the opposite.
+     */
+    static int evaluate(int position, int side) {
+        int hare = Bitboard.hareCell(position);
+        int hounds = Bitboard.houndMask(position);
+        int hareX = Bitboard.cellX(hare);
+        int mobility = Integer.bitCount(MoveTable.destinations(Bitboard.HARE, hare) & ~hounds);
+        int behind = 0;
+        for (int rest = hounds; rest != 0; rest &= rest - 1) {
+            if (Bitboard.cellX(Integer.numberOfTrailingZeros(rest)) < hareX) {
+                behind++;
+            }
+        }
+        int forHounds = 20 * hareX - 10 * mobility + 15 * behind;
+        return side == Bitboard.HOUND ? forHounds : -forHounds;
+    }
+
+    /**
+     * @return the number of moves written to moves, each as from cell * 16 + to cell
+     */
+    static int generateMoves(int position, int side, int[] moves) {
+        int empty = ~Bitboard.occupied(position);
+        int pieces = side == Bitboard.HARE ? 1 << Bitboard.hareCell(position) : Bitboard.houndMask(position);
+        int count = 0;
+        for (; pieces != 0; pieces &= pieces - 1) {
+            int from = Integer.numberOfTrailingZeros(pieces);
+            for (int to = MoveTable.destinations(side, from) & empty; to != 0; to &= to - 1) {
+                moves[count++] = from << 4 | Integer.numberOfTrailingZeros(to);
+            }
+        }
+        return count;
+    }
+
+    private static void moveToFront(int[] moves, int count, int move) {
+        for (int i = 1; i < count; i++) {
+            if (moves[i] == move) {
+                moves[i] = moves[0];
+                moves[0] = move;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Order the root moves best first for the next depth, an insertion sort
+     * is plenty for the handful of moves a side has.
+     */
+    private static void sortByScore(int[] moves, int[] scores, int count) {
+        for (int i = 1; i < count; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+}
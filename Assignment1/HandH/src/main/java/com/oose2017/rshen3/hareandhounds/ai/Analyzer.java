@@ -0,0 +1,151 @@
+package com.oose2017.rshen3.hareandhounds.ai;
+
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.metrics.MetricsRegistry;
+import com.oose2017.rshen3.hareandhounds.model.Analysis;
+import com.oose2017.rshen3.hareandhounds.model.MoveHint;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The legal moves of a game with their outcomes, for move hints.
+ *
+ * An analysis only depends on the position and the side to move, so it is
+ * encoded once and kept in a small LRU cache. Most games pass through the
+ * same few openings, which then cost one lookup per request. A position
+ * where a move would repeat a position of the game for the third time
+ * depends on the history of that game and is analysed without the cache.
+ *
+ * With a Tablebase the outcomes are exact. Without one there are no
+ * outcomes and the best moves are the ones AlphaBetaSearch.evaluate likes.
+ */
+public class Analyzer {
+    public static final int CACHE_SIZE = 1024;
+
+    private final Tablebase tablebase;
+
+    /** Encoded analyses by position * 2 + side to move */
+    private final Map<Integer, byte[]> cache;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * @param tablebase the solved game, null if there is none
+     */
+    public Analyzer(Tablebase tablebase, int cacheSize) {
+        this.tablebase = tablebase;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.hits = metrics.counter("analysis_cache_hits_total", "Analyses served from the cache");
+        this.misses = metrics.counter("analysis_cache_misses_total", "Analyses computed");
+    }
+
+    /**
+     * Must be called while the game is held with its history loaded, see
+     * GameService.readWithHistory.
+     *
+     * @return the Analysis of the game encoded as JSON
+     */
+    public byte[] analyze(ActiveGame game) {
+        String state = game.getState();
+        if (!state.startsWith("TURN_")) {
+            Analysis analysis = new Analysis();
+            analysis.setState(state);
+            if (state.startsWith("WIN_")) {
+                analysis.setWinner(state.startsWith("WIN_HARE") ? "HARE" : "HOUND");
+            }
+            analysis.setMoves(Collections.emptyList());
+            return JsonCodec.toBytes(analysis);
+        }
+        int position = game.getPosition();
+        int side = Bitboard.pieceCode(state.substring("TURN_".length()));
+        int[] moves = new int[24];
+        int count = AlphaBetaSearch.generateMoves(position, side, moves);
+        boolean[] stalls = new boolean[count];
+        boolean anyStalls = false;
+        for (int i = 0; i < count; i++) {
+            stalls[i] = game.isStalling(Bitboard.move(position, moves[i] >>> 4, moves[i] & 15));
+            anyStalls |= stalls[i];
+        }
+        if (anyStalls) {
+            misses.increment();
+            return JsonCodec.toBytes(analyze(state, position, side, moves, count, stalls));
+        }
+        Integer key = position << 1 | side;
+        byte[] encoded = cache.get(key);
+        if (encoded != null) {
+            hits.increment();
+            return encoded;
+        }
+        misses.increment();
+        encoded = JsonCodec.toBytes(analyze(state, position, side, moves, count, stalls));
+        cache.put(key, encoded);
+        return encoded;
+    }
+
+    private Analysis analyze(String state, int position, int side, int[] moves, int count, boolean[] stalls) {
+        int[] ranks = new int[count];
+        int bestRank = Integer.MIN_VALUE;
+        int best = -1;
+        boolean anyStalls = false;
+        List<MoveHint> hints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int from = moves[i] >>> 4;
+            int to = moves[i] & 15;
+            int child = Bitboard.move(position, from, to);
+            MoveHint hint = new MoveHint();
+            hint.setFromX(Bitboard.cellX(from));
+            hint.setFromY(Bitboard.cellY(from));
+            hint.setToX(Bitboard.cellX(to));
+            hint.setToY(Bitboard.cellY(to));
+            if (tablebase != null) {
+                int outcome = tablebase.outcome(child, side, stalls[i]);
+                hint.setWinner(Bitboard.pieceType(Tablebase.winnerOf(outcome)));
+                hint.setPlies(plies(Tablebase.distanceOf(outcome)));
+                ranks[i] = Tablebase.rank(outcome, side);
+            } else {
+                ranks[i] = stalls[i] ? (side == Bitboard.HARE ? AlphaBetaSearch.WIN : -AlphaBetaSearch.WIN)
+                        : -AlphaBetaSearch.evaluate(child, 1 - side);
+            }
+            if (ranks[i] > bestRank) {
+                bestRank = ranks[i];
+                best = i;
+            }
+            anyStalls |= stalls[i];
+            hints.add(hint);
+        }
+        for (int i = 0; i < count; i++) {
+            hints.get(i).setBest(ranks[i] == bestRank);
+        }
+        Analysis analysis = new Analysis();
+        analysis.setState(state);
+        analysis.setSideToMove(Bitboard.pieceType(side));
+        if (tablebase != null && anyStalls) {
+            // The table does not know the history of the game, its best move does
+            analysis.setWinner(hints.get(best).getWinner());
+            analysis.setPlies(hints.get(best).getPlies());
+        } else if (tablebase != null) {
+            analysis.setWinner(Bitboard.pieceType(tablebase.winner(position, side)));
+            analysis.setPlies(plies(tablebase.distance(position, side)));
+        }
+        analysis.setMoves(hints);
+        return analysis;
+    }
+
+    private static Integer plies(int distance) {
+        return distance == Tablebase.STALLING ? null : distance;
+    }
+}
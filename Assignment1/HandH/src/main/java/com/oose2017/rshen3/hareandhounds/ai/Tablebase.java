@@ -0,0 +1,308 @@
+package com.oose2017.rshen3.hareandhounds.ai;
+
+import com.oose2017.rshen3.hareandhounds.engine.ActiveGame;
+import com.oose2017.rshen3.hareandhounds.engine.RepetitionTracker;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The outcome of every position of the game under perfect play, solved by
+ * retrograde analysis and kept in a memory-mapped file.
+ *
+ * There are 11 hare cells times 165 sets of three hound cells times the
+ * side to move, so the whole game fits in a few kilobytes. Each position is
+ * one byte:
+ *
+ * <pre>
+ *   bit  7      the hounds win
+ *   bits 0..6   plies until the hare escapes or is trapped, STALLING if the
+ *               hounds cannot force a win and the hare wins by stalling
+ * </pre>
+ *
+ * A line the hounds cannot force to an end repeats a position sooner or
+ * later, which the stalling rule turns into a win of the hare. The
+ * repetitions of a single game are not part of the table, bestMove checks
+ * them against the history of the game.
+ *
+ * The file starts with MAGIC and FORMAT. It is generated at startup when it
+ * is missing or of another format, or offline with the main method.
+ */
+public class Tablebase {
+    public static final int STALLING = 127;
+
+    private static final int MAGIC = 0x48485442;
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 8;
+
+    private static final int HOUND_SETS = 165;
+    private static final int ENTRIES = Bitboard.CELLS * HOUND_SETS * 2;
+
+    private static final int HOUNDS_WIN = 0x80;
+    private static final int UNKNOWN = -1;
+
+    private static final Logger logger = LoggerFactory.getLogger(Tablebase.class);
+
+    private final ByteBuffer entries;
+
+    private Tablebase(ByteBuffer entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Map the tablebase file, generating it first if it is missing or stale.
+     */
+    public static Tablebase open(Path path) throws IOException {
+        if (!isCurrent(path)) {
+            long started = System.currentTimeMillis();
+            write(path, generate());
+            logger.info("Generated the tablebase " + path + " in " + (System.currentTimeMillis() - started) + " ms");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, ENTRIES);
+            return new Tablebase(mapped);
+        }
+    }
+
+    /**
+     * Generate the tablebase file offline, e.g. to ship it with the server.
+     */
+    public static void main(String[] args) throws IOException {
+        write(Paths.get(args.length > 0 ? args[0] : "tablebase.bin"), generate());
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Lookups
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * @param side the side to move, Bitboard.HARE or Bitboard.HOUND
+     * @return Bitboard.HARE or Bitboard.HOUND
+     */
+    public int winner(int position, int side) {
+        return (entry(position, side) & HOUNDS_WIN) != 0 ? Bitboard.HOUND : Bitboard.HARE;
+    }
+
+    /**
+     * @return the plies until the game ends under perfect play, STALLING if
+     *         it only ends by the stalling rule
+     */
+    public int distance(int position, int side) {
+        return entry(position, side) & STALLING;
+    }
+
+    private int entry(int position, int side) {
+        return entries.get(index(position, side)) & 0xFF;
+    }
+
+    /**
+     * The best move for the side to move: the fastest win, or the slowest
+     * loss. Moves that make a position of the history its third occurrence
+     * count as a win of the hare.
+     *
+     * @return from cell * 16 + to cell, -1 if the side cannot move
+     */
+    public int bestMove(int position, int side, RepetitionTracker history) {
+        int[] moves = new int[24];
+        int count = AlphaBetaSearch.generateMoves(position, side, moves);
+        int bestMove = -1;
+        int bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int child = Bitboard.move(position, moves[i] >>> 4, moves[i] & 15);
+            int outcome = outcome(child, side, history.wouldReach(child, ActiveGame.STALLING_REPETITIONS));
+            int rank = rank(outcome, side);
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = moves[i];
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * The outcome of a move, in the format of the entries. The distance counts
+     * the move itself, a move that ends the game is 1 ply from the end.
+     *
+     * @param child the position the side moved to
+     * @param stalls whether the move repeats a position for the third time
+     */
+    public int outcome(int child, int side, boolean stalls) {
+        if (stalls) {
+            return 1;
+        }
+        if (isOver(child, side)) {
+            return (side == Bitboard.HOUND ? HOUNDS_WIN : 0) | 1;
+        }
+        int entry = entry(child, 1 - side);
+        int distance = entry & STALLING;
+        return distance == STALLING ? entry : (entry & HOUNDS_WIN) | (distance + 1);
+    }
+
+    /**
+     * @return the winner of an outcome, Bitboard.HARE or Bitboard.HOUND
+     */
+    public static int winnerOf(int outcome) {
+        return (outcome & HOUNDS_WIN) != 0 ? Bitboard.HOUND : Bitboard.HARE;
+    }
+
+    /**
+     * @return the plies of an outcome, STALLING if the game only ends by stalling
+     */
+    public static int distanceOf(int outcome) {
+        return outcome & STALLING;
+    }
+
+    /**
+     * Win fast, lose slow
+     *
+     * @return a number that is larger for better outcomes for the side
+     */
+    public static int rank(int outcome, int side) {
+        return winnerOf(outcome) == side ? 1000 - distanceOf(outcome) : distanceOf(outcome) - 1000;
+    }
+
+    /**
+     * @return whether the move of the side that led to the position ended the game in its favour
+     */
+    private static boolean isOver(int position, int side) {
+        return side == Bitboard.HARE ? Bitboard.hareEscaped(position)
+                : Bitboard.hareTrapped(position) && !Bitboard.hareEscaped(position);
+    }
+
+    /**
+     * Positions are numbered by hare cell, the rank of the hound cells in the
+     * combinatorial number system and the side to move.
+     */
+    static int index(int position, int side) {
+        int hounds = Bitboard.houndMask(position);
+        int c1 = Integer.numberOfTrailingZeros(hounds);
+        hounds &= hounds - 1;
+        int c2 = Integer.numberOfTrailingZeros(hounds);
+        hounds &= hounds - 1;
+        int c3 = Integer.numberOfTrailingZeros(hounds);
+        int rank = c1 + c2 * (c2 - 1) / 2 + c3 * (c3 - 1) * (c3 - 2) / 6;
+        return (Bitboard.hareCell(position) * HOUND_SETS + rank) * 2 + side;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Retrograde analysis
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Solve the game backwards from the positions where it is over. Round n
+     * settles the positions that end in n plies, a side to move wins if one
+     * move reaches a position it wins and loses once every move reaches one
+     * it loses. What is left after the last round never ends.
+     */
+    static byte[] generate() {
+        int[] positions = new int[ENTRIES];
+        int[] winners = new int[ENTRIES];
+        int[] distances = new int[ENTRIES];
+        Arrays.fill(positions, UNKNOWN);
+        Arrays.fill(winners, UNKNOWN);
+        for (int hare = 0; hare < Bitboard.CELLS; hare++) {
+            for (int hounds = 0; hounds <= Bitboard.HOUND_MASK; hounds++) {
+                if (Integer.bitCount(hounds) != 3 || (hounds & 1 << hare) != 0) {
+                    continue;
+                }
+                int position = Bitboard.position(hare, hounds);
+                for (int side = Bitboard.HARE; side <= Bitboard.HOUND; side++) {
+                    int index = index(position, side);
+                    positions[index] = position;
+                    if (Bitboard.hareEscaped(position)) {
+                        winners[index] = Bitboard.HARE;
+                    } else if (side == Bitboard.HARE && Bitboard.hareTrapped(position)) {
+                        winners[index] = Bitboard.HOUND;
+                    }
+                }
+            }
+        }
+        int[] moves = new int[24];
+        int[] settled = new int[ENTRIES];
+        for (int round = 1; round < STALLING; round++) {
+            int count = 0;
+            for (int index = 0; index < ENTRIES; index++) {
+                if (positions[index] == UNKNOWN || winners[index] != UNKNOWN) {
+                    continue;
+                }
+                int side = index & 1;
+                int moveCount = AlphaBetaSearch.generateMoves(positions[index], side, moves);
+                boolean win = false;
+                boolean allLost = moveCount > 0;
+                for (int i = 0; i < moveCount; i++) {
+                    int child = index(Bitboard.move(positions[index], moves[i] >>> 4, moves[i] & 15), 1 - side);
+                    // Only positions settled in earlier rounds count, so the distance is the shortest
+                    boolean known = winners[child] != UNKNOWN && distances[child] < round;
+                    win |= known && winners[child] == side;
+                    allLost &= known && winners[child] != side;
+                }
+                if (win || allLost) {
+                    settled[count++] = index;
+                    winners[index] = win ? side : 1 - side;
+                    distances[index] = STALLING;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                distances[settled[i]] = round;
+            }
+        }
+        byte[] table = new byte[ENTRIES];
+        for (int index = 0; index < ENTRIES; index++) {
+            if (positions[index] == UNKNOWN) {
+                continue;
+            }
+            int winner = winners[index] == UNKNOWN ? Bitboard.HARE : winners[index];
+            int distance = winners[index] == UNKNOWN ? STALLING : distances[index];
+            table[index] = (byte) ((winner == Bitboard.HOUND ? HOUNDS_WIN : 0) | distance);
+        }
+        return table;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // File
+    //-----------------------------------------------------------------------------//
+
+    private static boolean isCurrent(Path path) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) != HEADER_BYTES + ENTRIES) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == FORMAT;
+        }
+    }
+
+    /**
+     * Written next to the target and moved over it, a server that maps the
+     * file never sees half of it.
+     */
+    private static void write(Path path, byte[] table) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, "tablebase", ".tmp");
+        ByteBuffer file = ByteBuffer.allocate(HEADER_BYTES + table.length);
+        file.putInt(MAGIC).putInt(FORMAT).put(table).flip();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            while (file.hasRemaining()) {
+                channel.write(file);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
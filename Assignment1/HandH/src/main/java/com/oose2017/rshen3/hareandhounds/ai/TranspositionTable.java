@@ -0,0 +1,79 @@
+package com.oose2017.rshen3.hareandhounds.ai;
+
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Search results of positions already visited, shared by all searches.
+ *
+ * A packed position of Bitboard plus the side to move is a 16 bit number,
+ * so the table has one slot for every possible key and entries never
+ * collide or need a key check. Each entry is one long, written and read
+ * atomically, so concurrent searches see either the old or the new entry
+ * and never a mix of both.
+ *
+ * <pre>
+ *   bits  0..7   best move, from cell * 16 + to cell
+ *   bits  8..23  score + 32768
+ *   bits 24..25  bound, EXACT, LOWER or UPPER
+ *   bits 26..31  depth searched
+ *   bit  32      entry present
+ * </pre>
+ *
+ * Scores only depend on the position and the side to move. Repetitions,
+ * which depend on the history of a single game, are left to the root of
+ * the search, see AlphaBetaSearch.
+ */
+public class TranspositionTable {
+    public static final int EXACT = 0;
+    public static final int LOWER = 1;
+    public static final int UPPER = 2;
+
+    public static final int NO_MOVE = 0xFF;
+
+    private static final int SIZE = 1 << (Bitboard.CELLS + 5);
+    private static final long PRESENT = 1L << 32;
+
+    private final AtomicLongArray entries = new AtomicLongArray(SIZE);
+
+    /**
+     * @return the entry of the position, 0 if there is none
+     */
+    public long probe(int position, int side) {
+        return entries.get(key(position, side));
+    }
+
+    public void store(int position, int side, int depth, int bound, int score, int move) {
+        long entry = PRESENT
+                | (long) Math.min(depth, 63) << 26
+                | (long) bound << 24
+                | (long) (score + 32768) << 8
+                | (move & 0xFF);
+        entries.lazySet(key(position, side), entry);
+    }
+
+    public static boolean isPresent(long entry) {
+        return (entry & PRESENT) != 0;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> 26) & 63;
+    }
+
+    public static int bound(long entry) {
+        return (int) (entry >>> 24) & 3;
+    }
+
+    public static int score(long entry) {
+        return (int) ((entry >>> 8) & 0xFFFF) - 32768;
+    }
+
+    public static int move(long entry) {
+        return (int) entry & 0xFF;
+    }
+
+    private static int key(int position, int side) {
+        return position << 1 | side;
+    }
+}
@@ -0,0 +1,155 @@
+package com.oose2017.rshen3.hareandhounds.cluster;
+
+import com.fasterxml.uuid.EthernetAddress;
+import com.fasterxml.uuid.Generators;
+import com.fasterxml.uuid.impl.TimeBasedGenerator;
+import com.oose2017.rshen3.hareandhounds.utils.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Which node of the cluster owns which game.
+ *
+ * The games are split into a fixed number of shards and node i owns the
+ * shards s with s % nodes == i. The shard of a game is part of its gameId:
+ * a time-based UUID ends with its 48 bit node field, whose last 16 bits, the
+ * last 4 hex digits of the gameId, hold the shard. Any node can tell the
+ * owner of a game from the gameId alone, without a lookup.
+ *
+ * The nodes are configured the same way on every node, cluster.nodes is the
+ * list of their base URLs and cluster.node the index of this one. Without
+ * cluster.nodes there is a single node that owns every shard.
+ */
+public class ShardMap {
+
+    public static final int SHARDS = 256;
+
+    /** The shard has to fit in the low 16 bits of the node field */
+    public static final int MAX_SHARDS = 1 << 16;
+
+    private static final int UUID_LENGTH = 36;
+
+    private static final int SHARD_DIGITS = 4;
+
+    private final List<String> nodes;
+
+    private final int self;
+
+    private final int shards;
+
+    /** One generator per shard of this node, new games go round-robin over them */
+    private final TimeBasedGenerator[] generators;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param nodes the base URLs of the nodes, e.g. http://10.0.0.2:8080
+     * @param self  the index of this node in nodes
+     */
+    public ShardMap(List<String> nodes, int self, int shards) {
+        if (nodes.isEmpty() || self < 0 || self >= nodes.size()) {
+            throw new IllegalArgumentException("Node " + self + " is not one of the " + nodes.size() + " nodes");
+        }
+        if (shards < nodes.size() || shards > MAX_SHARDS) {
+            throw new IllegalArgumentException("Cannot split " + shards + " shards over " + nodes.size() + " nodes");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        this.self = self;
+        this.shards = shards;
+
+        // The multicast bit keeps the node field from passing for a real MAC address
+        long node = EthernetAddress.constructMulticastAddress().toLong() & ~(long) (MAX_SHARDS - 1);
+        List<TimeBasedGenerator> owned = new ArrayList<>();
+        for (int shard = self; shard < shards; shard += nodes.size()) {
+            owned.add(Generators.timeBasedGenerator(new EthernetAddress(node | shard)));
+        }
+        generators = owned.toArray(new TimeBasedGenerator[0]);
+    }
+
+    /**
+     * A single node that owns every game.
+     */
+    public static ShardMap single() {
+        return new ShardMap(Collections.singletonList(""), 0, SHARDS);
+    }
+
+    /**
+     * The map of cluster.nodes, cluster.node and cluster.shards, see the class comment.
+     */
+    public static ShardMap fromConfig() {
+        String nodes = Config.getString("cluster.nodes", "").trim();
+        if (nodes.isEmpty()) {
+            return single();
+        }
+        List<String> urls = new ArrayList<>();
+        for (String url: nodes.split(",")) {
+            url = url.trim();
+            urls.add(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+        }
+        return new ShardMap(urls, Config.getInt("cluster.node", 0), Config.getInt("cluster.shards", SHARDS));
+    }
+
+    /**
+     * @return a new time-based gameId in one of the shards of this node
+     */
+    public String newGameId() {
+        int index = Math.floorMod(next.getAndIncrement(), generators.length);
+        return generators[index].generate().toString();
+    }
+
+    /**
+     * @return the shard of the gameId, -1 if it is not a UUID
+     */
+    public int shardOf(String gameId) {
+        if (gameId == null || gameId.length() != UUID_LENGTH) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(gameId.substring(UUID_LENGTH - SHARD_DIGITS), 16) % shards;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the index of the node that owns the game. A gameId that is not
+     *         a UUID belongs to no game and is left to this node to reject.
+     */
+    public int ownerOf(String gameId) {
+        int shard = shardOf(gameId);
+        return shard < 0 ? self : shard % nodes.size();
+    }
+
+    public boolean isLocal(String gameId) {
+        return ownerOf(gameId) == self;
+    }
+
+    /**
+     * @return the base URL of a node, without a trailing slash
+     */
+    public String nodeUrl(int node) {
+        return nodes.get(node);
+    }
+
+    public int getSelf() {
+        return self;
+    }
+
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    public int getShardCount() {
+        return shards;
+    }
+
+    /**
+     * @return the number of shards this node owns
+     */
+    public int getLocalShardCount() {
+        return generators.length;
+    }
+}
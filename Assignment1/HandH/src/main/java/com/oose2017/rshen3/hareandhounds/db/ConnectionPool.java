@@ -0,0 +1,378 @@
+package com.oose2017.rshen3.hareandhounds.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections in front of another DataSource.
+ *
+ * Connections handed out are proxies, closing one gives it back to the pool.
+ * Every pooled connection also caches its prepared statements by SQL string,
+ * a cached statement is only reset when Sql2o closes it so the fixed set of
+ * GameService queries is parsed once per connection. The cache only shrinks
+ * back to its size when the connection is given back, a borrower may still
+ * use every statement it prepared.
+ */
+public class ConnectionPool implements DataSource {
+
+    /**
+     * Told about every execution of a cached statement.
+     */
+    public interface StatementObserver {
+        void executed(String sql, long nanos);
+    }
+
+    private final DataSource dataSource;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long waitTimeoutMillis;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    private volatile StatementObserver statementObserver;
+
+    private final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /**
+     * @param dataSource where the physical connections come from
+     * @param maxSize the maximal number of connections open at the same time
+     * @param statementCacheSize prepared statements kept per connection
+     * @param waitTimeoutMillis how long getConnection waits for a free connection
+     */
+    public ConnectionPool(DataSource dataSource, int maxSize, int statementCacheSize, long waitTimeoutMillis) {
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!permits.tryAcquire()) {
+            waited.incrementAndGet();
+            try {
+                if (!permits.tryAcquire(waitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeouts.incrementAndGet();
+                    throw new SQLException("ConnectionPool: no connection available after " + waitTimeoutMillis + " ms");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("ConnectionPool: interrupted while waiting for a connection", ex);
+            }
+        }
+        try {
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled == null) {
+                pooled = new PooledConnection(dataSource.getConnection());
+                opened.incrementAndGet();
+            }
+            borrowed.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("ConnectionPool: credentials are set on the pooled DataSource");
+    }
+
+    public void setStatementObserver(StatementObserver statementObserver) {
+        this.statementObserver = statementObserver;
+    }
+
+    /**
+     * Close every idle connection, connections in use are closed when they come back.
+     */
+    public void close() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.destroy();
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Metrics
+    //-----------------------------------------------------------------------------//
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActive() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getOpened() {
+        return opened.get();
+    }
+
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    public long getWaited() {
+        return waited.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getStatementHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Pooled connections and cached statements
+    //-----------------------------------------------------------------------------//
+
+    private class PooledConnection implements InvocationHandler {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+        private Connection proxy;
+        private boolean leased;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        Connection lease() {
+            leased = true;
+            proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, this);
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            // A proxy of an earlier lease behaves like a closed connection
+            boolean current = leased && proxy == this.proxy;
+            switch (method.getName()) {
+                case "close":
+                    if (current) {
+                        giveBack();
+                    }
+                    return null;
+                case "isClosed":
+                    return !current || connection.isClosed();
+                case "prepareStatement":
+                    if (current && isCacheable(args)) {
+                        return prepare((String) args[0], args.length == 2 ? (Integer) args[1] : -1);
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (!current) {
+                throw new SQLException("ConnectionPool: connection has already been closed");
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        private boolean isCacheable(Object[] args) {
+            return args.length == 1 || (args.length == 2 && args[1] instanceof Integer);
+        }
+
+        private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "+keys:" + sql : sql;
+            PreparedStatement statement = statements.get(key);
+            if (statement != null && !statement.isClosed()) {
+                statementHits.incrementAndGet();
+            } else {
+                statementMisses.incrementAndGet();
+                statement = autoGeneratedKeys < 0
+                        ? connection.prepareStatement(sql)
+                        : connection.prepareStatement(sql, autoGeneratedKeys);
+                statements.put(key, statement);
+            }
+            return cachedStatement(sql, statement);
+        }
+
+        /**
+         * Wrap the statement so that close() only resets it for the next use.
+         */
+        private PreparedStatement cachedStatement(String sql, PreparedStatement statement) {
+            ResultSet[] lastResult = new ResultSet[1];
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] {PreparedStatement.class}, (statementProxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                // Closing the result set resets the statement, a running
+                                // statement would keep its tables locked
+                                if (lastResult[0] != null) {
+                                    lastResult[0].close();
+                                    lastResult[0] = null;
+                                }
+                                statement.clearParameters();
+                                statement.clearBatch();
+                                return null;
+                            case "getConnection":
+                                return proxy;
+                            case "equals":
+                                return statementProxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(statementProxy);
+                            default:
+                                break;
+                        }
+                        StatementObserver observer = statementObserver;
+                        boolean timed = observer != null && method.getName().startsWith("execute");
+                        long started = timed ? System.nanoTime() : 0;
+                        try {
+                            Object result = method.invoke(statement, args);
+                            if (result instanceof ResultSet) {
+                                lastResult[0] = (ResultSet) result;
+                            }
+                            return result;
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        } finally {
+                            if (timed) {
+                                observer.executed(sql, System.nanoTime() - started);
+                            }
+                        }
+                    });
+        }
+
+        private void giveBack() {
+            leased = false;
+            try {
+                if (!connection.getAutoCommit()) {
+                    // An unfinished transaction must not leak to the next borrower
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                trimStatements();
+                idle.offerFirst(this);
+            } catch (SQLException ex) {
+                logger.error("ConnectionPool: dropping a broken connection", ex);
+                destroy();
+            } finally {
+                permits.release();
+            }
+        }
+
+        /**
+         * Close the least recently used statements beyond the cache size,
+         * called while nobody holds the connection.
+         */
+        private void trimStatements() {
+            Iterator<PreparedStatement> eldest = statements.values().iterator();
+            while (statements.size() > statementCacheSize) {
+                closeQuietly(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        void destroy() {
+            for (PreparedStatement statement: statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                logger.error("ConnectionPool: failed to close a connection", ex);
+            }
+        }
+    }
+
+    private void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            logger.error("ConnectionPool: failed to close a statement", ex);
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Remaining DataSource methods
+    //-----------------------------------------------------------------------------//
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,53 @@
+package com.oose2017.rshen3.hareandhounds.db;
+
+/**
+ * Integer codes of the game states as stored in the database. Piece types
+ * are stored as Bitboard.HARE and Bitboard.HOUND, positions as packed ints.
+ */
+public class GameCodes {
+    public static final int WAITING = 0;
+    /** Codes from here on are the finished games */
+    public static final int FIRST_FINISHED = 3;
+
+    private static final String[] STATES = {
+            "WAITING_FOR_SECOND_PLAYER",
+            "TURN_HOUND",
+            "TURN_HARE",
+            "WIN_HARE_BY_ESCAPE",
+            "WIN_HOUND",
+            "WIN_HARE_BY_STALLING",
+            "ABANDONED"
+    };
+
+    public static int stateCode(String state) {
+        for (int i = 0; i < STATES.length; i++) {
+            if (STATES[i].equals(state)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown game state " + state);
+    }
+
+    public static String state(int stateCode) {
+        return STATES[stateCode];
+    }
+
+    /**
+     * @return every state, ordered by code
+     */
+    public static String[] states() {
+        return STATES.clone();
+    }
+
+    public static boolean isFinished(String state) {
+        return stateCode(state) >= FIRST_FINISHED;
+    }
+
+    /**
+     * @return whether the game has two players and is not over yet
+     */
+    public static boolean isPlaying(String state) {
+        int stateCode = stateCode(state);
+        return stateCode > WAITING && stateCode < FIRST_FINISHED;
+    }
+}
@@ -0,0 +1,251 @@
+package com.oose2017.rshen3.hareandhounds.db;
+
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.LazyTable;
+import org.sql2o.data.Row;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned schema of game.db. The version is kept in PRAGMA user_version
+ * and every missing step is applied in place at startup, inside a single
+ * transaction.
+ *
+ * <pre>
+ *   0  the original TEXT tables without keys, or an empty file
+ *   1  integer encoded states, pieces and records with primary keys and indexes
+ *   2  time of the last change of every game, GameArchive for finished games
+ *      and incremental auto vacuum
+ *  3  players that are played by ComputerPlayer
+ *  4  GameMoves, the numbered moves of every game, in place of GameRecord,
+ *     with GameStates as their snapshot
+ *  5  GameArchive by the time a game finished, for the retention of GameLifecycle
+ * </pre>
+ */
+public class SchemaMigration {
+    public static final int VERSION = 5;
+
+    private static final int ISOLATION = java.sql.Connection.TRANSACTION_SERIALIZABLE;
+
+    private static final int INCREMENTAL_VACUUM = 2;
+
+    private static final String[] LEGACY_TABLES = {"PlayerInfos", "PieceInfos", "GameStates", "GameRecord"};
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigration.class);
+
+    public static void migrate(Sql2o db) throws Sql2oException {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            int version;
+            try (Query userVersion = conn.createQuery("PRAGMA user_version")) {
+                version = userVersion.executeScalar(Integer.class);
+            }
+            if (version < 1) {
+                migrateToIntegerSchema(conn);
+            }
+            if (version < 2) {
+                migrateToLifecycleSchema(conn);
+            }
+            if (version < 3) {
+                conn.createQuery("ALTER TABLE `PlayerInfos` ADD COLUMN `computer` INTEGER NOT NULL DEFAULT 0")
+                        .executeUpdate();
+            }
+            if (version < 4) {
+                migrateToMoveLog(conn);
+            }
+            if (version < 5) {
+                conn.createQuery("CREATE INDEX `GameArchiveByFinished` ON `GameArchive` (`finishedAt`)").executeUpdate();
+            }
+            if (version < VERSION) {
+                conn.createQuery("PRAGMA user_version = " + VERSION).executeUpdate();
+                logger.info("Migrated game.db from schema version " + version + " to " + VERSION);
+            }
+            conn.commit();
+        }
+        enableIncrementalVacuum(db);
+    }
+
+    /**
+     * The auto vacuum mode of an existing file only changes with a full VACUUM,
+     * which cannot run inside a transaction. Done once, later starts see mode 2.
+     */
+    private static void enableIncrementalVacuum(Sql2o db) {
+        try (Connection conn = db.open()) {
+            int mode;
+            try (Query autoVacuum = conn.createQuery("PRAGMA auto_vacuum")) {
+                mode = autoVacuum.executeScalar(Integer.class);
+            }
+            if (mode != INCREMENTAL_VACUUM) {
+                conn.createQuery("PRAGMA auto_vacuum = " + INCREMENTAL_VACUUM).executeUpdate();
+                conn.createQuery("VACUUM").executeUpdate();
+                logger.info("Switched game.db to incremental vacuum");
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Version 1
+    //-----------------------------------------------------------------------------//
+
+    private static void migrateToIntegerSchema(Connection conn) {
+        boolean legacy = tableExists(conn, "GameStates");
+        if (legacy) {
+            for (String table: LEGACY_TABLES) {
+                conn.createQuery("CREATE TABLE IF NOT EXISTS `" + table + "` ( `gameId` TEXT NOT NULL )").executeUpdate();
+                conn.createQuery("ALTER TABLE `" + table + "` RENAME TO `" + table + "_v0`").executeUpdate();
+            }
+        }
+        conn.createQuery("CREATE TABLE `PlayerInfos` ( `gameId` TEXT NOT NULL, `pieceType` INTEGER NOT NULL, " +
+                "PRIMARY KEY (`gameId`, `pieceType`) ) WITHOUT ROWID").executeUpdate();
+        conn.createQuery("CREATE TABLE `GameStates` ( `gameId` TEXT NOT NULL PRIMARY KEY, " +
+                "`state` INTEGER NOT NULL, `position` INTEGER NOT NULL ) WITHOUT ROWID").executeUpdate();
+        conn.createQuery("CREATE TABLE `GameRecord` ( `gameId` TEXT NOT NULL, " +
+                "`moveRecord` INTEGER NOT NULL )").executeUpdate();
+        conn.createQuery("CREATE INDEX `GameRecordByGame` ON `GameRecord` (`gameId`, `moveRecord`)").executeUpdate();
+        if (legacy) {
+            copyLegacyGames(conn);
+            for (String table: LEGACY_TABLES) {
+                conn.createQuery("DROP TABLE `" + table + "_v0`").executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Fold the piece rows of every game into its packed position and re-encode
+     * states, piece types and records as integers. Games without all four
+     * pieces cannot be played and are dropped.
+     */
+    private static void copyLegacyGames(Connection conn) {
+        // Queries are closed as soon as they are done with, SQLite refuses to
+        // drop the old tables while one of their statements is still open
+        Map<String, Integer> positions = new HashMap<>();
+        Map<String, Integer> pieceCounts = new HashMap<>();
+        try (Query selectPieces = conn.createQuery("SELECT * FROM PieceInfos_v0");
+             LazyTable pieces = selectPieces.executeAndFetchTableLazy()) {
+            for (Row row: pieces.rows()) {
+                String gameId = row.getString("gameId");
+                int cell = Bitboard.cellAt(row.getInteger("x"), row.getInteger("y"));
+                int position = positions.getOrDefault(gameId, 0);
+                if (Bitboard.pieceCode(row.getString("pieceType")) == Bitboard.HARE) {
+                    position = Bitboard.position(cell, Bitboard.houndMask(position));
+                } else {
+                    position |= 1 << cell;
+                }
+                positions.put(gameId, position);
+                pieceCounts.merge(gameId, 1, Integer::sum);
+            }
+        }
+        try (Query insertState = conn.createQuery("INSERT OR IGNORE INTO GameStates (`gameId`, `state`, `position`) " +
+                "VALUES (:gameId, :state, :position)")) {
+            try (Query selectStates = conn.createQuery("SELECT * FROM GameStates_v0");
+                 LazyTable states = selectStates.executeAndFetchTableLazy()) {
+                for (Row row: states.rows()) {
+                    String gameId = row.getString("gameId");
+                    if (pieceCounts.getOrDefault(gameId, 0) != 4) {
+                        continue;
+                    }
+                    insertState.addParameter("gameId", gameId)
+                            .addParameter("state", GameCodes.stateCode(row.getString("state")))
+                            .addParameter("position", positions.get(gameId))
+                            .addToBatch();
+                }
+            }
+            insertState.executeBatch();
+        }
+        try (Query insertPlayers = conn.createQuery("INSERT OR IGNORE INTO PlayerInfos (`gameId`, `pieceType`) " +
+                "SELECT p.gameId, CASE p.pieceType WHEN 'HARE' THEN " + Bitboard.HARE + " ELSE " + Bitboard.HOUND + " END " +
+                "FROM PlayerInfos_v0 p JOIN GameStates g ON g.gameId = p.gameId")) {
+            insertPlayers.executeUpdate();
+        }
+        try (Query insertRecord = conn.createQuery("INSERT INTO GameRecord (`gameId`, `moveRecord`) " +
+                "VALUES (:gameId, :moveRecord)")) {
+            try (Query selectRecords = conn.createQuery("SELECT r.* FROM GameRecord_v0 r " +
+                    "JOIN GameStates g ON g.gameId = r.gameId");
+                 LazyTable records = selectRecords.executeAndFetchTableLazy()) {
+                for (Row row: records.rows()) {
+                    insertRecord.addParameter("gameId", row.getString("gameId"))
+                            .addParameter("moveRecord", Bitboard.parsePieceStates(row.getString("moveRecord")))
+                            .addToBatch();
+                }
+            }
+            insertRecord.executeBatch();
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Version 2
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Games of older versions get an updatedAt of 0, so the first sweep of
+     * GameLifecycle archives or expires the ones that are finished or waiting.
+     * Finished games do not need their records for the stalling rule anymore.
+     */
+    private static void migrateToLifecycleSchema(Connection conn) {
+        conn.createQuery("ALTER TABLE `GameStates` ADD COLUMN `updatedAt` INTEGER NOT NULL DEFAULT 0").executeUpdate();
+        conn.createQuery("CREATE INDEX `GameStatesByState` ON `GameStates` (`state`, `updatedAt`)").executeUpdate();
+        conn.createQuery("CREATE TABLE `GameArchive` ( `gameId` TEXT NOT NULL PRIMARY KEY, " +
+                "`state` INTEGER NOT NULL, `position` INTEGER NOT NULL, `finishedAt` INTEGER NOT NULL ) " +
+                "WITHOUT ROWID").executeUpdate();
+        conn.createQuery("DELETE FROM GameRecord WHERE gameId IN " +
+                "(SELECT gameId FROM GameStates WHERE state >= " + GameCodes.FIRST_FINISHED + ")").executeUpdate();
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Version 4
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * The records of a game in play are its positions in the order they were
+     * inserted, move 0 the one the game started from. The hounds move first,
+     * so the state of every move follows from its number. Finished games
+     * lost their records with version 2 and start without moves.
+     */
+    private static void migrateToMoveLog(Connection conn) {
+        conn.createQuery("CREATE TABLE `GameMoves` ( `gameId` TEXT NOT NULL, `seq` INTEGER NOT NULL, " +
+                "`state` INTEGER NOT NULL, `position` INTEGER NOT NULL, `movedAt` INTEGER NOT NULL, " +
+                "PRIMARY KEY (`gameId`, `seq`) ) WITHOUT ROWID").executeUpdate();
+        conn.createQuery("ALTER TABLE `GameStates` ADD COLUMN `seq` INTEGER NOT NULL DEFAULT -1").executeUpdate();
+        int houndTurn = GameCodes.stateCode("TURN_HOUND");
+        int hareTurn = GameCodes.stateCode("TURN_HARE");
+        try (Query insertMove = conn.createQuery("INSERT INTO GameMoves " +
+                "(`gameId`, `seq`, `state`, `position`, `movedAt`) VALUES (:gameId, :seq, :state, :position, :movedAt)")) {
+            try (Query selectRecords = conn.createQuery("SELECT r.gameId, r.moveRecord, g.updatedAt " +
+                    "FROM GameRecord r JOIN GameStates g ON g.gameId = r.gameId " +
+                    "WHERE g.state < " + GameCodes.FIRST_FINISHED + " ORDER BY r.gameId, r.rowid");
+                 LazyTable records = selectRecords.executeAndFetchTableLazy()) {
+                String gameId = null;
+                int seq = 0;
+                for (Row row: records.rows()) {
+                    seq = row.getString("gameId").equals(gameId) ? seq + 1 : 0;
+                    gameId = row.getString("gameId");
+                    insertMove.addParameter("gameId", gameId)
+                            .addParameter("seq", seq)
+                            .addParameter("state", seq % 2 == 0 ? houndTurn : hareTurn)
+                            .addParameter("position", row.getInteger("moveRecord"))
+                            .addParameter("movedAt", row.getLong("updatedAt"))
+                            .addToBatch();
+                }
+            }
+            insertMove.executeBatch();
+        }
+        conn.createQuery("UPDATE GameStates SET seq = " +
+                "(SELECT MAX(seq) FROM GameMoves WHERE GameMoves.gameId = GameStates.gameId) " +
+                "WHERE gameId IN (SELECT gameId FROM GameMoves)").executeUpdate();
+        conn.createQuery("DROP TABLE `GameRecord`").executeUpdate();
+    }
+
+    private static boolean tableExists(Connection conn, String table) {
+        List<String> tables = conn.createQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = :name")
+                .addParameter("name", table)
+                .executeScalarList(String.class);
+        return !tables.isEmpty();
+    }
+}
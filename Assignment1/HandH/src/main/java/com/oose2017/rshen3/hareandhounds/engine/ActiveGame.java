@@ -0,0 +1,298 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import com.oose2017.rshen3.hareandhounds.model.GameEvent;
+import com.oose2017.rshen3.hareandhounds.model.GameState;
+import com.oose2017.rshen3.hareandhounds.model.GameUpdate;
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import com.oose2017.rshen3.hareandhounds.utils.JsonCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The authoritative in-memory copy of a game that is being played.
+ * All reads and move validation are served from this object, the database
+ * only receives the changes afterwards.
+ *
+ * Instances are not thread safe, callers must hold the lock of the game from
+ * GameLocks.
+ */
+public class ActiveGame {
+    /**
+     * The hare wins by stalling when the same position comes up for the third time
+     */
+    public static final int STALLING_REPETITIONS = 3;
+
+    private final String gameId;
+    private final List<String> playerPieceTypes;
+    /** The piece type played by ComputerPlayer, null if both players are human */
+    private String computerPieceType;
+    private final RepetitionTracker repetitions;
+    private boolean historyLoaded;
+    private int position;
+    private String state;
+    private long version;
+    /** The number of the last move in the move log of the GameStore, -1 before the game started */
+    private int seq = -1;
+    private long updatedAt;
+    /** The board encoded for boardJsonVersion, polled far more often than it changes */
+    private byte[] boardJson;
+    private long boardJsonVersion = -1;
+    private byte[] compact;
+    private long compactVersion = -1;
+    /** The SNAPSHOT frame for snapshotFrameVersion, sent to every new connection and spectator */
+    private String snapshotFrame;
+    private long snapshotFrameVersion = -1;
+    /** Read by the lifecycle sweep without holding the game */
+    private volatile long lastAccess;
+    /** Set by the write-behind thread without holding the game */
+    private volatile boolean stale;
+
+    /**
+     * A new game, its history is empty and therefore complete.
+     *
+     * @param position the packed position, see Bitboard
+     */
+    public ActiveGame(String gameId, String state, int position) {
+        this(gameId, state, position, true);
+    }
+
+    /**
+     * @param position the packed position, see Bitboard
+     * @param historyLoaded false if the recorded positions are still in the
+     *                      database and have to be loaded before the next move
+     */
+    public ActiveGame(String gameId, String state, int position, boolean historyLoaded) {
+        this.gameId = gameId;
+        this.state = state;
+        this.position = position;
+        this.playerPieceTypes = new ArrayList<>(2);
+        this.repetitions = new RepetitionTracker();
+        this.historyLoaded = historyLoaded;
+        this.updatedAt = System.currentTimeMillis();
+        this.version = updatedAt;
+        this.lastAccess = updatedAt;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+        changed();
+    }
+
+    /**
+     * The version is a clock of the changes, the time of the last change in
+     * epoch milliseconds, bumped by one for changes within the same
+     * millisecond. It is kept in the database as updatedAt and goes on from
+     * there when the game is loaded again, so a version handed out before an
+     * eviction or a restart is never newer than the game.
+     *
+     * @return a number that grows every time the game changes
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getPlayerCount() {
+        return playerPieceTypes.size();
+    }
+
+    public boolean hasPlayer(String pieceType) {
+        return playerPieceTypes.contains(pieceType);
+    }
+
+    public void addPlayer(String pieceType) {
+        playerPieceTypes.add(pieceType);
+        changed();
+    }
+
+    public void addComputerPlayer(String pieceType) {
+        computerPieceType = pieceType;
+        addPlayer(pieceType);
+    }
+
+    public String getComputerPieceType() {
+        return computerPieceType;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+        changed();
+    }
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public void setSeq(int seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * @return the number of the move being made
+     */
+    public int nextSeq() {
+        return ++seq;
+    }
+
+    private void changed() {
+        version = Math.max(version + 1, System.currentTimeMillis());
+        updatedAt = version;
+    }
+
+    /**
+     * @return when the game last changed, in epoch milliseconds, the same as the version
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Restore the time of the last change of a game loaded from the database,
+     * the version goes on from it.
+     */
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+        this.version = updatedAt;
+    }
+
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * A write of the game to the GameStore failed. The game in memory is
+     * ahead of the store and is loaded again from it, the writes still queued
+     * for this copy are dropped.
+     */
+    public void markStale() {
+        stale = true;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public boolean isHistoryLoaded() {
+        return historyLoaded;
+    }
+
+    /**
+     * Record the positions the game went through before it was loaded.
+     */
+    public void loadHistory(List<Integer> positions) {
+        for (int recorded: positions) {
+            repetitions.record(recorded);
+        }
+        historyLoaded = true;
+    }
+
+    /**
+     * @return whether reaching the position once more ends the game by stalling
+     * @throws IllegalStateException while the history is not loaded
+     */
+    public boolean isStalling(int position) {
+        if (!historyLoaded) {
+            throw new IllegalStateException("ActiveGame.isStalling: the history of " + gameId + " is not loaded");
+        }
+        return repetitions.wouldReach(position, STALLING_REPETITIONS);
+    }
+
+    public void recordPosition(int position) {
+        repetitions.record(position);
+    }
+
+    /**
+     * @return a copy of the recorded positions
+     * @throws IllegalStateException while the history is not loaded
+     */
+    public RepetitionTracker copyRepetitions() {
+        if (!historyLoaded) {
+            throw new IllegalStateException("ActiveGame.copyRepetitions: the history of " + gameId + " is not loaded");
+        }
+        return new RepetitionTracker(repetitions);
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Snapshots handed out to the callers of GameService
+    //-----------------------------------------------------------------------------//
+
+    public GameState snapshotState() {
+        GameState gameState = new GameState();
+        gameState.setGameId(gameId);
+        gameState.setState(state);
+        return gameState;
+    }
+
+    public List<PieceInfo> snapshotPieces() {
+        return Bitboard.toPieces(gameId, position);
+    }
+
+    /**
+     * @return snapshotPieces as JSON, encoded once per version
+     */
+    public byte[] getBoardJson() {
+        if (boardJsonVersion != version) {
+            boardJson = JsonCodec.toBytes(snapshotPieces());
+            boardJsonVersion = version;
+        }
+        return boardJson;
+    }
+
+    /**
+     * @return the state and the board in one line, e.g. TURN_HOUND HOUND011012HARE41,
+     *         see Bitboard.toPieceStates
+     */
+    public byte[] getCompact() {
+        if (compactVersion != version) {
+            compact = (state + " " + Bitboard.toPieceStates(position)).getBytes(StandardCharsets.US_ASCII);
+            compactVersion = version;
+        }
+        return compact;
+    }
+
+    /**
+     * @return the WebSocket SNAPSHOT frame of snapshotEvent, encoded once per version
+     */
+    public String getSnapshotFrame() {
+        if (snapshotFrameVersion != version) {
+            snapshotFrame = JsonCodec.toJson(GameUpdate.snapshot(snapshotEvent()));
+            snapshotFrameVersion = version;
+        }
+        return snapshotFrame;
+    }
+
+    /**
+     * @return a tag that changes with every change of the game, also across
+     *         loads, see getVersion
+     */
+    public String getETag() {
+        return Long.toString(version, 36);
+    }
+
+    public GameEvent snapshotEvent() {
+        GameEvent gameEvent = new GameEvent();
+        gameEvent.setGameId(gameId);
+        gameEvent.setVersion(version);
+        gameEvent.setState(state);
+        gameEvent.setBoard(snapshotPieces());
+        return gameEvent;
+    }
+}
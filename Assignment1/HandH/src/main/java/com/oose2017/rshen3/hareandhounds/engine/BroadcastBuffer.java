@@ -0,0 +1,87 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last frames of one game, shared by everybody watching it.
+ *
+ * Frames are numbered from 1 in the order they are published. A reader
+ * keeps the number of the next frame it wants and asks for it once the
+ * previous one is written, so a change is stored once however many read
+ * it. The buffer keeps a fixed number of frames, a reader that falls
+ * further behind finds its frame overwritten and continues from the latest
+ * snapshot instead.
+ *
+ * Frames are published while the game is held, so there is one writer at a
+ * time. Readers do not lock.
+ */
+public class BroadcastBuffer {
+
+    /**
+     * A published frame and its number
+     */
+    public static class Frame {
+        private final long sequence;
+        private final String text;
+
+        Frame(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private final AtomicReferenceArray<Frame> frames;
+
+    private volatile long published;
+
+    private volatile Frame snapshot;
+
+    public BroadcastBuffer(int size) {
+        this.frames = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @param frame the change
+     * @param snapshot the whole game after the change, for readers that fell behind
+     */
+    public void publish(String frame, String snapshot) {
+        long sequence = published + 1;
+        frames.set(slot(sequence), new Frame(sequence, frame));
+        this.snapshot = new Frame(sequence, snapshot);
+        published = sequence;
+    }
+
+    /**
+     * @return the number of the last frame published, 0 if there is none
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return the frame, null if it is not published yet or already overwritten
+     */
+    public Frame get(long sequence) {
+        Frame frame = frames.get(slot(sequence));
+        return frame != null && frame.sequence == sequence ? frame : null;
+    }
+
+    /**
+     * @return the snapshot after the latest frame, null if nothing was published
+     */
+    public Frame getSnapshot() {
+        return snapshot;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % frames.length());
+    }
+}
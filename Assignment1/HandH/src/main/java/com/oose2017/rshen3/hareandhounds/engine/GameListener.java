@@ -0,0 +1,23 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import com.oose2017.rshen3.hareandhounds.model.MovePiece;
+
+/**
+ * Subscriber to every change of every game. Listeners are called while the
+ * game is held, so they see the changes of one game in order and must not
+ * block.
+ */
+public interface GameListener {
+
+    /**
+     * @param game the changed game, only to be read during the call
+     * @param move the move that changed the game, null when a player joined
+     */
+    void gameChanged(ActiveGame game, MovePiece move);
+
+    /**
+     * Called when a game is loaded from the database, also while it is held.
+     */
+    default void gameLoaded(ActiveGame game) {
+    }
+}
@@ -0,0 +1,39 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks that serialize the requests of one game.
+ *
+ * A gameId always maps to the same stripe, so the lock also covers loading
+ * the game from the database and dropping it from the registry, not just one
+ * ActiveGame instance. Different games only wait for each other when they
+ * share a stripe, there is no lock over all games. Only one stripe is ever
+ * held at a time, so the stripes cannot deadlock.
+ */
+public class GameLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes the number of locks, rounded up to a power of two
+     */
+    public GameLocks(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public Lock lockFor(String gameId) {
+        int hash = gameId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+}
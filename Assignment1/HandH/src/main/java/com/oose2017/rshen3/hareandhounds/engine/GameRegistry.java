@@ -0,0 +1,52 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the games currently held in memory, keyed by gameId.
+ */
+public class GameRegistry {
+
+    private final ConcurrentMap<String, ActiveGame> games = new ConcurrentHashMap<>();
+
+    /**
+     * @return the game or null if it is not loaded
+     */
+    public ActiveGame get(String gameId) {
+        return games.get(gameId);
+    }
+
+    /**
+     * Register a game unless another thread already did so.
+     *
+     * @return the game that ended up in the registry
+     */
+    public ActiveGame putIfAbsent(ActiveGame game) {
+        ActiveGame existing = games.putIfAbsent(game.getGameId(), game);
+        return existing == null ? game : existing;
+    }
+
+    public ActiveGame remove(String gameId) {
+        return games.remove(gameId);
+    }
+
+    /**
+     * Remove the game only if it is still the registered instance.
+     */
+    public boolean remove(ActiveGame game) {
+        return games.remove(game.getGameId(), game);
+    }
+
+    /**
+     * @return a weakly consistent view of the loaded games
+     */
+    public Collection<ActiveGame> games() {
+        return games.values();
+    }
+
+    public int size() {
+        return games.size();
+    }
+}
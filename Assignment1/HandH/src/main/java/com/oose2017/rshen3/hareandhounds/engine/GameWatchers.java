@@ -0,0 +1,51 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parties waiting for a game to change. A watcher is notified once with the
+ * new version of the game and then removed, it has to watch again for the
+ * next change.
+ */
+public class GameWatchers {
+
+    public interface Watcher {
+        void changed(String gameId, long version);
+    }
+
+    private final ConcurrentMap<String, Set<Watcher>> watchers = new ConcurrentHashMap<>();
+
+    public void watch(String gameId, Watcher watcher) {
+        watchers.computeIfAbsent(gameId, id -> ConcurrentHashMap.newKeySet()).add(watcher);
+    }
+
+    public void unwatch(String gameId, Watcher watcher) {
+        watchers.computeIfPresent(gameId, (id, set) -> {
+            set.remove(watcher);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Hand the new version to everybody currently watching the game.
+     */
+    public void notifyChanged(String gameId, long version) {
+        Set<Watcher> waiting = watchers.remove(gameId);
+        if (waiting == null) {
+            return;
+        }
+        for (Watcher watcher: waiting) {
+            watcher.changed(gameId, version);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Set<Watcher> set: watchers.values()) {
+            size += set.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,107 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often each position occurred in a game, for the stalling rule.
+ *
+ * The packed position of Bitboard is the key itself, it identifies a board
+ * exactly in 15 bits, so no hashing of the pieces is needed and two boards
+ * can never be mistaken for each other. The counts are kept in an open
+ * addressing table over primitive ints, recording a move does not allocate.
+ *
+ * Besides the games, a search can push and pop positions of the line it is
+ * looking at with record and forget.
+ */
+public class RepetitionTracker {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    public RepetitionTracker() {
+        keys = new int[16];
+        counts = new int[16];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * A copy that can be handed to a search on another thread.
+     */
+    public RepetitionTracker(RepetitionTracker other) {
+        keys = other.keys.clone();
+        counts = other.counts.clone();
+        size = other.size;
+    }
+
+    public int count(int position) {
+        int slot = slot(keys, position);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * @return how often the position has occurred including this time
+     */
+    public int record(int position) {
+        int slot = slot(keys, position);
+        if (keys[slot] == EMPTY) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                slot = slot(keys, position);
+            }
+            keys[slot] = position;
+            size++;
+        }
+        return ++counts[slot];
+    }
+
+    /**
+     * Take back one occurrence of the position. The slot stays in the table
+     * with a zero count, so probing for other positions is not disturbed.
+     */
+    public void forget(int position) {
+        int slot = slot(keys, position);
+        if (keys[slot] != EMPTY && counts[slot] > 0) {
+            counts[slot]--;
+        }
+    }
+
+    /**
+     * @return whether one more occurrence of the position makes it the given repetition
+     */
+    public boolean wouldReach(int position, int occurrences) {
+        return count(position) + 1 >= occurrences;
+    }
+
+    /**
+     * @return the number of distinct positions seen
+     */
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int slot(int[] keys, int position) {
+        int mask = keys.length - 1;
+        int slot = (position * 0x9E3779B1) >>> 16 & mask;
+        while (keys[slot] != EMPTY && keys[slot] != position) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,181 @@
+package com.oose2017.rshen3.hareandhounds.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Named counters, timers and gauges with labels, rendered in the Prometheus
+ * text format by scrape().
+ *
+ * Looking a metric up builds its label string, so hot paths keep the handle
+ * they got instead of asking the registry on every call. Recording on a
+ * handle is a LongAdder or an atomic increment and never locks.
+ *
+ * Labels are passed as name, value pairs:
+ * <pre>
+ *   registry.counter("http_requests_total", "Requests served", "route", route, "status", "200").increment();
+ * </pre>
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+        private final String text;
+
+        Type(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Family {
+        private final Type type;
+        private final String help;
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(Type type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the registry the server reports on /metrics
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, Type.COUNTER, help)
+                .metrics.computeIfAbsent(labelText(labels), key -> new LongAdder());
+    }
+
+    /**
+     * Register a counter that is kept elsewhere and read when the metrics are
+     * scraped, e.g. the counts of ConnectionPool.
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, Type.COUNTER, help).metrics.put(labelText(labels), value);
+    }
+
+    public Timer timer(String name, String help, String... labels) {
+        return (Timer) family(name, Type.SUMMARY, help)
+                .metrics.computeIfAbsent(labelText(labels), key -> new Timer());
+    }
+
+    /**
+     * Register a value that is read when the metrics are scraped. A second
+     * registration with the same labels replaces the first.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, Type.GAUGE, help).metrics.put(labelText(labels), value);
+    }
+
+    private Family family(String name, Type type, String help) {
+        Family family = families.computeIfAbsent(name, key -> new Family(type, help));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already a " + family.type.text);
+        }
+        return family;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Prometheus text format
+    //-----------------------------------------------------------------------------//
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry: families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.text).append('\n');
+            for (Map.Entry<String, Object> metric: family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                switch (family.type) {
+                    case COUNTER:
+                        if (metric.getValue() instanceof LongAdder) {
+                            sample(out, name, labels, ((LongAdder) metric.getValue()).sum());
+                        } else {
+                            sample(out, name, labels, ((DoubleSupplier) metric.getValue()).getAsDouble());
+                        }
+                        break;
+                    case GAUGE:
+                        sample(out, name, labels, ((DoubleSupplier) metric.getValue()).getAsDouble());
+                        break;
+                    case SUMMARY:
+                        summary(out, name, labels, (Timer) metric.getValue());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Timers are exported in seconds, as Prometheus expects.
+     */
+    private static void summary(StringBuilder out, String name, String labels, Timer timer) {
+        LatencyHistogram histogram = timer.getHistogram();
+        for (double quantile: QUANTILES) {
+            String quantileLabel = "quantile=\"" + quantile + "\"";
+            String withQuantile = labels.isEmpty()
+                    ? "{" + quantileLabel + "}"
+                    : labels.substring(0, labels.length() - 1) + "," + quantileLabel + "}";
+            sample(out, name, withQuantile, histogram.percentile(quantile) / 1e6);
+        }
+        sample(out, name + "_sum", labels, timer.getTotalNanos() / 1e9);
+        sample(out, name + "_count", labels, histogram.count());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private static String labelText(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels are name, value pairs");
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    text.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(ch);
+                }
+            }
+            text.append('"');
+        }
+        return text.append('}').toString();
+    }
+}
@@ -0,0 +1,32 @@
+package com.oose2017.rshen3.hareandhounds.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Durations of one kind of operation, exported as a summary with the 50th,
+ * 99th and 99.9th percentile.
+ */
+public class Timer {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder totalNanos = new LongAdder();
+
+    public void record(long nanos) {
+        histogram.record(nanos / 1000);
+        totalNanos.add(nanos);
+    }
+
+    /**
+     * Record the time since startNanos, a value of System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+}
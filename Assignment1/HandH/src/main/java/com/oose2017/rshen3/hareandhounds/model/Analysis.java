@@ -0,0 +1,62 @@
+package com.oose2017.rshen3.hareandhounds.model;
+
+import java.util.List;
+
+/**
+ * The legal moves of the side to move with their outcomes, and the predicted
+ * outcome of the game. A finished game has no side to move and no moves.
+ */
+public class Analysis {
+    private String state;
+    private String sideToMove;
+    private String winner;
+    private Integer plies;
+    private List<MoveHint> moves;
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String getSideToMove() {
+        return sideToMove;
+    }
+
+    public void setSideToMove(String sideToMove) {
+        this.sideToMove = sideToMove;
+    }
+
+    /**
+     * @return HARE or HOUND, null if the outcome is not known
+     */
+    public String getWinner() {
+        return winner;
+    }
+
+    public void setWinner(String winner) {
+        this.winner = winner;
+    }
+
+    /**
+     * @return the plies until the game ends under perfect play, null if it
+     *         only ends by the stalling rule, is over or is not known
+     */
+    public Integer getPlies() {
+        return plies;
+    }
+
+    public void setPlies(Integer plies) {
+        this.plies = plies;
+    }
+
+    public List<MoveHint> getMoves() {
+        return moves;
+    }
+
+    public void setMoves(List<MoveHint> moves) {
+        this.moves = moves;
+    }
+}
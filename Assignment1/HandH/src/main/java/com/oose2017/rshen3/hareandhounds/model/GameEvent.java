@@ -0,0 +1,45 @@
+package com.oose2017.rshen3.hareandhounds.model;
+
+import java.util.List;
+
+/**
+ * A consistent view of a game at one version, pushed to waiting clients.
+ */
+public class GameEvent {
+    private String gameId;
+    private long version;
+    private String state;
+    private List<PieceInfo> board;
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public List<PieceInfo> getBoard() {
+        return board;
+    }
+
+    public void setBoard(List<PieceInfo> board) {
+        this.board = board;
+    }
+}
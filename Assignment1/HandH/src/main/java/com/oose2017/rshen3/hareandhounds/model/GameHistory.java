@@ -0,0 +1,45 @@
+package com.oose2017.rshen3.hareandhounds.model;
+
+import java.util.List;
+
+/**
+ * A finished game with all its moves, one line of the archive export.
+ */
+public class GameHistory {
+    private String gameId;
+    private String state;
+    private long finishedAt;
+    private List<MoveRecord> moves;
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public void setGameId(String gameId) {
+        this.gameId = gameId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public List<MoveRecord> getMoves() {
+        return moves;
+    }
+
+    public void setMoves(List<MoveRecord> moves) {
+        this.moves = moves;
+    }
+}
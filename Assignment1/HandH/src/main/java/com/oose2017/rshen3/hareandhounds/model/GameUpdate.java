@@ -0,0 +1,70 @@
+package com.oose2017.rshen3.hareandhounds.model;
+
+import java.util.List;
+
+/**
+ * Frame pushed over the game WebSocket. A snapshot carries the whole board,
+ * a move only carries {fromX, fromY, toX, toY} and the resulting state.
+ */
+public class GameUpdate {
+    public static final String SNAPSHOT = "SNAPSHOT";
+    public static final String MOVE = "MOVE";
+    public static final String ERROR = "ERROR";
+
+    private String type;
+    private Long version;
+    private String state;
+    private List<PieceInfo> board;
+    private int[] move;
+    private String error;
+
+    public static GameUpdate snapshot(GameEvent gameEvent) {
+        GameUpdate gameUpdate = new GameUpdate();
+        gameUpdate.type = SNAPSHOT;
+        gameUpdate.version = gameEvent.getVersion();
+        gameUpdate.state = gameEvent.getState();
+        gameUpdate.board = gameEvent.getBoard();
+        return gameUpdate;
+    }
+
+    public static GameUpdate move(long version, String state, MovePiece movePiece) {
+        GameUpdate gameUpdate = new GameUpdate();
+        gameUpdate.type = MOVE;
+        gameUpdate.version = version;
+        gameUpdate.state = state;
+        gameUpdate.move = new int[] {movePiece.getFromX(), movePiece.getFromY(),
+                                     movePiece.getToX(), movePiece.getToY()};
+        return gameUpdate;
+    }
+
+    public static GameUpdate error(String error) {
+        GameUpdate gameUpdate = new GameUpdate();
+        gameUpdate.type = ERROR;
+        gameUpdate.error = error;
+        return gameUpdate;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public List<PieceInfo> getBoard() {
+        return board;
+    }
+
+    public int[] getMove() {
+        return move;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,77 @@
+package com.oose2017.rshen3.hareandhounds.model;
+
+/**
+ * One legal move of an Analysis and where it leads under perfect play.
+ */
+public class MoveHint {
+    private int fromX;
+    private int fromY;
+    private int toX;
+    private int toY;
+    private String winner;
+    private Integer plies;
+    private boolean best;
+
+    public int getFromX() {
+        return fromX;
+    }
+
+    public void setFromX(int fromX) {
+        this.fromX = fromX;
+    }
+
+    public int getFromY() {
+        return fromY;
+    }
+
+    public void setFromY(int fromY) {
+        this.fromY = fromY;
+    }
+
+    public int getToX() {
+        return toX;
+    }
+
+    public void setToX(int toX) {
+        this.toX = toX;
+    }
+
+    public int getToY() {
+        return toY;
+    }
+
+    public void setToY(int toY) {
+        this.toY = toY;
+    }
+
+    /**
+     * @return HARE or HOUND, null if the outcome is not known
+     */
+    public String getWinner() {
+        return winner;
+    }
+
+    public void setWinner(String winner) {
+        this.winner = winner;
+    }
+
+    /**
+     * @return the plies until the game ends after this move, null if it only
+     *         ends by the stalling rule or is not known
+     */
+    public Integer getPlies() {
+        return plies;
+    }
+
+    public void setPlies(Integer plies) {
+        this.plies = plies;
+    }
+
+    public boolean isBest() {
+        return best;
+    }
+
+    public void setBest(boolean best) {
+        this.best = best;
+    }
+}
@@ -0,0 +1,90 @@
+package com.oose2017.rshen3.hareandhounds.model;
+
+/**
+ * One move of a game as replayed. Move 0 is the starting board and has no
+ * piece, from or to, nor has the move of a computer player that conceded.
+ */
+public class MoveRecord {
+    private int seq;
+    private String pieceType;
+    private Integer fromX;
+    private Integer fromY;
+    private Integer toX;
+    private Integer toY;
+    private String state;
+    /** The board after the move in compact form, e.g. HOUND011012HARE41 */
+    private String board;
+    private long movedAt;
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public void setSeq(int seq) {
+        this.seq = seq;
+    }
+
+    public String getPieceType() {
+        return pieceType;
+    }
+
+    public void setPieceType(String pieceType) {
+        this.pieceType = pieceType;
+    }
+
+    public Integer getFromX() {
+        return fromX;
+    }
+
+    public void setFromX(Integer fromX) {
+        this.fromX = fromX;
+    }
+
+    public Integer getFromY() {
+        return fromY;
+    }
+
+    public void setFromY(Integer fromY) {
+        this.fromY = fromY;
+    }
+
+    public Integer getToX() {
+        return toX;
+    }
+
+    public void setToX(Integer toX) {
+        this.toX = toX;
+    }
+
+    public Integer getToY() {
+        return toY;
+    }
+
+    public void setToY(Integer toY) {
+        this.toY = toY;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String getBoard() {
+        return board;
+    }
+
+    public void setBoard(String board) {
+        this.board = board;
+    }
+
+    public long getMovedAt() {
+        return movedAt;
+    }
+
+    public void setMovedAt(long movedAt) {
+        this.movedAt = movedAt;
+    }
+}
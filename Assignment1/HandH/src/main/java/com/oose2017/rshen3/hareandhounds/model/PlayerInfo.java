@@ -7,6 +7,8 @@ public class PlayerInfo {
     private String gameId;
     private String playerId;
     private String pieceType;
+    /** "AI" to play against ComputerPlayer, only read when creating a game */
+    private String opponent;
 
     public String getGameId() {
         return gameId;
@@ -31,4 +33,12 @@ public class PlayerInfo {
     public void setPieceType(String pieceType) {
         this.pieceType = pieceType;
     }
+
+    public String getOpponent() {
+        return opponent;
+    }
+
+    public void setOpponent(String opponent) {
+        this.opponent = opponent;
+    }
 }
@@ -0,0 +1,298 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import com.oose2017.rshen3.hareandhounds.db.GameCodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The archived games of LogGameStore, appended to segment files next to the
+ * log and never snapshotted. A segment holds the games archived on one day
+ * and is named after it, game.log.archive.17456 for instance.
+ *
+ * Only the index of the archived games, the segment and offset of each
+ * gameId, stays on the heap. A game is read back from its segment when it is
+ * loaded or exported. Segments are never rewritten, the retention deletes a
+ * whole segment once every game in it finished before the cutoff.
+ *
+ * A record is framed like one of the log, the length and CRC32 of the payload
+ * before it, and a record cut short by a crash is cut off when the segments
+ * are indexed at startup. A game the log archives again, because the record
+ * of its archive was lost in a crash, is found in the later segment.
+ */
+class ArchiveLog implements Closeable {
+
+    private static final String SEGMENT_SUFFIX = ".archive.";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveLog.class);
+
+    private static class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private long lastFinishedAt = Long.MIN_VALUE;
+
+        Segment(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+
+        Location(Segment segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private final Path logPath;
+
+    /** Oldest first, the last one is appended to */
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+
+    /** In the order of the gameIds, for the pages of archivedGames */
+    private final NavigableMap<String, Location> index = new TreeMap<>();
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Index the segments next to the log.
+     */
+    ArchiveLog(Path logPath) throws IOException {
+        this.logPath = logPath;
+        String prefix = logPath.getFileName() + SEGMENT_SUFFIX;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(logPath.toAbsolutePath().getParent(),
+                prefix + "*")) {
+            for (Path file: files) {
+                try {
+                    long day = Long.parseLong(file.getFileName().toString().substring(prefix.length()));
+                    segments.put(day, new Segment(file));
+                } catch (NumberFormatException ex) {
+                    logger.info("ArchiveLog: " + file + " is not a segment of the archive");
+                }
+            }
+        }
+        for (Segment segment: segments.values()) {
+            scan(segment);
+        }
+        if (!index.isEmpty()) {
+            logger.info("ArchiveLog: indexed " + index.size() + " archived games in " + segments.size() + " segments");
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Writes
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Append the games to the segment of the day and force it to disk, so
+     * the games can be dropped from the log once this returns.
+     */
+    synchronized void append(List<ArchivedGame> games, long now) throws IOException {
+        long day = now / DAY_MILLIS;
+        Segment segment = segments.get(day);
+        if (segment == null) {
+            segment = new Segment(logPath.resolveSibling(logPath.getFileName() + SEGMENT_SUFFIX + day));
+            segments.put(day, segment);
+        }
+        long offset = segment.channel.size();
+        for (ArchivedGame game: games) {
+            ByteBuffer record = encode(game);
+            int length = record.remaining();
+            write(segment.channel, record, offset);
+            index.put(game.getGameId(), new Location(segment, offset));
+            segment.lastFinishedAt = Math.max(segment.lastFinishedAt, game.getFinishedAt());
+            offset += length;
+        }
+        segment.channel.force(false);
+    }
+
+    /**
+     * Delete the oldest segments whose games all finished before the cutoff,
+     * until limit games are deleted or the next segment has a later one.
+     *
+     * @return the number of games deleted
+     */
+    synchronized int purge(long cutoff, int limit) throws IOException {
+        int purged = 0;
+        while (purged < limit && !segments.isEmpty() && segments.firstEntry().getValue().lastFinishedAt < cutoff) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            for (Iterator<Location> locations = index.values().iterator(); locations.hasNext(); ) {
+                if (locations.next().segment == segment) {
+                    locations.remove();
+                    purged++;
+                }
+            }
+            segment.channel.close();
+            Files.delete(segment.path);
+        }
+        return purged;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Reads
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * @return the archived game, null if there is no such game
+     */
+    synchronized ArchivedGame read(String gameId) throws IOException {
+        Location location = index.get(gameId);
+        return location == null ? null : read(location);
+    }
+
+    synchronized List<ArchivedGame> page(String after, int limit) throws IOException {
+        List<ArchivedGame> page = new ArrayList<>(limit);
+        for (Location location: index.tailMap(after, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(read(location));
+        }
+        return page;
+    }
+
+    /**
+     * @return the number of archived games
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    private ArchivedGame read(Location location) throws IOException {
+        FileChannel channel = location.segment.channel;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(channel, header, location.offset);
+        header.flip();
+        ByteBuffer payload = ByteBuffer.allocate(header.getInt());
+        readFully(channel, payload, location.offset + RECORD_HEADER_BYTES);
+        payload.flip();
+        return decode(payload);
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Records
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * The payload is the gameId, the state, position and time the game
+     * finished in and its moves. The seq of a move is its index and is not
+     * written.
+     */
+    private ByteBuffer encode(ArchivedGame game) {
+        byte[] id = game.getGameId().getBytes(StandardCharsets.UTF_8);
+        int length = 2 + id.length + 1 + 4 + 8 + 4 + game.getMoves().size() * (1 + 4 + 8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        record.position(RECORD_HEADER_BYTES);
+        record.putShort((short) id.length).put(id)
+                .put((byte) GameCodes.stateCode(game.getState()))
+                .putInt(game.getPosition())
+                .putLong(game.getFinishedAt())
+                .putInt(game.getMoves().size());
+        for (StoredMove move: game.getMoves()) {
+            record.put((byte) GameCodes.stateCode(move.getState()))
+                    .putInt(move.getPosition())
+                    .putLong(move.getMovedAt());
+        }
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_BYTES, length);
+        record.putInt(0, length).putInt(4, (int) crc.getValue());
+        record.rewind();
+        return record;
+    }
+
+    private static ArchivedGame decode(ByteBuffer payload) {
+        byte[] id = new byte[payload.getShort()];
+        payload.get(id);
+        String gameId = new String(id, StandardCharsets.UTF_8);
+        String state = GameCodes.state(payload.get());
+        int position = payload.getInt();
+        long finishedAt = payload.getLong();
+        int count = payload.getInt();
+        List<StoredMove> moves = new ArrayList<>(count);
+        for (int seq = 0; seq < count; seq++) {
+            moves.add(new StoredMove(seq, GameCodes.state(payload.get()), payload.getInt(), payload.getLong()));
+        }
+        return new ArchivedGame(gameId, state, position, finishedAt, moves);
+    }
+
+    /**
+     * Index every complete record of the segment and cut off a torn tail,
+     * so new records follow the last good one.
+     */
+    private void scan(Segment segment) throws IOException {
+        long size = segment.channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (offset + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(segment.channel, header, offset);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || offset + RECORD_HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, offset + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            payload.flip();
+            ArchivedGame game = decode(payload);
+            index.put(game.getGameId(), new Location(segment, offset));
+            segment.lastFinishedAt = Math.max(segment.lastFinishedAt, game.getFinishedAt());
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        if (offset < size) {
+            logger.info("ArchiveLog: dropped " + (size - offset) + " bytes of a torn record at the end of " + segment.path);
+            segment.channel.truncate(offset);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("ArchiveLog: unexpected end of a segment at " + position);
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment: segments.values()) {
+            segment.channel.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import java.util.List;
+
+/**
+ * A finished game that was archived, with its moves, as exported.
+ */
+public class ArchivedGame {
+    private final String gameId;
+    private final String state;
+    private final int position;
+    private final long finishedAt;
+    private final List<StoredMove> moves;
+
+    public ArchivedGame(String gameId, String state, int position, long finishedAt, List<StoredMove> moves) {
+        this.gameId = gameId;
+        this.state = state;
+        this.position = position;
+        this.finishedAt = finishedAt;
+        this.moves = moves;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    /**
+     * @return the state the game ended in
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return the packed position the game ended in
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @return the moves in order, empty for games finished before the store kept them
+     */
+    public List<StoredMove> getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return the game as SqliteGameStore loads an archived one, with both
+     *         players and without the seq of its moves
+     */
+    StoredGame toStoredGame() {
+        StoredGame game = new StoredGame(gameId, state, position, finishedAt);
+        game.addPlayer("HOUND");
+        game.addPlayer("HARE");
+        return game;
+    }
+}
@@ -0,0 +1,114 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Where GameService keeps its games. The writes are called on the
+ * write-behind thread in the order the changes were made, each write is
+ * atomic. The reads are called with the game held, for games that are not
+ * in memory.
+ *
+ * Every game that has started has a move log, the StoredMoves numbered from
+ * 0 without gaps. The state, position and seq of a loaded game are those of
+ * its last move, a store may keep them as a snapshot that is only brought up
+ * to date every few moves and add the moves after it when it loads the game.
+ * The moves stay after the game is finished, for replays, until the
+ * archived game is purged.
+ */
+public interface GameStore extends Closeable {
+
+    /**
+     * Store a new game. A game that has started already, against the
+     * computer or through matchmaking, has seq 0 and its position is move 0.
+     */
+    void createGame(StoredGame game);
+
+    /**
+     * The second player joined, the position is move 0 of the game.
+     *
+     * @throws StoreException if the game is not in the store, e.g. expired
+     */
+    void joinGame(String gameId, String pieceType, String state, int position, long updatedAt);
+
+    /**
+     * Append a move to the log of the game.
+     *
+     * @param seq the seq of the last move plus one
+     */
+    void applyMove(String gameId, int seq, String state, int position, long updatedAt);
+
+    /**
+     * @return the game, archived or not, null if there is no such game
+     */
+    StoredGame load(String gameId);
+
+    /**
+     * @return the positions of the moves of a game in play, the ones the
+     *         stalling rule counts
+     */
+    List<Integer> history(String gameId);
+
+    /**
+     * @return the move log of the game in order, empty if the game has not
+     *         started or was finished before the store kept its moves
+     */
+    List<StoredMove> moves(String gameId);
+
+    /**
+     * One page of the archived games in the order of their gameIds, for an
+     * export that goes through all of them a page at a time and holds
+     * nothing between the pages.
+     *
+     * @param after the last gameId of the previous page, "" for the first page
+     * @return at most limit games, fewer only on the last page
+     */
+    List<ArchivedGame> archivedGames(String after, int limit);
+
+    /**
+     * Delete the games still waiting for a second player since before the cutoff.
+     *
+     * @return the number of games deleted
+     */
+    int expireWaiting(long cutoff);
+
+    /**
+     * End the games in play whose last change was before the cutoff with one
+     * more move, in the state ABANDONED and at the same position. They are
+     * finished from then on and archived like any other finished game.
+     *
+     * @param now the time of the move that ends them
+     * @return the number of games ended
+     */
+    int abandonPlaying(long cutoff, long now);
+
+    /**
+     * Move the games finished before the cutoff out of the way of the games
+     * being played. They can still be loaded.
+     *
+     * @return the number of games archived
+     */
+    int archiveFinished(long cutoff);
+
+    /**
+     * Delete archived games finished before the cutoff, with their moves.
+     * A bounded number per call, the rest are left to the next one.
+     *
+     * @param limit the most games deleted
+     * @return the number of games deleted
+     */
+    int purgeArchived(long cutoff, int limit);
+
+    /**
+     * Hand back some of the space freed by the other calls, a bounded amount
+     * per call.
+     *
+     * @return what was freed, in the unit of the backend
+     */
+    default long compact() {
+        return 0;
+    }
+
+    @Override
+    void close();
+}
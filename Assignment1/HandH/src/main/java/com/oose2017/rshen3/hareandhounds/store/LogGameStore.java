@@ -0,0 +1,523 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import com.oose2017.rshen3.hareandhounds.db.GameCodes;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Appends every write as one record to a log file and keeps the games in a
+ * MemoryGameStore, which is rebuilt from the log at startup.
+ *
+ * Records are collected in a buffer and written to the file when it is
+ * full or every syncMillis, when the file is also forced to disk. A crash
+ * loses at most the changes of the last syncMillis, in exchange a change
+ * costs no system call at all. A record is
+ *
+ * <pre>
+ *   int      length of the payload
+ *   int      CRC32 of the payload
+ *   payload  type, gameId and the arguments of the write, a move with its seq
+ * </pre>
+ *
+ * and a record cut short by a crash fails its length or checksum and is
+ * dropped together with everything after it.
+ *
+ * Once the log holds snapshotRecords records every game with its moves is
+ * written to the snapshot file next to it, and the log starts over. Both
+ * files carry a generation that goes up with every snapshot, so a log that
+ * was folded into the snapshot just before a crash is recognized and not
+ * replayed a second time. At startup the games come from the snapshot as
+ * they are, finished ones included, and only the records written since,
+ * the games played meanwhile, are replayed.
+ *
+ * Archived games leave the log and the snapshot for the ArchiveLog, whose
+ * segments are never snapshotted. They are appended there before the
+ * record of their archive is logged, replaying the record drops them again.
+ */
+public class LogGameStore implements GameStore {
+
+    private static final int MAGIC = 0x48484c47;
+    private static final int SNAPSHOT_MAGIC = 0x48485350;
+    private static final int FORMAT = 3;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_PAYLOAD = 1024;
+
+    private static final byte CREATE = 1;
+    private static final byte JOIN = 2;
+    private static final byte MOVE = 3;
+    private static final byte EXPIRE = 4;
+    private static final byte ARCHIVE = 5;
+
+    private static final byte NO_PIECE = -1;
+
+    private static final Logger logger = LoggerFactory.getLogger(LogGameStore.class);
+
+    private final MemoryGameStore games = new MemoryGameStore();
+
+    private final ArchiveLog archive;
+
+    private final Path snapshotPath;
+    private final FileChannel channel;
+    private final long snapshotRecords;
+
+    private final ByteBuffer buffer;
+    private final ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD);
+    private final CRC32 crc = new CRC32();
+
+    /** Changed with the store held */
+    private long generation;
+    private long records;
+
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "game-log-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param bufferBytes the records collected before they are written
+     * @param syncMillis how often the buffer is written and the file forced to disk
+     * @param snapshotRecords the records in the log that make the next sync take a snapshot
+     */
+    public LogGameStore(Path path, int bufferBytes, long syncMillis, long snapshotRecords) {
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, RECORD_HEADER_BYTES + MAX_PAYLOAD));
+        this.snapshotPath = path.resolveSibling(path.getFileName() + ".snapshot");
+        this.snapshotRecords = snapshotRecords;
+        try {
+            this.archive = new ArchiveLog(path);
+            if (Files.exists(snapshotPath)) {
+                restore();
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (channel.size() < HEADER_BYTES) {
+                // A new log, or one that was cut short right after a snapshot
+                startLog();
+            } else {
+                replay(path);
+            }
+            channel.position(channel.size());
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore: Failed to open " + path, ex);
+        }
+        syncer.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Writes
+    //-----------------------------------------------------------------------------//
+
+    @Override
+    public synchronized void createGame(StoredGame game) {
+        games.createGame(game);
+        begin(CREATE, game.getGameId());
+        payload.put((byte) GameCodes.stateCode(game.getState()))
+                .putInt(game.getPosition())
+                .putLong(game.getUpdatedAt())
+                .putInt(game.getSeq())
+                .put((byte) game.getPlayers().size());
+        for (String pieceType: game.getPlayers()) {
+            payload.put((byte) Bitboard.pieceCode(pieceType));
+        }
+        payload.put(game.getComputerPieceType() == null ? NO_PIECE
+                : (byte) Bitboard.pieceCode(game.getComputerPieceType()));
+        append();
+    }
+
+    @Override
+    public synchronized void joinGame(String gameId, String pieceType, String state, int position, long updatedAt) {
+        games.joinGame(gameId, pieceType, state, position, updatedAt);
+        begin(JOIN, gameId);
+        payload.put((byte) Bitboard.pieceCode(pieceType))
+                .put((byte) GameCodes.stateCode(state))
+                .putInt(position)
+                .putLong(updatedAt);
+        append();
+    }
+
+    @Override
+    public synchronized void applyMove(String gameId, int seq, String state, int position, long updatedAt) {
+        games.applyMove(gameId, seq, state, position, updatedAt);
+        begin(MOVE, gameId);
+        payload.putInt(seq)
+                .put((byte) GameCodes.stateCode(state))
+                .putInt(position)
+                .putLong(updatedAt);
+        append();
+    }
+
+    /**
+     * Logged as the cutoff, replaying it against the same games deletes the same ones.
+     */
+    @Override
+    public synchronized int expireWaiting(long cutoff) {
+        int expired = games.expireWaiting(cutoff);
+        if (expired > 0) {
+            begin(EXPIRE, "");
+            payload.putLong(cutoff);
+            append();
+        }
+        return expired;
+    }
+
+    /**
+     * Logged as the moves that end the games, a replay needs nothing else.
+     */
+    @Override
+    public synchronized int abandonPlaying(long cutoff, long now) {
+        List<StoredGame> idle = games.playingBefore(cutoff);
+        for (StoredGame game: idle) {
+            applyMove(game.getGameId(), game.getSeq() + 1, "ABANDONED", game.getPosition(), now);
+        }
+        return idle.size();
+    }
+
+    /**
+     * The games are in the ArchiveLog before they are dropped, a load in
+     * between finds them in one or the other. Logged as the cutoff like an
+     * expire.
+     */
+    @Override
+    public synchronized int archiveFinished(long cutoff) {
+        List<ArchivedGame> finished = games.finishedBefore(cutoff);
+        if (finished.isEmpty()) {
+            return 0;
+        }
+        try {
+            archive.append(finished, System.currentTimeMillis());
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore.archiveFinished: Failed to append to the archive", ex);
+        }
+        int archived = games.removeFinished(cutoff);
+        begin(ARCHIVE, "");
+        payload.putLong(cutoff);
+        append();
+        return archived;
+    }
+
+    /**
+     * Deleting segments of the ArchiveLog needs no record in the log.
+     */
+    @Override
+    public int purgeArchived(long cutoff, int limit) {
+        try {
+            return archive.purge(cutoff, limit);
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore.purgeArchived: Failed to delete archive segments", ex);
+        }
+    }
+
+    private void begin(byte type, String gameId) {
+        byte[] id = gameId.getBytes(StandardCharsets.UTF_8);
+        payload.clear();
+        payload.put(type).putShort((short) id.length).put(id);
+    }
+
+    private void append() {
+        payload.flip();
+        crc.reset();
+        crc.update(payload.array(), 0, payload.limit());
+        if (buffer.remaining() < RECORD_HEADER_BYTES + payload.limit()) {
+            drain();
+        }
+        buffer.putInt(payload.limit()).putInt((int) crc.getValue()).put(payload);
+        records++;
+    }
+
+    /**
+     * Write the buffered records to the file, called holding the store.
+     */
+    private void drain() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore: Failed to write the log", ex);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Forcing the file does not hold the store, the writes go on meanwhile.
+     * A snapshot does hold it, the write-behind thread waits for it.
+     */
+    private void sync() {
+        try {
+            synchronized (this) {
+                if (records >= snapshotRecords) {
+                    snapshot();
+                    return;
+                }
+                if (buffer.position() == 0) {
+                    return;
+                }
+                drain();
+            }
+            channel.force(false);
+        } catch (IOException | StoreException ex) {
+            logger.error("LogGameStore: Failed to sync the log", ex);
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Snapshots
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Write all games to a new snapshot of the next generation and start the
+     * log over, called holding the store. The buffered records are in the
+     * games already and are dropped. The snapshot replaces the old one only
+     * once it is on disk, and the log is emptied before it gets the new
+     * generation, so a crash at any point leaves a snapshot and a log that
+     * belong together or a log of an older generation, which is ignored.
+     */
+    private void snapshot() throws IOException {
+        long started = System.nanoTime();
+        Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(generation + 1);
+            games.writeSnapshot(out);
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation++;
+        buffer.clear();
+        startLog();
+        logger.info("LogGameStore: snapshot of " + games.size() + " games, generation " + generation + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+    }
+
+    /**
+     * Empty the log and give it the current generation.
+     */
+    private void startLog() throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT).putLong(generation).flip();
+        channel.write(header, 0);
+        channel.force(true);
+        channel.position(HEADER_BYTES);
+        records = 0;
+    }
+
+    /**
+     * Load the games of the snapshot. A snapshot only replaces the previous
+     * one once it is complete, a checksum that does not match is damage and
+     * not a crash, so it stops the start instead of losing the games.
+     */
+    private void restore() throws IOException {
+        try (InputStream file = Files.newInputStream(snapshotPath)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Not a game snapshot of format " + FORMAT + ": " + snapshotPath);
+            }
+            generation = in.readLong();
+            games.readSnapshot(in);
+            int checksum = (int) checked.getChecksum().getValue();
+            if (in.readInt() != checksum) {
+                throw new IOException("Damaged game snapshot: " + snapshotPath);
+            }
+        }
+        logger.info("LogGameStore: restored " + games.size() + " games of generation " + generation);
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Reads
+    //-----------------------------------------------------------------------------//
+
+    @Override
+    public StoredGame load(String gameId) {
+        StoredGame game = games.load(gameId);
+        if (game == null) {
+            ArchivedGame archived = readArchived(gameId);
+            return archived == null ? null : archived.toStoredGame();
+        }
+        return game;
+    }
+
+    @Override
+    public List<Integer> history(String gameId) {
+        return games.history(gameId);
+    }
+
+    /**
+     * A game without moves here is waiting, archived or unknown.
+     */
+    @Override
+    public List<StoredMove> moves(String gameId) {
+        List<StoredMove> moves = games.moves(gameId);
+        if (moves.isEmpty()) {
+            ArchivedGame archived = readArchived(gameId);
+            return archived == null ? moves : archived.getMoves();
+        }
+        return moves;
+    }
+
+    @Override
+    public List<ArchivedGame> archivedGames(String after, int limit) {
+        try {
+            return archive.page(after, limit);
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore.archivedGames: Failed to read the archive", ex);
+        }
+    }
+
+    private ArchivedGame readArchived(String gameId) {
+        try {
+            return archive.read(gameId);
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore: Failed to read game " + gameId + " from the archive", ex);
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Startup
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Apply every complete record to the games and cut off a torn tail, so
+     * new records follow the last good one.
+     */
+    private void replay(Path path) throws IOException {
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (log.getInt() != MAGIC || log.getInt() != FORMAT) {
+            throw new IOException("Not a game log of format " + FORMAT + ": " + path);
+        }
+        long logGeneration = log.getLong();
+        if (logGeneration < generation) {
+            logger.info("LogGameStore: the log of generation " + logGeneration + " is in the snapshot already");
+            startLog();
+            return;
+        }
+        if (logGeneration > generation) {
+            throw new IOException("The game log is of generation " + logGeneration + ", the snapshot "
+                    + snapshotPath + " of " + generation);
+        }
+        while (log.remaining() >= RECORD_HEADER_BYTES) {
+            int start = log.position();
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length <= 0 || length > MAX_PAYLOAD || length > log.remaining()) {
+                log.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(log.array(), log.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                log.position(start);
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(log.array(), log.position(), length).slice();
+            log.position(log.position() + length);
+            apply(record);
+            records++;
+        }
+        if (log.position() < log.limit()) {
+            logger.warn("LogGameStore: dropping " + (log.limit() - log.position())
+                    + " bytes of a torn record at the end of " + path);
+            channel.truncate(log.position());
+        }
+        logger.info("LogGameStore: replayed " + records + " records, " + games.size() + " games");
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        byte[] id = new byte[record.getShort()];
+        record.get(id);
+        String gameId = new String(id, StandardCharsets.UTF_8);
+        switch (type) {
+            case CREATE: {
+                StoredGame game = new StoredGame(gameId, GameCodes.state(record.get()), record.getInt(), record.getLong());
+                game.setSeq(record.getInt());
+                for (int players = record.get(); players > 0; players--) {
+                    game.addPlayer(Bitboard.pieceType(record.get()));
+                }
+                byte computer = record.get();
+                game.setComputerPieceType(computer == NO_PIECE ? null : Bitboard.pieceType(computer));
+                games.createGame(game);
+                break;
+            }
+            case JOIN:
+                // Logs of before the joins were checked may join a game that expired
+                if (games.load(gameId) != null) {
+                    games.joinGame(gameId, Bitboard.pieceType(record.get()), GameCodes.state(record.get()),
+                            record.getInt(), record.getLong());
+                }
+                break;
+            case MOVE:
+                games.applyMove(gameId, record.getInt(), GameCodes.state(record.get()), record.getInt(),
+                        record.getLong());
+                break;
+            case EXPIRE:
+                games.expireWaiting(record.getLong());
+                break;
+            case ARCHIVE:
+                // The games were appended to the ArchiveLog before the record
+                games.removeFinished(record.getLong());
+                break;
+            default:
+                throw new IllegalStateException("LogGameStore: unknown record type " + type);
+        }
+    }
+
+    /**
+     * Take a snapshot if anything was logged since the last one, so the next
+     * start has nothing to replay.
+     */
+    @Override
+    public void close() {
+        syncer.shutdown();
+        try {
+            // An interrupted FileChannel closes itself, so the syncer is not interrupted
+            syncer.awaitTermination(1, TimeUnit.MINUTES);
+            synchronized (this) {
+                if (records > 0) {
+                    snapshot();
+                } else {
+                    drain();
+                    channel.force(true);
+                }
+            }
+            channel.close();
+            archive.close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            throw new StoreException("LogGameStore: Failed to close the log", ex);
+        }
+    }
+}
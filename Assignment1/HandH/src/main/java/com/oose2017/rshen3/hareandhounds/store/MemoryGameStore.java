@@ -0,0 +1,291 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import com.oose2017.rshen3.hareandhounds.db.GameCodes;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Keeps the games on the heap only, for tests and benchmarks, and as the
+ * index of LogGameStore. Nothing survives a restart.
+ *
+ * Archived games leave the games being played for a map of their own, in
+ * the order of their gameIds. LogGameStore takes them out with
+ * finishedBefore and removeFinished and keeps them in its ArchiveLog instead.
+ *
+ * Writes come from the write-behind thread and loads from request threads,
+ * the methods synchronize on the store and loads return copies.
+ */
+public class MemoryGameStore implements GameStore {
+
+    private static final byte NO_PIECE = -1;
+
+    private static class Entry {
+        private final StoredGame game;
+        private final List<StoredMove> moves = new ArrayList<>();
+
+        Entry(StoredGame game) {
+            this.game = game;
+        }
+    }
+
+    private final Map<String, Entry> games = new HashMap<>();
+
+    /** In the order of their gameIds, for the pages of archivedGames */
+    private final NavigableMap<String, ArchivedGame> archived = new TreeMap<>();
+
+    @Override
+    public synchronized void createGame(StoredGame game) {
+        Entry entry = new Entry(copy(game));
+        if (game.getSeq() != StoredGame.NOT_STARTED) {
+            entry.moves.add(new StoredMove(0, game.getState(), game.getPosition(), game.getUpdatedAt()));
+        }
+        games.put(game.getGameId(), entry);
+    }
+
+    @Override
+    public synchronized void joinGame(String gameId, String pieceType, String state, int position, long updatedAt) {
+        Entry entry = games.get(gameId);
+        if (entry == null) {
+            throw new StoreException("MemoryGameStore.joinGame: game " + gameId + " does not exist", null);
+        }
+        entry.game.addPlayer(pieceType);
+        entry.game.setState(state);
+        entry.game.setUpdatedAt(updatedAt);
+        entry.game.setSeq(0);
+        entry.moves.add(new StoredMove(0, state, position, updatedAt));
+    }
+
+    /**
+     * A move that is not the next one of its game, replayed twice, is ignored.
+     */
+    @Override
+    public synchronized void applyMove(String gameId, int seq, String state, int position, long updatedAt) {
+        Entry entry = games.get(gameId);
+        if (entry == null || seq != entry.game.getSeq() + 1) {
+            return;
+        }
+        entry.game.setState(state);
+        entry.game.setPosition(position);
+        entry.game.setUpdatedAt(updatedAt);
+        entry.game.setSeq(seq);
+        entry.moves.add(new StoredMove(seq, state, position, updatedAt));
+    }
+
+    @Override
+    public synchronized StoredGame load(String gameId) {
+        Entry entry = games.get(gameId);
+        if (entry == null) {
+            ArchivedGame game = archived.get(gameId);
+            return game == null ? null : game.toStoredGame();
+        }
+        return copy(entry.game);
+    }
+
+    @Override
+    public synchronized List<Integer> history(String gameId) {
+        List<Integer> positions = new ArrayList<>();
+        for (StoredMove move: moves(gameId)) {
+            positions.add(move.getPosition());
+        }
+        return positions;
+    }
+
+    @Override
+    public synchronized List<StoredMove> moves(String gameId) {
+        Entry entry = games.get(gameId);
+        if (entry == null) {
+            ArchivedGame game = archived.get(gameId);
+            return game == null ? new ArrayList<>() : new ArrayList<>(game.getMoves());
+        }
+        return new ArrayList<>(entry.moves);
+    }
+
+    @Override
+    public synchronized int expireWaiting(long cutoff) {
+        int expired = 0;
+        for (Iterator<Entry> entries = games.values().iterator(); entries.hasNext(); ) {
+            StoredGame game = entries.next().game;
+            if (game.getState().equals("WAITING_FOR_SECOND_PLAYER") && game.getUpdatedAt() < cutoff) {
+                entries.remove();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public synchronized int abandonPlaying(long cutoff, long now) {
+        List<StoredGame> idle = playingBefore(cutoff);
+        for (StoredGame game: idle) {
+            applyMove(game.getGameId(), game.getSeq() + 1, "ABANDONED", game.getPosition(), now);
+        }
+        return idle.size();
+    }
+
+    /**
+     * @return the games in play abandonPlaying would end, as they are now
+     */
+    synchronized List<StoredGame> playingBefore(long cutoff) {
+        List<StoredGame> idle = new ArrayList<>();
+        for (Entry entry: games.values()) {
+            if (GameCodes.isPlaying(entry.game.getState()) && entry.game.getUpdatedAt() < cutoff) {
+                idle.add(copy(entry.game));
+            }
+        }
+        return idle;
+    }
+
+    @Override
+    public synchronized int archiveFinished(long cutoff) {
+        for (ArchivedGame game: finishedBefore(cutoff)) {
+            archived.put(game.getGameId(), game);
+        }
+        return removeFinished(cutoff);
+    }
+
+    /**
+     * @return the games archiveFinished would archive, still in place
+     */
+    synchronized List<ArchivedGame> finishedBefore(long cutoff) {
+        List<ArchivedGame> finished = new ArrayList<>();
+        for (Entry entry: games.values()) {
+            if (isFinishedBefore(entry, cutoff)) {
+                StoredGame game = entry.game;
+                finished.add(new ArchivedGame(game.getGameId(), game.getState(), game.getPosition(),
+                        game.getUpdatedAt(), entry.moves));
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Drop the games finishedBefore returned from the games being played,
+     * without archiving them here.
+     *
+     * @return the number of games dropped
+     */
+    synchronized int removeFinished(long cutoff) {
+        int removed = 0;
+        for (Iterator<Entry> entries = games.values().iterator(); entries.hasNext(); ) {
+            if (isFinishedBefore(entries.next(), cutoff)) {
+                entries.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isFinishedBefore(Entry entry, long cutoff) {
+        return GameCodes.isFinished(entry.game.getState()) && entry.game.getUpdatedAt() < cutoff;
+    }
+
+    @Override
+    public synchronized int purgeArchived(long cutoff, int limit) {
+        int purged = 0;
+        for (Iterator<ArchivedGame> entries = archived.values().iterator(); entries.hasNext() && purged < limit; ) {
+            if (entries.next().getFinishedAt() < cutoff) {
+                entries.remove();
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    @Override
+    public synchronized List<ArchivedGame> archivedGames(String after, int limit) {
+        List<ArchivedGame> page = new ArrayList<>(limit);
+        for (ArchivedGame game: archived.tailMap(after, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(new ArchivedGame(game.getGameId(), game.getState(), game.getPosition(),
+                    game.getFinishedAt(), new ArrayList<>(game.getMoves())));
+        }
+        return page;
+    }
+
+    /**
+     * @return the number of games that are not archived
+     */
+    public synchronized int size() {
+        return games.size();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Snapshots of LogGameStore
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * Write every game that is not archived with its moves. The seq of a
+     * move is its index and is not written.
+     */
+    synchronized void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(games.size());
+        for (Entry entry: games.values()) {
+            StoredGame game = entry.game;
+            out.writeUTF(game.getGameId());
+            out.writeByte(GameCodes.stateCode(game.getState()));
+            out.writeInt(game.getPosition());
+            out.writeLong(game.getUpdatedAt());
+            out.writeInt(game.getSeq());
+            out.writeByte(game.getPlayers().size());
+            for (String pieceType: game.getPlayers()) {
+                out.writeByte(Bitboard.pieceCode(pieceType));
+            }
+            out.writeByte(game.getComputerPieceType() == null ? NO_PIECE
+                    : Bitboard.pieceCode(game.getComputerPieceType()));
+            out.writeInt(entry.moves.size());
+            for (StoredMove move: entry.moves) {
+                out.writeByte(GameCodes.stateCode(move.getState()));
+                out.writeInt(move.getPosition());
+                out.writeLong(move.getMovedAt());
+            }
+        }
+    }
+
+    /**
+     * Replace the games with the ones of a snapshot.
+     */
+    synchronized void readSnapshot(DataInput in) throws IOException {
+        games.clear();
+        for (int count = in.readInt(); count > 0; count--) {
+            StoredGame game = new StoredGame(in.readUTF(), GameCodes.state(in.readByte()), in.readInt(), in.readLong());
+            game.setSeq(in.readInt());
+            for (int players = in.readByte(); players > 0; players--) {
+                game.addPlayer(Bitboard.pieceType(in.readByte()));
+            }
+            byte computer = in.readByte();
+            game.setComputerPieceType(computer == NO_PIECE ? null : Bitboard.pieceType(computer));
+            Entry entry = new Entry(game);
+            int moves = in.readInt();
+            for (int seq = 0; seq < moves; seq++) {
+                entry.moves.add(new StoredMove(seq, GameCodes.state(in.readByte()), in.readInt(), in.readLong()));
+            }
+            games.put(game.getGameId(), entry);
+        }
+    }
+
+    private static StoredGame copy(StoredGame game) {
+        StoredGame copy = new StoredGame(game.getGameId(), game.getState(), game.getPosition(), game.getUpdatedAt());
+        copy.setSeq(game.getSeq());
+        for (String pieceType: game.getPlayers()) {
+            copy.addPlayer(pieceType);
+        }
+        copy.setComputerPieceType(game.getComputerPieceType());
+        return copy;
+    }
+}
@@ -0,0 +1,514 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import com.oose2017.rshen3.hareandhounds.db.GameCodes;
+import com.oose2017.rshen3.hareandhounds.db.SchemaMigration;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import org.sql2o.data.Row;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The games in game.db, in the schema of SchemaMigration. Every write is one
+ * transaction, so SQLite syncs once per change instead of once per statement.
+ * Finished games are moved to GameArchive, and compact frees pages with
+ * incremental_vacuum.
+ *
+ * A move is one row appended to GameMoves. The row of the game in GameStates
+ * is its snapshot, written only every snapshotMoves moves and when the game
+ * ends, so most moves cost one insert instead of an insert and an update of
+ * GameStates and its index. Loading a game adds the last move after the
+ * snapshot, and at startup the snapshots of the games in play are brought up
+ * to date, finished games always are. The moves of a game are kept after it
+ * is archived, until purgeArchived deletes them with the archived game.
+ */
+public class SqliteGameStore implements GameStore {
+
+    /**
+     * SQLite only supports serializable transactions
+     */
+    private static final int ISOLATION = java.sql.Connection.TRANSACTION_SERIALIZABLE;
+
+    private static final String SQL_INSERT_PLAYER = "INSERT INTO PlayerInfos (`gameId`, `pieceType`) " +
+                                                    "VALUES (:gameId, :pieceType)";
+    private static final String SQL_INSERT_COMPUTER = "INSERT INTO PlayerInfos (`gameId`, `pieceType`, `computer`) " +
+                                                    "VALUES (:gameId, :pieceType, 1)";
+    private static final String SQL_INSERT_STATE = "INSERT INTO GameStates " +
+                                                    "(`gameId`, `state`, `position`, `updatedAt`, `seq`) " +
+                                                    "VALUES (:gameId, :state, :position, :updatedAt, :seq)";
+    private static final String SQL_INSERT_MOVE = "INSERT INTO GameMoves " +
+                                                    "(`gameId`, `seq`, `state`, `position`, `movedAt`) " +
+                                                    "VALUES (:gameId, :seq, :state, :position, :movedAt)";
+    private static final String SQL_UPDATE_STATE = "UPDATE GameStates SET state = :state, updatedAt = :updatedAt, " +
+                                                    "seq = 0 WHERE gameId = :gameId";
+    private static final String SQL_UPDATE_SNAPSHOT = "UPDATE GameStates SET state = :state, position = :position, " +
+                                                    "updatedAt = :updatedAt, seq = :seq WHERE gameId = :gameId";
+    private static final String SQL_FETCH_STATE = "SELECT state, position, updatedAt, seq FROM GameStates " +
+                                                    "WHERE gameId = :gameId";
+    private static final String SQL_FETCH_ARCHIVE = "SELECT state, position, finishedAt FROM GameArchive WHERE gameId = :gameId";
+    private static final String SQL_FETCH_PLAYERS = "SELECT pieceType, computer FROM PlayerInfos WHERE gameId = :gameId";
+    private static final String SQL_FETCH_LAST_MOVE = "SELECT seq, state, position, movedAt FROM GameMoves " +
+                                                    "WHERE gameId = :gameId AND seq > :seq ORDER BY seq DESC LIMIT 1";
+    private static final String SQL_FETCH_HISTORY = "SELECT position FROM GameMoves WHERE gameId = :gameId ORDER BY seq";
+    private static final String SQL_FETCH_MOVES = "SELECT seq, state, position, movedAt FROM GameMoves " +
+                                                    "WHERE gameId = :gameId ORDER BY seq";
+    private static final String SQL_FETCH_ARCHIVED_PAGE = "SELECT a.gameId, a.state AS finalState, " +
+            "a.position AS finalPosition, a.finishedAt, m.seq, m.state, m.position, m.movedAt " +
+            "FROM (SELECT gameId, state, position, finishedAt FROM GameArchive WHERE gameId > :after " +
+            "ORDER BY gameId LIMIT :limit) a LEFT JOIN GameMoves m ON m.gameId = a.gameId ORDER BY a.gameId, m.seq";
+    private static final String SQL_FETCH_BEHIND = "SELECT m.gameId, m.seq, m.state, m.position, m.movedAt " +
+            "FROM GameStates g JOIN GameMoves m ON m.gameId = g.gameId " +
+            "AND m.seq = (SELECT MAX(seq) FROM GameMoves WHERE gameId = g.gameId) " +
+            "WHERE g.state > " + GameCodes.WAITING + " AND g.state < " + GameCodes.FIRST_FINISHED + " AND m.seq > g.seq";
+
+    private static final String SQL_EXPIRE_PLAYERS = "DELETE FROM PlayerInfos WHERE gameId IN " +
+            "(SELECT gameId FROM GameStates WHERE state = " + GameCodes.WAITING + " AND updatedAt < :cutoff)";
+    private static final String SQL_EXPIRE_STATES = "DELETE FROM GameStates " +
+            "WHERE state = " + GameCodes.WAITING + " AND updatedAt < :cutoff";
+    private static final String SQL_FETCH_IDLE = "SELECT m.gameId, m.seq, m.position " +
+            "FROM GameStates g JOIN GameMoves m ON m.gameId = g.gameId " +
+            "AND m.seq = (SELECT MAX(seq) FROM GameMoves WHERE gameId = g.gameId) " +
+            "WHERE g.state > " + GameCodes.WAITING + " AND g.state < " + GameCodes.FIRST_FINISHED +
+            " AND m.movedAt < :cutoff";
+    private static final String SQL_ARCHIVE = "INSERT OR REPLACE INTO GameArchive " +
+            "(`gameId`, `state`, `position`, `finishedAt`) " +
+            "SELECT gameId, state, position, updatedAt FROM GameStates " +
+            "WHERE state >= " + GameCodes.FIRST_FINISHED + " AND updatedAt < :cutoff";
+    private static final String SQL_ARCHIVE_PLAYERS = "DELETE FROM PlayerInfos WHERE gameId IN " +
+            "(SELECT gameId FROM GameStates WHERE state >= " + GameCodes.FIRST_FINISHED + " AND updatedAt < :cutoff)";
+    private static final String SQL_ARCHIVE_STATES = "DELETE FROM GameStates " +
+            "WHERE state >= " + GameCodes.FIRST_FINISHED + " AND updatedAt < :cutoff";
+    private static final String SQL_PURGE_SELECT = "(SELECT gameId FROM GameArchive WHERE finishedAt < :cutoff " +
+            "ORDER BY finishedAt LIMIT :limit)";
+    private static final String SQL_PURGE_MOVES = "DELETE FROM GameMoves WHERE gameId IN " + SQL_PURGE_SELECT;
+    private static final String SQL_PURGE_ARCHIVE = "DELETE FROM GameArchive WHERE gameId IN " + SQL_PURGE_SELECT;
+
+    private static final Logger logger = LoggerFactory.getLogger(SqliteGameStore.class);
+
+    private final Sql2o db;
+
+    private final int vacuumPages;
+
+    private final int snapshotMoves;
+
+    /**
+     * Create or migrate the schema of the database if necessary and bring the
+     * snapshots of the games in play up to date.
+     *
+     * @param vacuumPages the most pages one call of compact frees
+     * @param snapshotMoves how many moves a snapshot in GameStates may be behind
+     */
+    public SqliteGameStore(DataSource dataSource, int vacuumPages, int snapshotMoves) {
+        this.db = new Sql2o(dataSource);
+        this.vacuumPages = vacuumPages;
+        this.snapshotMoves = Math.max(snapshotMoves, 1);
+        try {
+            SchemaMigration.migrate(db);
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore: Failed to create the schema", ex);
+        }
+        recover();
+    }
+
+    /**
+     * Write the last move of every game in play whose snapshot is behind to
+     * GameStates. Finished games are skipped, their snapshot is taken with
+     * their last move.
+     */
+    private void recover() {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            List<Row> behind = conn.createQuery(SQL_FETCH_BEHIND).executeAndFetchTable().rows();
+            try (Query updateSnapshot = conn.createQuery(SQL_UPDATE_SNAPSHOT)) {
+                for (Row move: behind) {
+                    updateSnapshot.addParameter("state", move.getInteger("state"))
+                            .addParameter("position", move.getInteger("position"))
+                            .addParameter("updatedAt", move.getLong("movedAt"))
+                            .addParameter("seq", move.getInteger("seq"))
+                            .addParameter("gameId", move.getString("gameId"))
+                            .addToBatch();
+                }
+                updateSnapshot.executeBatch();
+            }
+            conn.commit();
+            if (!behind.isEmpty()) {
+                logger.info("SqliteGameStore: brought the snapshots of " + behind.size() + " games up to date");
+            }
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore: Failed to recover the snapshots", ex);
+        }
+    }
+
+    @Override
+    public void createGame(StoredGame game) {
+        boolean started = game.getSeq() != StoredGame.NOT_STARTED;
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            for (String pieceType: game.getPlayers()) {
+                conn.createQuery(SQL_INSERT_PLAYER)
+                        .addParameter("gameId", game.getGameId())
+                        .addParameter("pieceType", Bitboard.pieceCode(pieceType))
+                        .executeUpdate();
+            }
+            if (game.getComputerPieceType() != null) {
+                conn.createQuery(SQL_INSERT_COMPUTER)
+                        .addParameter("gameId", game.getGameId())
+                        .addParameter("pieceType", Bitboard.pieceCode(game.getComputerPieceType()))
+                        .executeUpdate();
+            }
+            // Initialize the game state and the piece location in the board
+            conn.createQuery(SQL_INSERT_STATE)
+                    .addParameter("gameId", game.getGameId())
+                    .addParameter("state", GameCodes.stateCode(game.getState()))
+                    .addParameter("position", game.getPosition())
+                    .addParameter("updatedAt", game.getUpdatedAt())
+                    .addParameter("seq", game.getSeq())
+                    .executeUpdate();
+            if (started) {
+                insertMove(conn, game.getGameId(), 0, game.getState(), game.getPosition(), game.getUpdatedAt());
+            }
+            conn.commit();
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.createGame: Failed to insert the game", ex);
+        }
+    }
+
+    @Override
+    public void joinGame(String gameId, String pieceType, String state, int position, long updatedAt) {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            // Update the state of the game
+            int updated = conn.createQuery(SQL_UPDATE_STATE)
+                    .addParameter("state", GameCodes.stateCode(state))
+                    .addParameter("updatedAt", updatedAt)
+                    .addParameter("gameId", gameId)
+                    .executeUpdate()
+                    .getResult();
+            if (updated == 0) {
+                conn.rollback();
+                throw new StoreException("SqliteGameStore.joinGame: game " + gameId + " does not exist", null);
+            }
+            // Insert the joined player into database
+            conn.createQuery(SQL_INSERT_PLAYER)
+                    .addParameter("gameId", gameId)
+                    .addParameter("pieceType", Bitboard.pieceCode(pieceType))
+                    .executeUpdate();
+            insertMove(conn, gameId, 0, state, position, updatedAt);
+            conn.commit();
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.joinGame: Failed to add the player", ex);
+        }
+    }
+
+    /**
+     * The snapshot is taken with the last move, so the sweeps of GameLifecycle
+     * find a finished game by its row in GameStates.
+     */
+    @Override
+    public void applyMove(String gameId, int seq, String state, int position, long updatedAt) {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            insertMove(conn, gameId, seq, state, position, updatedAt);
+            if (seq % snapshotMoves == 0 || GameCodes.isFinished(state)) {
+                conn.createQuery(SQL_UPDATE_SNAPSHOT)
+                        .addParameter("state", GameCodes.stateCode(state))
+                        .addParameter("position", position)
+                        .addParameter("updatedAt", updatedAt)
+                        .addParameter("seq", seq)
+                        .addParameter("gameId", gameId)
+                        .executeUpdate();
+            }
+            conn.commit();
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.applyMove: Failed to update the game", ex);
+        }
+    }
+
+    @Override
+    public StoredGame load(String gameId) {
+        // Read in one transaction so the rows come from the same committed write
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            List<Row> rows = conn.createQuery(SQL_FETCH_STATE)
+                                .addParameter("gameId", gameId)
+                                .executeAndFetchTable()
+                                .rows();
+            if (rows.isEmpty()) {
+                StoredGame game = loadArchivedGame(conn, gameId);
+                conn.commit();
+                return game;
+            }
+            StoredGame game = new StoredGame(gameId, GameCodes.state(rows.get(0).getInteger("state")),
+                                             rows.get(0).getInteger("position"), rows.get(0).getLong("updatedAt"));
+            game.setSeq(rows.get(0).getInteger("seq"));
+            if (!GameCodes.isFinished(game.getState()) && game.getSeq() != StoredGame.NOT_STARTED) {
+                addLastMove(conn, game);
+            }
+            List<Row> players = conn.createQuery(SQL_FETCH_PLAYERS)
+                                .addParameter("gameId", gameId)
+                                .executeAndFetchTable()
+                                .rows();
+            for (Row player: players) {
+                String pieceType = Bitboard.pieceType(player.getInteger("pieceType"));
+                if (player.getInteger("computer") != 0) {
+                    game.setComputerPieceType(pieceType);
+                } else {
+                    game.addPlayer(pieceType);
+                }
+            }
+            conn.commit();
+            return game;
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.load: Failed to query database to load the game", ex);
+        }
+    }
+
+    /**
+     * Bring a snapshot up to date with the moves after it. Every move holds
+     * the whole position, so only the last one is read.
+     */
+    private static void addLastMove(Connection conn, StoredGame game) {
+        List<Row> moves = conn.createQuery(SQL_FETCH_LAST_MOVE)
+                            .addParameter("gameId", game.getGameId())
+                            .addParameter("seq", game.getSeq())
+                            .executeAndFetchTable()
+                            .rows();
+        if (!moves.isEmpty()) {
+            Row move = moves.get(0);
+            game.setSeq(move.getInteger("seq"));
+            game.setState(GameCodes.state(move.getInteger("state")));
+            game.setPosition(move.getInteger("position"));
+            game.setUpdatedAt(move.getLong("movedAt"));
+        }
+    }
+
+    /**
+     * Archived games have lost their players, they can still be looked at
+     * but not joined or played.
+     *
+     * @return the game or null if it was never archived either
+     */
+    private static StoredGame loadArchivedGame(Connection conn, String gameId) {
+        List<Row> rows = conn.createQuery(SQL_FETCH_ARCHIVE)
+                            .addParameter("gameId", gameId)
+                            .executeAndFetchTable()
+                            .rows();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        StoredGame game = new StoredGame(gameId, GameCodes.state(rows.get(0).getInteger("state")),
+                                         rows.get(0).getInteger("position"), rows.get(0).getLong("finishedAt"));
+        game.addPlayer("HOUND");
+        game.addPlayer("HARE");
+        return game;
+    }
+
+    @Override
+    public List<Integer> history(String gameId) {
+        try (Connection conn = db.open()) {
+            return conn.createQuery(SQL_FETCH_HISTORY)
+                    .addParameter("gameId", gameId)
+                    .executeScalarList(Integer.class);
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.history: Failed to query database to load the move records", ex);
+        }
+    }
+
+    @Override
+    public List<StoredMove> moves(String gameId) {
+        try (Connection conn = db.open()) {
+            List<Row> rows = conn.createQuery(SQL_FETCH_MOVES)
+                                .addParameter("gameId", gameId)
+                                .executeAndFetchTable()
+                                .rows();
+            List<StoredMove> moves = new ArrayList<>(rows.size());
+            for (Row row: rows) {
+                moves.add(new StoredMove(row.getInteger("seq"), GameCodes.state(row.getInteger("state")),
+                                         row.getInteger("position"), row.getLong("movedAt")));
+            }
+            return moves;
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.moves: Failed to query database to load the moves", ex);
+        }
+    }
+
+    /**
+     * The games of the page and their moves come in one query, which reads in
+     * a transaction of its own on a pooled connection. With WAL it neither
+     * waits for the write-behind thread nor holds it up, and as nothing is
+     * held between the pages a long export does not keep WAL from being
+     * checkpointed either.
+     */
+    @Override
+    public List<ArchivedGame> archivedGames(String after, int limit) {
+        try (Connection conn = db.open()) {
+            List<Row> rows = conn.createQuery(SQL_FETCH_ARCHIVED_PAGE)
+                                .addParameter("after", after)
+                                .addParameter("limit", limit)
+                                .executeAndFetchTable()
+                                .rows();
+            List<ArchivedGame> page = new ArrayList<>(limit);
+            List<StoredMove> moves = null;
+            String gameId = null;
+            for (Row row: rows) {
+                if (!row.getString("gameId").equals(gameId)) {
+                    gameId = row.getString("gameId");
+                    moves = new ArrayList<>();
+                    page.add(new ArchivedGame(gameId, GameCodes.state(row.getInteger("finalState")),
+                            row.getInteger("finalPosition"), row.getLong("finishedAt"), moves));
+                }
+                // Games archived before the moves were kept join no move at all
+                if (row.getInteger("seq") != null) {
+                    moves.add(new StoredMove(row.getInteger("seq"), GameCodes.state(row.getInteger("state")),
+                                             row.getInteger("position"), row.getLong("movedAt")));
+                }
+            }
+            return page;
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.archivedGames: Failed to query database to load the archive", ex);
+        }
+    }
+
+    private static void insertMove(Connection conn, String gameId, int seq, String state, int position, long movedAt) {
+        conn.createQuery(SQL_INSERT_MOVE)
+                .addParameter("gameId", gameId)
+                .addParameter("seq", seq)
+                .addParameter("state", GameCodes.stateCode(state))
+                .addParameter("position", position)
+                .addParameter("movedAt", movedAt)
+                .executeUpdate();
+    }
+
+    @Override
+    public int expireWaiting(long cutoff) {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            conn.createQuery(SQL_EXPIRE_PLAYERS).addParameter("cutoff", cutoff).executeUpdate();
+            int expired = conn.createQuery(SQL_EXPIRE_STATES)
+                    .addParameter("cutoff", cutoff)
+                    .executeUpdate()
+                    .getResult();
+            conn.commit();
+            return expired;
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.expireWaiting: Failed to delete the waiting games", ex);
+        }
+    }
+
+    /**
+     * The snapshot in GameStates may be behind, the time of the last change
+     * is the one of the last move. Ending a game takes its snapshot, as with
+     * every finished game.
+     */
+    @Override
+    public int abandonPlaying(long cutoff, long now) {
+        int state = GameCodes.stateCode("ABANDONED");
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            List<Row> idle = conn.createQuery(SQL_FETCH_IDLE)
+                    .addParameter("cutoff", cutoff)
+                    .executeAndFetchTable()
+                    .rows();
+            if (!idle.isEmpty()) {
+                try (Query insertMove = conn.createQuery(SQL_INSERT_MOVE);
+                     Query updateSnapshot = conn.createQuery(SQL_UPDATE_SNAPSHOT)) {
+                    for (Row move: idle) {
+                        int seq = move.getInteger("seq") + 1;
+                        insertMove.addParameter("gameId", move.getString("gameId"))
+                                .addParameter("seq", seq)
+                                .addParameter("state", state)
+                                .addParameter("position", move.getInteger("position"))
+                                .addParameter("movedAt", now)
+                                .addToBatch();
+                        updateSnapshot.addParameter("state", state)
+                                .addParameter("position", move.getInteger("position"))
+                                .addParameter("updatedAt", now)
+                                .addParameter("seq", seq)
+                                .addParameter("gameId", move.getString("gameId"))
+                                .addToBatch();
+                    }
+                    insertMove.executeBatch();
+                    updateSnapshot.executeBatch();
+                }
+            }
+            conn.commit();
+            return idle.size();
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.abandonPlaying: Failed to end the idle games", ex);
+        }
+    }
+
+    @Override
+    public int archiveFinished(long cutoff) {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            conn.createQuery(SQL_ARCHIVE).addParameter("cutoff", cutoff).executeUpdate();
+            conn.createQuery(SQL_ARCHIVE_PLAYERS).addParameter("cutoff", cutoff).executeUpdate();
+            int archived = conn.createQuery(SQL_ARCHIVE_STATES)
+                    .addParameter("cutoff", cutoff)
+                    .executeUpdate()
+                    .getResult();
+            conn.commit();
+            return archived;
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.archiveFinished: Failed to archive the finished games", ex);
+        }
+    }
+
+    /**
+     * Both deletes select the same oldest games, GameArchive does not change
+     * in between.
+     */
+    @Override
+    public int purgeArchived(long cutoff, int limit) {
+        try (Connection conn = db.beginTransaction(ISOLATION)) {
+            conn.createQuery(SQL_PURGE_MOVES)
+                    .addParameter("cutoff", cutoff)
+                    .addParameter("limit", limit)
+                    .executeUpdate();
+            int purged = conn.createQuery(SQL_PURGE_ARCHIVE)
+                    .addParameter("cutoff", cutoff)
+                    .addParameter("limit", limit)
+                    .executeUpdate()
+                    .getResult();
+            conn.commit();
+            return purged;
+        } catch (Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.purgeArchived: Failed to purge the archived games", ex);
+        }
+    }
+
+    /**
+     * SQLite frees one page per step of incremental_vacuum, and the driver only
+     * steps the statement once, so the pages are freed one statement at a time.
+     *
+     * @return the pages freed
+     */
+    @Override
+    public long compact() {
+        try (Connection conn = db.open();
+             Statement statement = conn.getJdbcConnection().createStatement()) {
+            long before = freePages(conn);
+            for (long page = 0; page < Math.min(before, vacuumPages); page++) {
+                statement.execute("PRAGMA incremental_vacuum(1)");
+            }
+            return before - freePages(conn);
+        } catch (SQLException | Sql2oException ex) {
+            throw new StoreException("SqliteGameStore.compact: incremental_vacuum failed", ex);
+        }
+    }
+
+    private static long freePages(Connection conn) {
+        try (Query freelist = conn.createQuery("PRAGMA freelist_count")) {
+            return freelist.executeScalar(Long.class);
+        }
+    }
+
+    /**
+     * The DataSource is closed by its owner.
+     */
+    @Override
+    public void close() {
+    }
+}
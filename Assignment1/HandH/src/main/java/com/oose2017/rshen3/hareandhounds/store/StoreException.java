@@ -0,0 +1,12 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+/**
+ * A GameStore failed to read or write, whatever the backend.
+ */
+public class StoreException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public StoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
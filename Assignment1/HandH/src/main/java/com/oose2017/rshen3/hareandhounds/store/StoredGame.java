@@ -0,0 +1,88 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A game as a GameStore keeps it, without its moves.
+ */
+public class StoredGame {
+    /** The seq of a game that is still waiting for its second player */
+    public static final int NOT_STARTED = -1;
+
+    private final String gameId;
+    private String state;
+    private int position;
+    private long updatedAt;
+    private int seq = NOT_STARTED;
+    private final List<String> players = new ArrayList<>();
+    private String computerPieceType;
+
+    public StoredGame(String gameId, String state, int position, long updatedAt) {
+        this.gameId = gameId;
+        this.state = state;
+        this.position = position;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getGameId() {
+        return gameId;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /**
+     * @return the seq of the last move of the game, NOT_STARTED before move 0
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    public void setSeq(int seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * @return the piece types played by people
+     */
+    public List<String> getPlayers() {
+        return players;
+    }
+
+    public void addPlayer(String pieceType) {
+        players.add(pieceType);
+    }
+
+    /**
+     * @return the piece type played by ComputerPlayer, null if there is none
+     */
+    public String getComputerPieceType() {
+        return computerPieceType;
+    }
+
+    public void setComputerPieceType(String computerPieceType) {
+        this.computerPieceType = computerPieceType;
+    }
+}
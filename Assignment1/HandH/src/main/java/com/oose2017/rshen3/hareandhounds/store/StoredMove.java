@@ -0,0 +1,45 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+/**
+ * One entry of the move log of a game. Move 0 is the position the game
+ * started from, every later one the position after a move and the state the
+ * game was left in, so any move alone restores the game up to its players.
+ */
+public class StoredMove {
+    private final int seq;
+    private final String state;
+    private final int position;
+    private final long movedAt;
+
+    public StoredMove(int seq, String state, int position, long movedAt) {
+        this.seq = seq;
+        this.state = state;
+        this.position = position;
+        this.movedAt = movedAt;
+    }
+
+    /**
+     * @return the number of the move within its game, counted from 0
+     */
+    public int getSeq() {
+        return seq;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return the packed position, see Bitboard
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return when the move was made, in epoch milliseconds
+     */
+    public long getMovedAt() {
+        return movedAt;
+    }
+}
@@ -0,0 +1,221 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packed int representation of a board position.
+ *
+ * The 11 playable cells are numbered 0..10 in (x, y) order, so a position is
+ * an 11 bit mask holding the hounds plus the 4 bit cell index of the hare:
+ *
+ * <pre>
+ *   bits  0..10  hound mask
+ *   bits 11..14  hare cell
+ * </pre>
+ *
+ * Every operation on a position is a bit operation on precomputed masks and
+ * does not allocate, the int itself doubles as the repetition key. The moves
+ * themselves come from MoveTable.
+ */
+public class Bitboard {
+    public static final int HARE = 0;
+    public static final int HOUND = 1;
+
+    public static final int CELLS = 11;
+    public static final int HOUND_MASK = (1 << CELLS) - 1;
+    private static final int HARE_SHIFT = CELLS;
+
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 3;
+
+    /** Cell index for x * HEIGHT + y, -1 for the corners that are not on the board */
+    private static final int[] CELL_INDEX = new int[WIDTH * HEIGHT];
+    private static final int[] CELL_X = new int[CELLS];
+    private static final int[] CELL_Y = new int[CELLS];
+    /** Cells with a smaller x than the given column, a hare right of every hound has escaped */
+    private static final int[] LEFT_OF_COLUMN = new int[WIDTH];
+
+    static {
+        int cell = 0;
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                boolean corner = (x == 0 || x == WIDTH - 1) && y != 1;
+                CELL_INDEX[x * HEIGHT + y] = corner ? -1 : cell;
+                if (!corner) {
+                    CELL_X[cell] = x;
+                    CELL_Y[cell] = y;
+                    cell++;
+                }
+            }
+        }
+        for (int x = 0; x < WIDTH; x++) {
+            for (int c = 0; c < CELLS; c++) {
+                if (CELL_X[c] < x) {
+                    LEFT_OF_COLUMN[x] |= 1 << c;
+                }
+            }
+        }
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Cells
+    //-----------------------------------------------------------------------------//
+
+    /**
+     * @return the cell index of (x, y) or -1 if it is off the board
+     */
+    public static int cellAt(int x, int y) {
+        if (x < 0 || x >= WIDTH || y < 0 || y >= HEIGHT) {
+            return -1;
+        }
+        return CELL_INDEX[x * HEIGHT + y];
+    }
+
+    public static int cellX(int cell) {
+        return CELL_X[cell];
+    }
+
+    public static int cellY(int cell) {
+        return CELL_Y[cell];
+    }
+
+    public static int pieceCode(String pieceType) {
+        return "HARE".equals(pieceType) ? HARE : HOUND;
+    }
+
+    public static String pieceType(int pieceCode) {
+        return pieceCode == HARE ? "HARE" : "HOUND";
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Positions
+    //-----------------------------------------------------------------------------//
+
+    public static int position(int hareCell, int houndMask) {
+        return (hareCell << HARE_SHIFT) | houndMask;
+    }
+
+    public static int hareCell(int position) {
+        return position >>> HARE_SHIFT;
+    }
+
+    public static int houndMask(int position) {
+        return position & HOUND_MASK;
+    }
+
+    public static int occupied(int position) {
+        return houndMask(position) | (1 << hareCell(position));
+    }
+
+    public static boolean isOccupied(int position, int cell) {
+        return (occupied(position) & (1 << cell)) != 0;
+    }
+
+    /**
+     * @return HARE or HOUND for an occupied cell, -1 for an empty one
+     */
+    public static int pieceAt(int position, int cell) {
+        if (hareCell(position) == cell) {
+            return HARE;
+        }
+        return (houndMask(position) & (1 << cell)) != 0 ? HOUND : -1;
+    }
+
+    /**
+     * Move the piece on the from cell to the to cell, the move must already be validated.
+     */
+    public static int move(int position, int from, int to) {
+        if (hareCell(position) == from) {
+            return position(to, houndMask(position));
+        }
+        return position ^ ((1 << from) | (1 << to));
+    }
+
+    public static boolean hareEscaped(int position) {
+        return (houndMask(position) & LEFT_OF_COLUMN[CELL_X[hareCell(position)]]) == 0;
+    }
+
+    public static boolean hareTrapped(int position) {
+        return (MoveTable.destinations(HARE, hareCell(position)) & ~houndMask(position)) == 0;
+    }
+
+    /**
+     * Judge the position reached by a move made in the given state.
+     *
+     * @return the state of the game after the move, null for an unknown state
+     */
+    public static String judge(int position, String state) {
+        if (hareEscaped(position)) {
+            return "WIN_HARE_BY_ESCAPE";
+        }
+        if (state.equals("TURN_HOUND")) {
+            return hareTrapped(position) ? "WIN_HOUND" : "TURN_HARE";
+        } else if (state.equals("TURN_HARE")) {
+            return "TURN_HOUND";
+        }
+        return null;
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Conversions from and to the persisted formats
+    //-----------------------------------------------------------------------------//
+
+    public static int fromPieces(List<PieceInfo> pieceInfos) {
+        int hareCell = 0;
+        int houndMask = 0;
+        for (PieceInfo pieceInfo: pieceInfos) {
+            int cell = cellAt(pieceInfo.getX(), pieceInfo.getY());
+            if (pieceCode(pieceInfo.getPieceType()) == HARE) {
+                hareCell = cell;
+            } else {
+                houndMask |= 1 << cell;
+            }
+        }
+        return position(hareCell, houndMask);
+    }
+
+    /**
+     * @return the hounds in cell order followed by the hare
+     */
+    public static List<PieceInfo> toPieces(String gameId, int position) {
+        List<PieceInfo> pieceInfos = new ArrayList<>(4);
+        for (int hounds = houndMask(position); hounds != 0; hounds &= hounds - 1) {
+            int cell = Integer.numberOfTrailingZeros(hounds);
+            pieceInfos.add(new PieceInfo(gameId, "HOUND", CELL_X[cell], CELL_Y[cell]));
+        }
+        int hare = hareCell(position);
+        pieceInfos.add(new PieceInfo(gameId, "HARE", CELL_X[hare], CELL_Y[hare]));
+        return pieceInfos;
+    }
+
+    /**
+     * @return the position in the GameRecord text format, e.g. HOUND011012HARE41
+     */
+    public static String toPieceStates(int position) {
+        StringBuilder sb = new StringBuilder(17);
+        sb.append("HOUND");
+        for (int hounds = houndMask(position); hounds != 0; hounds &= hounds - 1) {
+            int cell = Integer.numberOfTrailingZeros(hounds);
+            sb.append(CELL_X[cell]).append(CELL_Y[cell]);
+        }
+        int hare = hareCell(position);
+        sb.append("HARE").append(CELL_X[hare]).append(CELL_Y[hare]);
+        return sb.toString();
+    }
+
+    /**
+     * Parse the GameRecord text format written by toPieceStates.
+     */
+    public static int parsePieceStates(String pieceStates) {
+        int hareAt = pieceStates.indexOf("HARE");
+        int houndMask = 0;
+        for (int i = "HOUND".length(); i + 1 < hareAt; i += 2) {
+            houndMask |= 1 << cellAt(pieceStates.charAt(i) - '0', pieceStates.charAt(i + 1) - '0');
+        }
+        int hareCell = cellAt(pieceStates.charAt(hareAt + 4) - '0', pieceStates.charAt(hareAt + 5) - '0');
+        return position(hareCell, houndMask);
+    }
+}
@@ -0,0 +1,23 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+/**
+ * Settings of the server, read from system properties so they can be passed
+ * on the command line, e.g. java -Dhareandhounds.db.poolSize=8 -jar ...
+ */
+public class Config {
+    private static final String PREFIX = "hareandhounds.";
+
+    public static String getString(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+}
@@ -0,0 +1,102 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The one Gson instance of the server. Gson is thread safe and caches the
+ * type adapter of every class it has seen, so building a new instance per
+ * request throws that cache away each time.
+ *
+ * Requests are decoded straight from the stream and responses written
+ * straight to it, there is no intermediate String of the whole document.
+ */
+public class JsonCodec {
+    private static final Gson GSON = new Gson();
+
+    private static final byte[] EMPTY_OBJECT = "{}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * @return the document in the stream, the stream is left open
+     * @throws JsonParseException if the document is malformed or empty
+     */
+    public static <T> T decode(InputStream in, Class<T> type) throws JsonParseException {
+        T value = GSON.fromJson(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)), type);
+        if (value == null) {
+            throw new JsonParseException("Expected a " + type.getSimpleName() + " but the document is empty");
+        }
+        return value;
+    }
+
+    /**
+     * @throws JsonParseException if the document is malformed or empty
+     */
+    public static <T> T decode(String json, Class<T> type) throws JsonParseException {
+        T value = GSON.fromJson(json, type);
+        if (value == null) {
+            throw new JsonParseException("Expected a " + type.getSimpleName() + " but the document is empty");
+        }
+        return value;
+    }
+
+    /**
+     * Write the model to the stream and flush it, the stream is left open.
+     * A byte[] is taken to be a document encoded before and copied as is.
+     */
+    public static void write(Object model, OutputStream out) throws IOException {
+        if (model instanceof byte[]) {
+            out.write((byte[]) model);
+        } else if (model instanceof Map && ((Map<?, ?>) model).isEmpty()) {
+            // Error responses, reflection on the JDK maps is not needed for "{}"
+            out.write(EMPTY_OBJECT);
+        } else {
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            try {
+                GSON.toJson(model, model == null ? Object.class : model.getClass(), writer);
+            } catch (JsonIOException ex) {
+                throw new IOException(ex);
+            }
+            writer.flush();
+        }
+    }
+
+    /**
+     * Write the model to a writer of the caller without flushing it, for a
+     * response of many documents that is flushed a batch at a time.
+     */
+    public static void write(Object model, Writer out) throws IOException {
+        try {
+            GSON.toJson(model, model.getClass(), out);
+        } catch (JsonIOException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    public static byte[] toBytes(Object model) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            write(model, out);
+        } catch (IOException ex) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    public static String toJson(Object model) {
+        return GSON.toJson(model);
+    }
+}
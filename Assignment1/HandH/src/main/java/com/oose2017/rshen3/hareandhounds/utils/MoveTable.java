@@ -0,0 +1,60 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+/**
+ * Transition table of the board, built once at class load and shared by
+ * move validation, the game engine and any code that needs to enumerate moves.
+ *
+ * Every cell is connected to its orthogonal neighbours, cells with an odd
+ * x + y are also connected to their diagonal neighbours. Hounds may never
+ * step towards the left. The table maps (piece, from cell) to the bit mask
+ * of the cells it can step to, cells are numbered as in Bitboard.
+ */
+public final class MoveTable {
+    private static final int[] DX = {0, 0, 1, -1, 1, 1, -1, -1};
+    private static final int[] DY = {-1, 1, 0, 0, -1, 1, -1, 1};
+    private static final int ORTHOGONAL = 4;
+
+    private static final int[][] DESTINATIONS = new int[2][Bitboard.CELLS];
+
+    static {
+        for (int from = 0; from < Bitboard.CELLS; from++) {
+            int x = Bitboard.cellX(from);
+            int y = Bitboard.cellY(from);
+            int directions = (x + y) % 2 == 1 ? DX.length : ORTHOGONAL;
+            for (int i = 0; i < directions; i++) {
+                int to = Bitboard.cellAt(x + DX[i], y + DY[i]);
+                if (to < 0) {
+                    continue;
+                }
+                DESTINATIONS[Bitboard.HARE][from] |= 1 << to;
+                if (DX[i] >= 0) {
+                    DESTINATIONS[Bitboard.HOUND][from] |= 1 << to;
+                }
+            }
+        }
+    }
+
+    private MoveTable() {
+    }
+
+    /**
+     * @param pieceCode Bitboard.HARE or Bitboard.HOUND
+     * @param from cell index of the piece
+     * @return the mask of the cells the piece can step to, ignoring occupancy
+     */
+    public static int destinations(int pieceCode, int from) {
+        return DESTINATIONS[pieceCode][from];
+    }
+
+    /**
+     * @return the mask of the cells the piece on (x, y) can step to, 0 if (x, y) is off the board
+     */
+    public static int destinations(String pieceType, int x, int y) {
+        int from = Bitboard.cellAt(x, y);
+        return from < 0 ? 0 : DESTINATIONS[Bitboard.pieceCode(pieceType)][from];
+    }
+
+    public static boolean isLegal(int pieceCode, int from, int to) {
+        return from >= 0 && to >= 0 && (DESTINATIONS[pieceCode][from] & (1 << to)) != 0;
+    }
+}
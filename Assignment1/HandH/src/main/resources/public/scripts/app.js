@@ -26,12 +26,24 @@ var app = (function () {
         privateFetchAndUpdateState();
     };
 
+    /* Long-poll the server and update board and state whenever the game changes */
+    var privateWatchGame = function (since) {
+        appModel.fetchEvents(since)
+            .done(function (data) {
+                boardView.updateBoard(data.board);
+                appView.updateState(appModel.getGameId(), appModel.getPieceType(), data.state);
+                privateWatchGame(data.version);
+            }).fail(function (jqXHR) {
+                appView.updateServerResponses('waiting for the game', jqXHR.status, jqXHR.statusText, null);
+                window.setTimeout(function () { privateWatchGame(since); }, 2000);
+            });
+    };
+
     /* Start a new game */
     var privateNewGame = function (type) {
         appModel.newGame(type)
             .done(function (data) {
-                privateUpdateBoardAndState();
-                window.setInterval(privateUpdateBoardAndState, 2000);
+                privateWatchGame(-1);
                 appView.clearServerResponses();
             }).fail(function (jqXHR) {
                 appView.updateServerResponses('starting a new game', jqXHR.status, jqXHR.statusText, null);
@@ -42,8 +54,7 @@ var app = (function () {
     var privateJoinGame = function (gameId) {
         appModel.joinGame(gameId)
             .done(function (data) {
-                privateUpdateBoardAndState();
-                window.setInterval(privateUpdateBoardAndState, 2000);
+                privateWatchGame(-1);
                 appView.clearServerResponses();
            }).fail(function (jqXHR) {
                appView.updateServerResponses('joining a game', jqXHR.status, jqXHR.statusText, null);
@@ -55,6 +55,16 @@ var appModel = (function () {
             });
     };
 
+    /* Wait until the game is newer than the given version. Returns a deffered object that the control can chain on */
+    var privateFetchEvents = function(since) {
+        return $.get('/hareandhounds/api/games/' + state.gameId + '/events', {since : since}, null, 'json')
+            .done(function (data) {
+                state.gameState = data.state;
+            }).fail(function (jqXHR) {
+                console.log('Error ' + jqXHR.status);
+            });
+    };
+
     /* Move a piece. Returns a deffered object that the control can chain on */
     var privateMovePiece = function(from, to) {
         var postData = {
@@ -84,6 +94,7 @@ var appModel = (function () {
         joinGame: privateJoinGame,
         fetchState: privateFetchState,
         fetchBoard: privateFetchBoard,
+        fetchEvents: privateFetchEvents,
         movePiece: privateMovePiece
     };
 
@@ -36,6 +36,9 @@ var appView = (function () {
                     "Game Over: You played the hare and lost by getting trapped!";
                 $('#state').text(status);
                 break;
+            case "ABANDONED":
+                $('#state').text("Game Over: nobody moved for too long and the game was abandoned!");
+                break;
             default:
                 $('#state').text("The game state is: " + gameState);
         };
@@ -0,0 +1,69 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.store.MemoryGameStore;
+import com.oose2017.rshen3.hareandhounds.store.StoredGame;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ComputerPlayer on games that come back from the GameStore.
+ */
+public class ComputerPlayerTest {
+
+    private static final int START = Bitboard.parsePieceStates("HOUND011012HARE41");
+
+    private HistoryStore store;
+    private GameService gameService;
+
+    @Before
+    public void startGameService() {
+        store = new HistoryStore();
+        gameService = new GameService(store);
+        new ComputerPlayer(gameService, null);
+    }
+
+    @After
+    public void closeGameService() {
+        gameService.close();
+    }
+
+    @Test
+    public void loadedGameIsPlayedWithItsHistory() throws Exception {
+        StoredGame stored = new StoredGame("computer", "TURN_HOUND", START, System.currentTimeMillis());
+        stored.setSeq(0);
+        stored.addPlayer("HARE");
+        stored.setComputerPieceType("HOUND");
+        store.createGame(stored);
+
+        // Loads the game, the computer is to move
+        assertEquals("TURN_HOUND", gameService.fetchState("computer").getState());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (gameService.fetchState("computer").getState().equals("TURN_HOUND") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("TURN_HARE", gameService.fetchState("computer").getState());
+        assertEquals(1, store.historyLoads.get());
+    }
+
+    /**
+     * Counts the histories loaded.
+     */
+    private static class HistoryStore extends MemoryGameStore {
+        final AtomicInteger historyLoads = new AtomicInteger();
+
+        @Override
+        public List<Integer> history(String gameId) {
+            historyLoads.incrementAndGet();
+            return super.history(gameId);
+        }
+    }
+}
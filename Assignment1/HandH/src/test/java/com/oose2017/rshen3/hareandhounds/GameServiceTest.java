@@ -0,0 +1,118 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.model.MovePiece;
+import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.store.MemoryGameStore;
+import com.oose2017.rshen3.hareandhounds.store.StoreException;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * GameService over a GameStore that can be made to fail.
+ */
+public class GameServiceTest {
+
+    private FailingStore store;
+    private GameService gameService;
+
+    @Before
+    public void startGameService() {
+        store = new FailingStore();
+        gameService = new GameService(store);
+    }
+
+    @After
+    public void closeGameService() {
+        gameService.close();
+    }
+
+    @Test
+    public void failedWriteReloadsTheGameFromTheStore() throws Exception {
+        String gameId = startGame();
+        int start = Bitboard.fromPieces(gameService.fetchBoard(gameId));
+
+        store.failNextMove = true;
+        gameService.makeMove(houndMove(gameId, 0, 1, 1, 1));
+        gameService.flush();
+
+        // The move never reached the store, neither does the game in memory keep it
+        assertEquals("TURN_HOUND", gameService.fetchState(gameId).getState());
+        assertEquals(start, Bitboard.fromPieces(gameService.fetchBoard(gameId)));
+
+        gameService.makeMove(houndMove(gameId, 0, 1, 1, 1));
+        gameService.flush();
+        assertEquals("TURN_HARE", gameService.fetchState(gameId).getState());
+        assertEquals(2, store.moves(gameId).size());
+    }
+
+    @Test
+    public void writesAfterAFailedOneAreDropped() throws Exception {
+        String gameId = startGame();
+
+        store.failNextMove = true;
+        store.gate = new CountDownLatch(1);
+        gameService.makeMove(houndMove(gameId, 0, 1, 1, 1));
+        // Queued behind the move that is going to fail
+        MovePiece hareMove = new MovePiece();
+        hareMove.setGameId(gameId);
+        hareMove.setPlayerId("HARE_player");
+        hareMove.setFromX(4);
+        hareMove.setFromY(1);
+        hareMove.setToX(3);
+        hareMove.setToY(1);
+        gameService.makeMove(hareMove);
+        store.gate.countDown();
+        gameService.flush();
+
+        assertEquals(1, store.moves(gameId).size());
+        assertEquals("TURN_HOUND", gameService.fetchState(gameId).getState());
+    }
+
+    private String startGame() throws Exception {
+        PlayerInfo hare = new PlayerInfo();
+        hare.setPieceType("HARE");
+        String gameId = gameService.createGame(hare).getGameId();
+        gameService.joinGame(gameId);
+        gameService.flush();
+        return gameId;
+    }
+
+    private static MovePiece houndMove(String gameId, int fromX, int fromY, int toX, int toY) {
+        MovePiece move = new MovePiece();
+        move.setGameId(gameId);
+        move.setPlayerId("HOUND_player");
+        move.setFromX(fromX);
+        move.setFromY(fromY);
+        move.setToX(toX);
+        move.setToY(toY);
+        return move;
+    }
+
+    /**
+     * Fails the next applyMove once it may go on.
+     */
+    private static class FailingStore extends MemoryGameStore {
+        volatile boolean failNextMove;
+        volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public void applyMove(String gameId, int seq, String state, int position, long updatedAt) {
+            if (failNextMove) {
+                failNextMove = false;
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new StoreException("applyMove failed on purpose", null);
+            }
+            super.applyMove(gameId, seq, state, position, updatedAt);
+        }
+    }
+}
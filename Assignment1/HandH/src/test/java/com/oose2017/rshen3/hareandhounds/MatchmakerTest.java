@@ -0,0 +1,152 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.model.PlayerInfo;
+import com.oose2017.rshen3.hareandhounds.store.MemoryGameStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Matchmaker pairing tickets queued and cancelled by many threads at once.
+ */
+public class MatchmakerTest {
+
+    private static final int THREADS = 8;
+    private static final int TICKETS_PER_THREAD = 2000;
+
+    private GameService gameService;
+    private Matchmaker matchmaker;
+
+    @Before
+    public void startMatchmaker() {
+        gameService = new GameService(new MemoryGameStore());
+        matchmaker = new Matchmaker(gameService);
+    }
+
+    @After
+    public void closeGameService() {
+        gameService.close();
+    }
+
+    @Test
+    public void waitingHoundIsPairedWithTheNextHare() {
+        Queue<Matchmaker.Ticket> matched = new ConcurrentLinkedQueue<>();
+        Matchmaker.Ticket hound = matchmaker.enqueue("HOUND", matched::add);
+        assertNull(hound.getPlayerInfo());
+        assertTrue(matched.isEmpty());
+
+        Matchmaker.Ticket hare = matchmaker.enqueue("HARE", matched::add);
+        assertEquals(2, matched.size());
+        assertEquals("HOUND", hound.getPlayerInfo().getPieceType());
+        assertEquals("HARE", hare.getPlayerInfo().getPieceType());
+        assertEquals(hound.getPlayerInfo().getGameId(), hare.getPlayerInfo().getGameId());
+        assertFalse(hound.cancel());
+        assertFalse(hare.cancel());
+    }
+
+    @Test
+    public void cancelledTicketIsNeverPaired() {
+        Matchmaker.Ticket cancelled = matchmaker.enqueue("HOUND", ticket -> { });
+        assertTrue(cancelled.cancel());
+        Matchmaker.Ticket hound = matchmaker.enqueue("HOUND", ticket -> { });
+        Matchmaker.Ticket hare = matchmaker.enqueue("HARE", ticket -> { });
+
+        assertNull(cancelled.getPlayerInfo());
+        assertNotNull(hound.getPlayerInfo());
+        assertEquals(hound.getPlayerInfo().getGameId(), hare.getPlayerInfo().getGameId());
+    }
+
+    @Test
+    public void concurrentEnqueueAndCancelPairEveryTicketOnce() throws Exception {
+        Queue<Matchmaker.Ticket> matched = new ConcurrentLinkedQueue<>();
+        Queue<Matchmaker.Ticket> cancelled = new ConcurrentLinkedQueue<>();
+        Map<Matchmaker.Ticket, String> open = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            long seed = thread;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                start.await();
+                for (int i = 0; i < TICKETS_PER_THREAD; i++) {
+                    String pieceType = random.nextBoolean() ? "HARE" : "HOUND";
+                    Matchmaker.Ticket ticket = matchmaker.enqueue(pieceType, matched::add);
+                    if (random.nextInt(4) == 0) {
+                        if (ticket.cancel()) {
+                            cancelled.add(ticket);
+                        } else {
+                            assertNotNull(ticket.getPlayerInfo());
+                        }
+                    } else {
+                        open.put(ticket, pieceType);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future: futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        // Every game has one hound and one hare, no ticket is matched twice
+        Map<String, List<String>> games = new HashMap<>();
+        int matches = 0;
+        for (Matchmaker.Ticket ticket: matched) {
+            PlayerInfo playerInfo = ticket.getPlayerInfo();
+            games.computeIfAbsent(playerInfo.getGameId(), gameId -> new ArrayList<>()).add(playerInfo.getPieceType());
+            matches++;
+        }
+        for (Map.Entry<String, List<String>> game: games.entrySet()) {
+            assertEquals(game.getKey(), 2, game.getValue().size());
+            assertTrue(game.getKey(), game.getValue().contains("HOUND") && game.getValue().contains("HARE"));
+        }
+        assertEquals(2 * games.size(), matches);
+
+        // A cancelled ticket is never matched, the tickets left waiting all want the same piece
+        for (Matchmaker.Ticket ticket: cancelled) {
+            assertNull(ticket.getPlayerInfo());
+            assertFalse(matched.contains(ticket));
+        }
+        String waiting = null;
+        int unmatched = 0;
+        for (Map.Entry<Matchmaker.Ticket, String> ticket: open.entrySet()) {
+            if (ticket.getKey().getPlayerInfo() == null) {
+                if (waiting == null) {
+                    waiting = ticket.getValue();
+                }
+                assertEquals(waiting, ticket.getValue());
+                unmatched++;
+            }
+        }
+        assertEquals(THREADS * TICKETS_PER_THREAD, matches + cancelled.size() + unmatched);
+
+        // The games were created for real
+        gameService.flush();
+        for (String gameId: games.keySet()) {
+            assertEquals("TURN_HOUND", gameService.fetchState(gameId).getState());
+        }
+    }
+}
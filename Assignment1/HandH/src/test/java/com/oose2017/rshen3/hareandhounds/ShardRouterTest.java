@@ -0,0 +1,208 @@
+package com.oose2017.rshen3.hareandhounds;
+
+import com.oose2017.rshen3.hareandhounds.cluster.ShardMap;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A ShardRouter on node 0 in front of a local handler, with node 1 answering
+ * the requests for its games.
+ */
+public class ShardRouterTest {
+
+    private static final String LOCAL_GAME = "6f1c2a10-c9f0-11f1-8000-01005e000002";
+    private static final String REMOTE_GAME = "6f1c2a10-c9f0-11f1-8000-01005e000003";
+
+    /** Fewer threads than the forwarded requests parked at once */
+    private static final int ROUTER_THREADS = 10;
+    private static final int PARKED = 30;
+
+    private Server owner;
+    private Server router;
+    private HttpClient client;
+    private String ownerUrl;
+
+    /** Holds back the answers of the owner until it is counted down */
+    private volatile CountDownLatch ownerGate = new CountDownLatch(0);
+
+    @Before
+    public void startOwner() throws Exception {
+        owner = new Server(0);
+        owner.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                try {
+                    ownerGate.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setStatus(201);
+                response.setHeader("X-Forwarded-By", request.getHeader(ShardRouter.FORWARDED_HEADER));
+                response.getWriter().print(request.getMethod() + " " + target + "?" + request.getQueryString()
+                        + " " + IO.toString(request.getInputStream()));
+            }
+        });
+        owner.start();
+        ownerUrl = "http://localhost:" + ((ServerConnector) owner.getConnectors()[0]).getLocalPort();
+
+        client = new HttpClient();
+        client.setFollowRedirects(false);
+        client.start();
+    }
+
+    @After
+    public void stopServers() throws Exception {
+        ownerGate.countDown();
+        client.stop();
+        if (router != null) {
+            router.stop();
+        }
+        owner.stop();
+    }
+
+    @Test
+    public void gameIdIsTheSegmentAfterTheGames() {
+        assertEquals(REMOTE_GAME, ShardRouter.gameIdOf("/hareandhounds/api/games/" + REMOTE_GAME));
+        assertEquals(REMOTE_GAME, ShardRouter.gameIdOf("/hareandhounds/api/games/" + REMOTE_GAME + "/turns"));
+        assertNull(ShardRouter.gameIdOf("/hareandhounds/api/games"));
+        assertNull(ShardRouter.gameIdOf("/hareandhounds/api/games/"));
+        assertNull(ShardRouter.gameIdOf("/index.html"));
+    }
+
+    @Test
+    public void localGamePassesOnToThisNode() throws Exception {
+        String url = startRouter(false);
+        ContentResponse response = client.GET(url + "/hareandhounds/api/games/" + LOCAL_GAME + "/state");
+        assertEquals(200, response.getStatus());
+        assertEquals("local", response.getContentAsString());
+    }
+
+    @Test
+    public void remoteGameIsRedirected() throws Exception {
+        String url = startRouter(true);
+        ContentResponse response = client.GET(url + "/hareandhounds/api/games/" + REMOTE_GAME + "/events?since=7");
+        assertEquals(307, response.getStatus());
+        assertEquals(ownerUrl + "/hareandhounds/api/games/" + REMOTE_GAME + "/events?since=7",
+                response.getHeaders().get("Location"));
+    }
+
+    @Test
+    public void remoteGameIsForwardedWithItsBody() throws Exception {
+        String url = startRouter(false);
+        ContentResponse response = client.POST(url + "/hareandhounds/api/games/" + REMOTE_GAME + "/turns?x=1")
+                .content(new StringContentProvider("{\"fromX\":0}"), "application/json")
+                .send();
+        assertEquals(201, response.getStatus());
+        assertEquals("0", response.getHeaders().get("X-Forwarded-By"));
+        assertEquals("POST /hareandhounds/api/games/" + REMOTE_GAME + "/turns?x=1 {\"fromX\":0}",
+                response.getContentAsString());
+    }
+
+    @Test
+    public void forwardedRequestIsNeverForwardedAgain() throws Exception {
+        String url = startRouter(false);
+        ContentResponse response = client.newRequest(url + "/hareandhounds/api/games/" + REMOTE_GAME)
+                .header(ShardRouter.FORWARDED_HEADER, "1")
+                .send();
+        assertEquals(421, response.getStatus());
+    }
+
+    @Test
+    public void ownerThatIsDownIsABadGateway() throws Exception {
+        owner.stop();
+        String url = startRouter(false);
+        ContentResponse response = client.GET(url + "/hareandhounds/api/games/" + REMOTE_GAME);
+        assertEquals(502, response.getStatus());
+    }
+
+    @Test
+    public void forwardedRequestsHoldNoThreadWhileTheOwnerThinks() throws Exception {
+        String url = startRouter(false);
+        ownerGate = new CountDownLatch(1);
+        List<CountDownLatch> answers = new ArrayList<>();
+        List<Integer> statuses = new ArrayList<>();
+        for (int i = 0; i < PARKED; i++) {
+            CountDownLatch answered = new CountDownLatch(1);
+            answers.add(answered);
+            client.newRequest(url + "/hareandhounds/api/games/" + REMOTE_GAME + "/events")
+                    .timeout(30, TimeUnit.SECONDS)
+                    .send(new BufferingResponseListener() {
+                        @Override
+                        public void onComplete(org.eclipse.jetty.client.api.Result result) {
+                            synchronized (statuses) {
+                                statuses.add(result.isFailed() ? -1 : result.getResponse().getStatus());
+                            }
+                            answered.countDown();
+                        }
+                    });
+        }
+        // Every forwarded request waits on the owner, this node still answers
+        ContentResponse local = client.newRequest(url + "/hareandhounds/api/games/" + LOCAL_GAME)
+                .timeout(10, TimeUnit.SECONDS)
+                .send();
+        assertEquals("local", local.getContentAsString());
+
+        ownerGate.countDown();
+        for (CountDownLatch answered: answers) {
+            assertTrue(answered.await(30, TimeUnit.SECONDS));
+        }
+        for (int status: statuses) {
+            assertEquals(201, status);
+        }
+    }
+
+    /**
+     * @return the URL of the router
+     */
+    private String startRouter(boolean redirect) throws Exception {
+        ShardMap shardMap = new ShardMap(Arrays.asList("http://self", ownerUrl), 0, 16);
+        ShardRouter shardRouter = new ShardRouter(shardMap, redirect, 10000);
+        router = shardRouter.serverFactory().create(ROUTER_THREADS, ROUTER_THREADS, 0);
+        ServerConnector connector = new ServerConnector(router, 1, 1);
+        router.addConnector(connector);
+        router.setHandler(localHandler());
+        assertTrue(router.getHandler() == shardRouter);
+        router.start();
+        return "http://localhost:" + connector.getLocalPort();
+    }
+
+    private static Handler localHandler() {
+        return new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                response.setStatus(200);
+                response.getOutputStream().write("local".getBytes(StandardCharsets.US_ASCII));
+            }
+        };
+    }
+}
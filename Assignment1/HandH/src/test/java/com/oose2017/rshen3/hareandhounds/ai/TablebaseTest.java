@@ -0,0 +1,98 @@
+package com.oose2017.rshen3.hareandhounds.ai;
+
+import com.oose2017.rshen3.hareandhounds.engine.RepetitionTracker;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tablebase against AlphaBetaSearch on every position it solves, the
+ * ones that end in a known number of plies. Searched that deep, without a
+ * history to repeat, the search has to find the same winner, and a move that
+ * keeps the win. The distance it reports may differ, a mate score taken from
+ * the TranspositionTable is a forced result but not always the shortest one.
+ */
+public class TablebaseTest {
+
+    /** Never reached, the search ends at its depth */
+    private static final long BUDGET_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /** Scores beyond this are forced results, see AlphaBetaSearch */
+    private static final int WON = AlphaBetaSearch.WIN - 1000;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static Tablebase tablebase;
+
+    @BeforeClass
+    public static void openTablebase() throws Exception {
+        tablebase = Tablebase.open(folder.getRoot().toPath().resolve("tablebase.bin"));
+    }
+
+    @Test
+    public void searchAgreesOnEverySolvedPosition() {
+        TranspositionTable table = new TranspositionTable();
+        int[] moves = new int[24];
+        int solved = 0;
+        for (int hare = 0; hare < Bitboard.CELLS; hare++) {
+            for (int hounds = 0; hounds <= Bitboard.HOUND_MASK; hounds++) {
+                if (Integer.bitCount(hounds) != 3 || (hounds & (1 << hare)) != 0) {
+                    continue;
+                }
+                int position = Bitboard.position(hare, hounds);
+                for (int side = Bitboard.HARE; side <= Bitboard.HOUND; side++) {
+                    int distance = tablebase.distance(position, side);
+                    if (distance == 0 || distance == Tablebase.STALLING
+                            || AlphaBetaSearch.generateMoves(position, side, moves) == 0) {
+                        continue;
+                    }
+                    AlphaBetaSearch search = new AlphaBetaSearch(table, distance, Long.MAX_VALUE, BUDGET_NANOS);
+                    AlphaBetaSearch.Result result = search.search(position, side, new RepetitionTracker());
+                    int winner = tablebase.winner(position, side);
+                    String at = Bitboard.toPieceStates(position) + " with " + Bitboard.pieceType(side) + " to move";
+                    assertTrue(at + " is not solved by the search", Math.abs(result.getScore()) > WON);
+                    assertEquals(at, winner == side, result.getScore() > 0);
+                    if (winner == side) {
+                        int child = Bitboard.move(position, result.getFrom(), result.getTo());
+                        assertEquals(at, side, Tablebase.winnerOf(tablebase.outcome(child, side, false)));
+                    }
+                    solved++;
+                }
+            }
+        }
+        assertTrue(solved > 0);
+    }
+
+    @Test
+    public void bestMoveKeepsTheOutcome() {
+        int[] moves = new int[24];
+        for (int hare = 0; hare < Bitboard.CELLS; hare++) {
+            for (int hounds = 0; hounds <= Bitboard.HOUND_MASK; hounds++) {
+                if (Integer.bitCount(hounds) != 3 || (hounds & (1 << hare)) != 0) {
+                    continue;
+                }
+                int position = Bitboard.position(hare, hounds);
+                for (int side = Bitboard.HARE; side <= Bitboard.HOUND; side++) {
+                    int distance = tablebase.distance(position, side);
+                    if (distance == 0 || AlphaBetaSearch.generateMoves(position, side, moves) == 0) {
+                        continue;
+                    }
+                    int move = tablebase.bestMove(position, side, new RepetitionTracker());
+                    int child = Bitboard.move(position, move >>> 4, move & 15);
+                    int outcome = tablebase.outcome(child, side, false);
+                    String at = Bitboard.toPieceStates(position) + " with " + Bitboard.pieceType(side) + " to move";
+                    assertEquals(at, tablebase.winner(position, side), Tablebase.winnerOf(outcome));
+                    assertEquals(at, distance, Tablebase.distanceOf(outcome));
+                }
+            }
+        }
+    }
+}
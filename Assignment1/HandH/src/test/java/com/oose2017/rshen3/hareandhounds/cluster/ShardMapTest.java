@@ -0,0 +1,86 @@
+package com.oose2017.rshen3.hareandhounds.cluster;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardMapTest {
+
+    private static final List<String> NODES = Arrays.asList("http://a:8080", "http://b:8080", "http://c:8080");
+
+    @Test
+    public void newGameIdsGoRoundTheShardsOfTheirNode() {
+        ShardMap shardMap = new ShardMap(NODES, 1, 16);
+        assertEquals(5, shardMap.getLocalShardCount());
+        Set<Integer> shards = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            String gameId = shardMap.newGameId();
+            UUID uuid = UUID.fromString(gameId);
+            assertEquals(1, uuid.version());
+            // The shard is the low 16 bits of the node field, the last 4 hex digits
+            int shard = shardMap.shardOf(gameId);
+            assertEquals(uuid.node() & 0xffff, shard);
+            assertEquals(Integer.parseInt(gameId.substring(32), 16), shard);
+            assertEquals(1, shard % NODES.size());
+            assertEquals(1, shardMap.ownerOf(gameId));
+            assertTrue(shardMap.isLocal(gameId));
+            shards.add(shard);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(1, 4, 7, 10, 13)), shards);
+    }
+
+    @Test
+    public void everyNodeFindsTheSameOwner() {
+        ShardMap first = new ShardMap(NODES, 0, 16);
+        ShardMap second = new ShardMap(NODES, 2, 16);
+        String gameId = "6f1c2a10-c9f0-11f1-8000-01005e00000b";
+        assertEquals(11, first.shardOf(gameId));
+        assertEquals(2, first.ownerOf(gameId));
+        assertEquals(2, second.ownerOf(gameId));
+        assertFalse(first.isLocal(gameId));
+        assertTrue(second.isLocal(gameId));
+        assertEquals("http://c:8080", first.nodeUrl(first.ownerOf(gameId)));
+    }
+
+    @Test
+    public void shardsAboveTheShardCountWrapAround() {
+        ShardMap shardMap = new ShardMap(NODES, 0, 16);
+        assertEquals(0x1234 % 16, shardMap.shardOf("6f1c2a10-c9f0-11f1-8000-01005e001234"));
+    }
+
+    @Test
+    public void gameIdsThatAreNoUuidStayOnThisNode() {
+        ShardMap shardMap = new ShardMap(NODES, 2, 16);
+        for (String gameId: new String[]{null, "", "archive", "6f1c2a10-c9f0-11f1-8000-01005e00zzzz"}) {
+            assertEquals(-1, shardMap.shardOf(gameId));
+            assertEquals(2, shardMap.ownerOf(gameId));
+        }
+    }
+
+    @Test
+    public void singleNodeOwnsEveryGame() {
+        ShardMap shardMap = ShardMap.single();
+        assertEquals(ShardMap.SHARDS, shardMap.getLocalShardCount());
+        assertTrue(shardMap.isLocal("6f1c2a10-c9f0-11f1-8000-01005e00000b"));
+        assertTrue(shardMap.isLocal(shardMap.newGameId()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fewerShardsThanNodesAreRejected() {
+        new ShardMap(NODES, 0, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nodeOutsideTheListIsRejected() {
+        new ShardMap(Collections.singletonList("http://a:8080"), 1, 16);
+    }
+}
@@ -0,0 +1,70 @@
+package com.oose2017.rshen3.hareandhounds.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sqlite.SQLiteDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+
+    private static final int STATEMENT_CACHE_SIZE = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionPool pool;
+
+    @Before
+    public void openPool() throws Exception {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + folder.newFile("game.db"));
+        pool = new ConnectionPool(dataSource, 1, STATEMENT_CACHE_SIZE, 1000);
+    }
+
+    @After
+    public void closePool() {
+        pool.close();
+    }
+
+    @Test
+    public void statementsOutliveTheCacheWhileTheConnectionIsLeased() throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            PreparedStatement first = conn.prepareStatement("SELECT 1");
+            for (int i = 2; i <= STATEMENT_CACHE_SIZE + 2; i++) {
+                conn.prepareStatement("SELECT " + i);
+            }
+            try (ResultSet result = first.executeQuery()) {
+                assertTrue(result.next());
+                assertEquals(1, result.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    public void cacheShrinksToItsSizeWhenTheConnectionComesBack() throws Exception {
+        try (Connection conn = pool.getConnection()) {
+            for (int i = 1; i <= STATEMENT_CACHE_SIZE + 2; i++) {
+                conn.prepareStatement("SELECT " + i).close();
+            }
+        }
+        assertEquals(STATEMENT_CACHE_SIZE + 2, pool.getStatementMisses());
+
+        try (Connection conn = pool.getConnection()) {
+            // The most recently used ones are kept
+            conn.prepareStatement("SELECT " + (STATEMENT_CACHE_SIZE + 2)).close();
+            assertEquals(1, pool.getStatementHits());
+            conn.prepareStatement("SELECT 1").close();
+            assertEquals(STATEMENT_CACHE_SIZE + 3, pool.getStatementMisses());
+        }
+        assertEquals(1, pool.getOpened());
+    }
+}
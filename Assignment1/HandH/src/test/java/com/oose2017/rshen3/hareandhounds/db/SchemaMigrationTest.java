@@ -0,0 +1,158 @@
+package com.oose2017.rshen3.hareandhounds.db;
+
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+import com.oose2017.rshen3.hareandhounds.store.SqliteGameStore;
+import com.oose2017.rshen3.hareandhounds.store.StoredGame;
+import com.oose2017.rshen3.hareandhounds.store.StoredMove;
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sqlite.SQLiteDataSource;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A game.db as the original GameService wrote it, migrated to the current
+ * schema by opening a SqliteGameStore on it.
+ */
+public class SchemaMigrationTest {
+
+    private static final String START = "HOUND011012HARE41";
+    private static final String AFTER_FIRST_MOVE = "HOUND101112HARE41";
+    private static final String TRAPPED = "HOUND303132HARE41";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLiteDataSource dataSource;
+
+    @Before
+    public void createBaselineDatabase() throws Exception {
+        dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + folder.newFile("game.db"));
+        try (Connection conn = new Sql2o(dataSource).open()) {
+            conn.createQuery("CREATE TABLE IF NOT EXISTS `PlayerInfos` ( `gameId` TEXT NOT NULL, " +
+                    "`playerId` TEXT NOT NULL, `pieceType` TEXT NOT NULL )").executeUpdate();
+            conn.createQuery("CREATE TABLE IF NOT EXISTS `PieceInfos` ( `gameId` TEXT NOT NULL, " +
+                    "`pieceType` TEXT NOT NULL, `x` INTEGER NOT NULL, `y` INTEGER NOT NULL )").executeUpdate();
+            conn.createQuery("CREATE TABLE IF NOT EXISTS `GameStates` ( `gameId` TEXT NOT NULL, " +
+                    "`state` TEXT NOT NULL )").executeUpdate();
+            conn.createQuery("CREATE TABLE IF NOT EXISTS `GameRecord` ( `gameId` TEXT NOT NULL, " +
+                    "`moveRecord` TEXT NOT NULL )").executeUpdate();
+
+            insertGame(conn, "playing", "TURN_HARE", AFTER_FIRST_MOVE, "HOUND", "HARE");
+            insertRecords(conn, "playing", START, AFTER_FIRST_MOVE);
+            insertGame(conn, "waiting", "WAITING_FOR_SECOND_PLAYER", START, "HARE");
+            insertGame(conn, "finished", "WIN_HOUND", TRAPPED, "HOUND", "HARE");
+            insertRecords(conn, "finished", START, TRAPPED);
+            // Only three pieces, the game cannot be played
+            insertGame(conn, "broken", "TURN_HOUND", START, "HOUND", "HARE");
+            conn.createQuery("DELETE FROM PieceInfos WHERE gameId = 'broken' AND pieceType = 'HARE'").executeUpdate();
+        }
+    }
+
+    @Test
+    public void migratesTheBaselineGames() {
+        SqliteGameStore store = new SqliteGameStore(dataSource, 256, 16);
+
+        StoredGame playing = store.load("playing");
+        assertEquals("TURN_HARE", playing.getState());
+        assertEquals(Bitboard.parsePieceStates(AFTER_FIRST_MOVE), playing.getPosition());
+        assertEquals(1, playing.getSeq());
+        assertEquals(new HashSet<>(Arrays.asList("HOUND", "HARE")), new HashSet<>(playing.getPlayers()));
+        List<StoredMove> moves = store.moves("playing");
+        assertEquals(2, moves.size());
+        assertEquals(0, moves.get(0).getSeq());
+        assertEquals("TURN_HOUND", moves.get(0).getState());
+        assertEquals(Bitboard.parsePieceStates(START), moves.get(0).getPosition());
+        assertEquals(1, moves.get(1).getSeq());
+        assertEquals("TURN_HARE", moves.get(1).getState());
+        assertEquals(Bitboard.parsePieceStates(AFTER_FIRST_MOVE), moves.get(1).getPosition());
+
+        StoredGame waiting = store.load("waiting");
+        assertEquals("WAITING_FOR_SECOND_PLAYER", waiting.getState());
+        assertEquals(StoredGame.NOT_STARTED, waiting.getSeq());
+        assertEquals(Arrays.asList("HARE"), waiting.getPlayers());
+
+        // Finished games lose their records with version 2
+        StoredGame finished = store.load("finished");
+        assertEquals("WIN_HOUND", finished.getState());
+        assertEquals(Bitboard.parsePieceStates(TRAPPED), finished.getPosition());
+        assertTrue(store.moves("finished").isEmpty());
+
+        assertNull(store.load("broken"));
+
+        try (Connection conn = new Sql2o(dataSource).open()) {
+            assertEquals(SchemaMigration.VERSION,
+                    (int) conn.createQuery("PRAGMA user_version").executeScalar(Integer.class));
+            assertEquals(0, (int) conn.createQuery("SELECT COUNT(*) FROM sqlite_master WHERE name LIKE '%_v0'")
+                    .executeScalar(Integer.class));
+        }
+        store.close();
+    }
+
+    @Test
+    public void migratedGamesAreArchivedAndExpiredByTheFirstSweep() {
+        SqliteGameStore store = new SqliteGameStore(dataSource, 256, 16);
+        long now = System.currentTimeMillis();
+        assertEquals(1, store.expireWaiting(now));
+        assertEquals(1, store.archiveFinished(now));
+        assertNull(store.load("waiting"));
+        assertEquals("WIN_HOUND", store.load("finished").getState());
+        assertEquals("finished", store.archivedGames("", 10).get(0).getGameId());
+        store.close();
+    }
+
+    @Test
+    public void migratingTwiceChangesNothing() {
+        new SqliteGameStore(dataSource, 256, 16).close();
+        SqliteGameStore store = new SqliteGameStore(dataSource, 256, 16);
+        assertEquals(1, store.load("playing").getSeq());
+        assertEquals(2, store.moves("playing").size());
+        store.close();
+    }
+
+    private static void insertGame(Connection conn, String gameId, String state, String pieceStates,
+                                   String... pieceTypes) {
+        for (String pieceType: pieceTypes) {
+            conn.createQuery("INSERT INTO PlayerInfos (`gameId`, `playerId`, `pieceType`) " +
+                    "VALUES (:gameId, :playerId, :pieceType)")
+                    .addParameter("gameId", gameId)
+                    .addParameter("playerId", pieceType + "_player")
+                    .addParameter("pieceType", pieceType)
+                    .executeUpdate();
+        }
+        for (PieceInfo piece: Bitboard.toPieces(gameId, Bitboard.parsePieceStates(pieceStates))) {
+            conn.createQuery("INSERT INTO PieceInfos (`gameId`, `pieceType`, `x`, `y`) " +
+                    "VALUES (:gameId, :pieceType, :x, :y)")
+                    .addParameter("gameId", gameId)
+                    .addParameter("pieceType", piece.getPieceType())
+                    .addParameter("x", piece.getX())
+                    .addParameter("y", piece.getY())
+                    .executeUpdate();
+        }
+        conn.createQuery("INSERT INTO GameStates (`gameId`, `state`) VALUES (:gameId, :state)")
+                .addParameter("gameId", gameId)
+                .addParameter("state", state)
+                .executeUpdate();
+    }
+
+    private static void insertRecords(Connection conn, String gameId, String... records) {
+        for (String record: records) {
+            conn.createQuery("INSERT INTO GameRecord (`gameId`, `moveRecord`) VALUES (:gameId, :moveRecord)")
+                    .addParameter("gameId", gameId)
+                    .addParameter("moveRecord", record)
+                    .executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.oose2017.rshen3.hareandhounds.engine;
+
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveGameTest {
+
+    private static final int START = Bitboard.parsePieceStates("HOUND011012HARE41");
+
+    @Test
+    public void everyChangeGrowsTheVersion() {
+        ActiveGame game = new ActiveGame("game", "WAITING_FOR_SECOND_PLAYER", START);
+        long version = game.getVersion();
+        for (int change = 0; change < 100; change++) {
+            game.setState(change % 2 == 0 ? "TURN_HOUND" : "TURN_HARE");
+            assertTrue(game.getVersion() > version);
+            assertEquals(game.getVersion(), game.getUpdatedAt());
+            version = game.getVersion();
+        }
+    }
+
+    @Test
+    public void reloadedGameGoesOnFromItsVersion() {
+        ActiveGame game = new ActiveGame("game", "WAITING_FOR_SECOND_PLAYER", START);
+        game.addPlayer("HARE");
+        game.addPlayer("HOUND");
+        game.setState("TURN_HOUND");
+        String tag = game.getETag();
+
+        // As GameService.loadGame restores it from the store
+        ActiveGame loaded = new ActiveGame("game", "TURN_HOUND", START, false);
+        loaded.addPlayer("HARE");
+        loaded.addPlayer("HOUND");
+        loaded.setUpdatedAt(game.getUpdatedAt());
+        assertEquals(game.getVersion(), loaded.getVersion());
+        assertEquals(tag, loaded.getETag());
+
+        loaded.setState("TURN_HARE");
+        assertTrue(loaded.getVersion() > game.getVersion());
+        assertNotEquals(tag, loaded.getETag());
+    }
+
+    @Test
+    public void snapshotFrameIsEncodedOncePerVersion() {
+        ActiveGame game = new ActiveGame("game", "WAITING_FOR_SECOND_PLAYER", START);
+        String frame = game.getSnapshotFrame();
+        assertSame(frame, game.getSnapshotFrame());
+
+        game.addPlayer("HARE");
+        String joined = game.getSnapshotFrame();
+        assertNotSame(frame, joined);
+        assertTrue(joined.contains("\"version\":" + game.getVersion()));
+        assertSame(joined, game.getSnapshotFrame());
+    }
+}
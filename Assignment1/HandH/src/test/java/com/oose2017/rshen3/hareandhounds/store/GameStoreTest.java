@@ -0,0 +1,272 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import com.oose2017.rshen3.hareandhounds.utils.Bitboard;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The contract of GameStore, run against every backend by a subclass.
+ */
+public abstract class GameStoreTest {
+
+    /** Move 0 of every game */
+    protected static final int START = Bitboard.parsePieceStates("HOUND011012HARE41");
+
+    /** The hound moves of a game, each its from and to cell */
+    private static final int[][] HOUND_MOVES = {{0, 2}, {1, 4}, {3, 6}};
+
+    protected GameStore store;
+
+    /**
+     * @return a new store without games
+     */
+    protected abstract GameStore open() throws Exception;
+
+    /**
+     * Close the store and open it again on the same files.
+     *
+     * @return the reopened store, null for a backend that keeps nothing
+     */
+    protected abstract GameStore reopen(GameStore store) throws Exception;
+
+    @Before
+    public void openStore() throws Exception {
+        store = open();
+    }
+
+    @After
+    public void closeStore() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void waitingGameRoundTrips() {
+        store.createGame(waitingGame("waiting", 1000));
+
+        StoredGame game = store.load("waiting");
+        assertEquals("WAITING_FOR_SECOND_PLAYER", game.getState());
+        assertEquals(START, game.getPosition());
+        assertEquals(1000, game.getUpdatedAt());
+        assertEquals(StoredGame.NOT_STARTED, game.getSeq());
+        assertEquals(Arrays.asList("HARE"), game.getPlayers());
+        assertNull(game.getComputerPieceType());
+        assertTrue(store.moves("waiting").isEmpty());
+        assertNull(store.load("missing"));
+    }
+
+    @Test
+    public void movesRoundTrip() {
+        List<Integer> positions = play("playing", 1000, HOUND_MOVES.length, "TURN_HARE");
+
+        StoredGame game = store.load("playing");
+        assertEquals("TURN_HARE", game.getState());
+        assertEquals((int) positions.get(positions.size() - 1), game.getPosition());
+        assertEquals(HOUND_MOVES.length, game.getSeq());
+        assertEquals(1000 + HOUND_MOVES.length, game.getUpdatedAt());
+        assertEquals(new HashSet<>(Arrays.asList("HOUND", "HARE")), new HashSet<>(game.getPlayers()));
+
+        List<StoredMove> moves = store.moves("playing");
+        assertEquals(positions.size(), moves.size());
+        for (int seq = 0; seq < moves.size(); seq++) {
+            assertEquals(seq, moves.get(seq).getSeq());
+            assertEquals((int) positions.get(seq), moves.get(seq).getPosition());
+            assertEquals(1000 + seq, moves.get(seq).getMovedAt());
+        }
+        assertEquals("TURN_HOUND", moves.get(0).getState());
+        assertEquals(positions, store.history("playing"));
+    }
+
+    @Test
+    public void computerGameRoundTrips() {
+        StoredGame created = new StoredGame("computer", "TURN_HOUND", START, 1000);
+        created.setSeq(0);
+        created.addPlayer("HARE");
+        created.setComputerPieceType("HOUND");
+        store.createGame(created);
+
+        StoredGame game = store.load("computer");
+        assertEquals(0, game.getSeq());
+        assertEquals(Arrays.asList("HARE"), game.getPlayers());
+        assertEquals("HOUND", game.getComputerPieceType());
+        assertEquals(1, store.moves("computer").size());
+        assertEquals(START, store.moves("computer").get(0).getPosition());
+    }
+
+    @Test(expected = StoreException.class)
+    public void joinOfAMissingGameFails() {
+        store.joinGame("missing", "HOUND", "TURN_HOUND", START, 1000);
+    }
+
+    @Test
+    public void expireWaitingDeletesOnlyOldWaitingGames() {
+        store.createGame(waitingGame("old", 1000));
+        store.createGame(waitingGame("new", 3000));
+        play("playing", 1000, 1, "TURN_HARE");
+
+        assertEquals(1, store.expireWaiting(2000));
+        assertNull(store.load("old"));
+        assertEquals("WAITING_FOR_SECOND_PLAYER", store.load("new").getState());
+        assertEquals("TURN_HARE", store.load("playing").getState());
+    }
+
+    @Test
+    public void abandonPlayingEndsOnlyIdleGamesInPlay() {
+        List<Integer> positions = play("idle", 1000, HOUND_MOVES.length, "TURN_HARE");
+        play("recent", 5000, 1, "TURN_HARE");
+        play("finished", 1000, 1, "WIN_HOUND");
+        store.createGame(waitingGame("waiting", 1000));
+
+        assertEquals(1, store.abandonPlaying(2000, 6000));
+        assertEquals(0, store.abandonPlaying(2000, 6000));
+
+        StoredGame game = store.load("idle");
+        assertEquals("ABANDONED", game.getState());
+        assertEquals((int) positions.get(positions.size() - 1), game.getPosition());
+        assertEquals(6000, game.getUpdatedAt());
+        assertEquals(positions.size() + 1, store.moves("idle").size());
+        assertEquals("TURN_HARE", store.load("recent").getState());
+        assertEquals("WIN_HOUND", store.load("finished").getState());
+        assertEquals("WAITING_FOR_SECOND_PLAYER", store.load("waiting").getState());
+
+        // Finished from then on, archived with the others
+        assertEquals(2, store.archiveFinished(7000));
+    }
+
+    @Test
+    public void archivedGamesCanStillBeLoaded() {
+        List<Integer> positions = play("finished", 1000, HOUND_MOVES.length, "WIN_HOUND");
+        play("recent", 5000, HOUND_MOVES.length, "WIN_HOUND");
+        play("playing", 1000, 1, "TURN_HARE");
+
+        assertEquals(1, store.archiveFinished(2000));
+        assertEquals(0, store.archiveFinished(2000));
+
+        StoredGame game = store.load("finished");
+        assertEquals("WIN_HOUND", game.getState());
+        assertEquals((int) positions.get(positions.size() - 1), game.getPosition());
+        assertEquals(positions.size(), store.moves("finished").size());
+
+        List<ArchivedGame> archived = store.archivedGames("", 10);
+        assertEquals(1, archived.size());
+        assertEquals("finished", archived.get(0).getGameId());
+        assertEquals("WIN_HOUND", archived.get(0).getState());
+        assertEquals(1000 + HOUND_MOVES.length, archived.get(0).getFinishedAt());
+        assertEquals(positions, positionsOf(archived.get(0).getMoves()));
+        assertEquals("TURN_HARE", store.load("playing").getState());
+    }
+
+    @Test
+    public void archivedGamesArePagedInTheOrderOfTheirGameIds() {
+        for (String gameId: new String[]{"c", "a", "d", "b", "e"}) {
+            play(gameId, 1000, 1, "WIN_HARE_BY_ESCAPE");
+        }
+        assertEquals(5, store.archiveFinished(2000));
+
+        List<String> gameIds = new ArrayList<>();
+        String after = "";
+        for (List<ArchivedGame> page = store.archivedGames(after, 2); !page.isEmpty();
+             page = store.archivedGames(after, 2)) {
+            assertTrue(page.size() <= 2);
+            for (ArchivedGame game: page) {
+                gameIds.add(game.getGameId());
+                after = game.getGameId();
+            }
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e"), gameIds);
+    }
+
+    @Test
+    public void purgeDeletesArchivedGamesWithTheirMoves() {
+        play("finished", 1000, HOUND_MOVES.length, "WIN_HOUND");
+        play("playing", 1000, 1, "TURN_HARE");
+        assertEquals(1, store.archiveFinished(2000));
+
+        assertEquals(0, store.purgeArchived(1000, 10));
+        assertEquals("WIN_HOUND", store.load("finished").getState());
+
+        assertEquals(1, store.purgeArchived(2000, 10));
+        assertNull(store.load("finished"));
+        assertTrue(store.moves("finished").isEmpty());
+        assertTrue(store.archivedGames("", 10).isEmpty());
+        assertEquals("TURN_HARE", store.load("playing").getState());
+    }
+
+    @Test
+    public void gamesSurviveAReopen() throws Exception {
+        store.createGame(waitingGame("waiting", 1000));
+        List<Integer> playing = play("playing", 1000, HOUND_MOVES.length, "TURN_HARE");
+        List<Integer> finished = play("finished", 1000, HOUND_MOVES.length, "WIN_HOUND");
+        assertEquals(1, store.archiveFinished(2000));
+
+        GameStore reopened = reopen(store);
+        Assume.assumeNotNull(reopened);
+        store = reopened;
+
+        assertEquals("WAITING_FOR_SECOND_PLAYER", store.load("waiting").getState());
+        StoredGame game = store.load("playing");
+        assertEquals("TURN_HARE", game.getState());
+        assertEquals(HOUND_MOVES.length, game.getSeq());
+        assertEquals((int) playing.get(playing.size() - 1), game.getPosition());
+        assertEquals(playing, positionsOf(store.moves("playing")));
+        assertEquals("WIN_HOUND", store.load("finished").getState());
+        assertEquals(finished, positionsOf(store.archivedGames("", 10).get(0).getMoves()));
+
+        // The log of a game goes on where it stopped
+        int position = Bitboard.move(playing.get(playing.size() - 1), 10, 8);
+        store.applyMove("playing", HOUND_MOVES.length + 1, "TURN_HOUND", position, 2000);
+        assertEquals(position, store.load("playing").getPosition());
+        assertEquals(HOUND_MOVES.length + 2, store.moves("playing").size());
+    }
+
+    //-----------------------------------------------------------------------------//
+    // Games
+    //-----------------------------------------------------------------------------//
+
+    protected static StoredGame waitingGame(String gameId, long createdAt) {
+        StoredGame game = new StoredGame(gameId, "WAITING_FOR_SECOND_PLAYER", START, createdAt);
+        game.addPlayer("HARE");
+        return game;
+    }
+
+    /**
+     * Create a game, join it and make up to three moves, one ms apart. Only
+     * the hounds move, a store does not check whose turn it is.
+     *
+     * @param lastState the state of the last move
+     * @return the positions of the moves
+     */
+    protected List<Integer> play(String gameId, long startedAt, int moves, String lastState) {
+        store.createGame(waitingGame(gameId, startedAt));
+        store.joinGame(gameId, "HOUND", "TURN_HOUND", START, startedAt);
+        List<Integer> positions = new ArrayList<>();
+        positions.add(START);
+        int position = START;
+        for (int seq = 1; seq <= moves; seq++) {
+            position = Bitboard.move(position, HOUND_MOVES[seq - 1][0], HOUND_MOVES[seq - 1][1]);
+            store.applyMove(gameId, seq, seq == moves ? lastState : "TURN_HARE", position, startedAt + seq);
+            positions.add(position);
+        }
+        return positions;
+    }
+
+    protected static List<Integer> positionsOf(List<StoredMove> moves) {
+        List<Integer> positions = new ArrayList<>();
+        for (StoredMove move: moves) {
+            positions.add(move.getPosition());
+        }
+        return positions;
+    }
+}
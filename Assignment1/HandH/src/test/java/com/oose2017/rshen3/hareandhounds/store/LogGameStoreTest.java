@@ -0,0 +1,135 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogGameStoreTest extends GameStoreTest {
+
+    private static final long SYNC_MILLIS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Override
+    protected GameStore open() throws Exception {
+        path = folder.newFolder("store").toPath().resolve("game.log");
+        return new LogGameStore(path, 4096, SYNC_MILLIS, 1000);
+    }
+
+    /**
+     * Closing takes a snapshot, the reopened store starts from it.
+     */
+    @Override
+    protected GameStore reopen(GameStore store) {
+        store.close();
+        return new LogGameStore(path, 4096, SYNC_MILLIS, 1000);
+    }
+
+    @Test
+    public void crashedStoreReplaysItsLog() throws Exception {
+        List<Integer> positions = play("playing", 1000, 3, "TURN_HARE");
+        play("finished", 1000, 3, "WIN_HOUND");
+        assertEquals(1, store.archiveFinished(2000));
+
+        LogGameStore crashed = openCopy(crashCopy());
+        assertEquals(3, crashed.load("playing").getSeq());
+        assertEquals(positions, positionsOf(crashed.moves("playing")));
+        assertEquals("WIN_HOUND", crashed.load("finished").getState());
+        assertEquals(1, crashed.archivedGames("", 10).size());
+        crashed.close();
+    }
+
+    @Test
+    public void replayStopsAtATruncatedRecord() throws Exception {
+        List<Integer> positions = play("playing", 1000, 3, "TURN_HARE");
+
+        Path copy = crashCopy();
+        try (FileChannel log = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+            // Cut the last move short, as a crash in the middle of its write would
+            log.truncate(log.size() - 3);
+        }
+        LogGameStore crashed = openCopy(copy);
+        assertEquals(2, crashed.load("playing").getSeq());
+        assertEquals(positions.subList(0, 3), positionsOf(crashed.moves("playing")));
+
+        // The torn record is gone, the move written again follows the last good one
+        crashed.applyMove("playing", 3, "TURN_HARE", positions.get(3), 1003);
+        crashed.close();
+        crashed = openCopy(copy);
+        assertEquals(3, crashed.load("playing").getSeq());
+        assertEquals(positions, positionsOf(crashed.moves("playing")));
+        crashed.close();
+    }
+
+    @Test
+    public void snapshotStartsTheLogOver() throws Exception {
+        store.close();
+        store = new LogGameStore(path, 4096, SYNC_MILLIS, 4);
+        List<Integer> positions = play("playing", 1000, 3, "TURN_HARE");
+        Path snapshot = path.resolveSibling("game.log.snapshot");
+        for (int wait = 0; wait < 100 && !Files.exists(snapshot); wait++) {
+            Thread.sleep(SYNC_MILLIS);
+        }
+        assertTrue(Files.exists(snapshot));
+
+        store.applyMove("playing", 4, "TURN_HOUND", positions.get(3), 1004);
+        LogGameStore crashed = openCopy(crashCopy());
+        assertEquals(4, crashed.load("playing").getSeq());
+        assertEquals(5, crashed.moves("playing").size());
+        crashed.close();
+    }
+
+    @Test
+    public void archivedGamesLeaveTheSnapshot() throws Exception {
+        play("finished", 1000, 3, "WIN_HOUND");
+        assertEquals(1, store.archiveFinished(2000));
+        store = reopen(store);
+
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(path.getParent(), "game.log.archive.*")) {
+            assertTrue(segments.iterator().hasNext());
+        }
+        // Only the segment held the game, the snapshot did not
+        assertEquals(1, store.purgeArchived(2000, 10));
+        assertNull(store.load("finished"));
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(path.getParent(), "game.log.archive.*")) {
+            assertFalse(segments.iterator().hasNext());
+        }
+    }
+
+    /**
+     * Wait for the records to be synced and copy the files of the store as
+     * they are, without closing it.
+     *
+     * @return the log in the copy
+     */
+    private Path crashCopy() throws IOException, InterruptedException {
+        Thread.sleep(SYNC_MILLIS * 10);
+        Path directory = folder.newFolder().toPath();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path.getParent(), "game.log*")) {
+            for (Path file: files) {
+                Files.copy(file, directory.resolve(file.getFileName()));
+            }
+        }
+        return directory.resolve("game.log");
+    }
+
+    private static LogGameStore openCopy(Path log) {
+        return new LogGameStore(log, 4096, SYNC_MILLIS, 1000);
+    }
+}
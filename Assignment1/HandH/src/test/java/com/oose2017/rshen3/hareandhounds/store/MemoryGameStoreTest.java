@@ -0,0 +1,17 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+public class MemoryGameStoreTest extends GameStoreTest {
+
+    @Override
+    protected GameStore open() {
+        return new MemoryGameStore();
+    }
+
+    /**
+     * Nothing survives a restart.
+     */
+    @Override
+    protected GameStore reopen(GameStore store) {
+        return null;
+    }
+}
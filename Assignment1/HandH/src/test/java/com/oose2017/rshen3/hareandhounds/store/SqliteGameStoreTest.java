@@ -0,0 +1,64 @@
+package com.oose2017.rshen3.hareandhounds.store;
+
+import com.oose2017.rshen3.hareandhounds.db.ConnectionPool;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sqlite.SQLiteDataSource;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SqliteGameStoreTest extends GameStoreTest {
+
+    /** Small enough for the snapshot of a game to fall behind its moves */
+    private static final int SNAPSHOT_MOVES = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionPool pool;
+
+    @Override
+    protected GameStore open() throws Exception {
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + folder.newFile("game.db"));
+        dataSource.setJournalMode("WAL");
+        dataSource.setSynchronous("NORMAL");
+        pool = new ConnectionPool(dataSource, 4, 32, 5000);
+        return new SqliteGameStore(pool, 256, SNAPSHOT_MOVES);
+    }
+
+    @Override
+    protected GameStore reopen(GameStore store) {
+        store.close();
+        return new SqliteGameStore(pool, 256, SNAPSHOT_MOVES);
+    }
+
+    @After
+    public void closePool() {
+        pool.close();
+    }
+
+    @Test
+    public void recoverBringsSnapshotsUpToDate() {
+        List<Integer> positions = play("playing", 1000, 3, "TURN_HARE");
+        assertEquals(2, snapshotSeq("playing"));
+
+        store = reopen(store);
+        assertEquals(3, snapshotSeq("playing"));
+        assertEquals((int) positions.get(3), store.load("playing").getPosition());
+    }
+
+    private int snapshotSeq(String gameId) {
+        try (Connection conn = new Sql2o(pool).open()) {
+            return conn.createQuery("SELECT seq FROM GameStates WHERE gameId = :gameId")
+                    .addParameter("gameId", gameId)
+                    .executeScalar(Integer.class);
+        }
+    }
+}
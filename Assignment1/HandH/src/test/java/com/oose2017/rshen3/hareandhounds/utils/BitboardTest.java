@@ -0,0 +1,40 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Bitboard against the judge of the original BoardHelper, see OriginalRules,
+ * on every position.
+ */
+public class BitboardTest {
+
+    private static final String[] STATES = {"TURN_HOUND", "TURN_HARE"};
+
+    @Test
+    public void judgeMatchesTheOriginalRules() {
+        int positions = 0;
+        for (int hare = 0; hare < Bitboard.CELLS; hare++) {
+            for (int hounds = 0; hounds <= Bitboard.HOUND_MASK; hounds++) {
+                if (Integer.bitCount(hounds) != 3 || (hounds & (1 << hare)) != 0) {
+                    continue;
+                }
+                int position = Bitboard.position(hare, hounds);
+                List<PieceInfo> pieces = Bitboard.toPieces("game", position);
+                for (String state: STATES) {
+                    assertEquals(Bitboard.toPieceStates(position) + " after " + state,
+                            OriginalRules.judge(pieces, state), Bitboard.judge(position, state));
+                }
+                assertEquals(position, Bitboard.fromPieces(pieces));
+                assertEquals(position, Bitboard.parsePieceStates(Bitboard.toPieceStates(position)));
+                positions++;
+            }
+        }
+        // 11 hare cells times 10 choose 3 hound cells
+        assertEquals(11 * 120, positions);
+    }
+}
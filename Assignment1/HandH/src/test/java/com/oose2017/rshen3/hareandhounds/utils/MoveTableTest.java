@@ -0,0 +1,54 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MoveTable behind BoardHelper against the moves of the original BoardHelper,
+ * see OriginalRules, from every cell to every target on and off the board.
+ */
+public class MoveTableTest {
+
+    private static final String[] PIECE_TYPES = {"HARE", "HOUND"};
+
+    @Test
+    public void movesMatchTheOriginalRules() {
+        for (String pieceType: PIECE_TYPES) {
+            for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+                int fromX = Bitboard.cellX(cell);
+                int fromY = Bitboard.cellY(cell);
+                for (int toX = -1; toX <= 5; toX++) {
+                    for (int toY = -1; toY <= 3; toY++) {
+                        assertEquals(pieceType + " " + fromX + fromY + " to " + toX + toY,
+                                OriginalRules.validateMove(pieceType, fromX, fromY, toX, toY),
+                                BoardHelper.validateMove(pieceType, fromX, fromY, toX, toY));
+                    }
+                }
+                assertEquals(pieceType + " from " + fromX + fromY,
+                        cells(OriginalRules.getNextMoves(pieceType, fromX, fromY)),
+                        cells(BoardHelper.getNextMoves(pieceType, fromX, fromY)));
+            }
+        }
+    }
+
+    private static Set<String> cells(List<BoardHelper.Loc> locs) {
+        Set<String> cells = new HashSet<>();
+        for (BoardHelper.Loc loc: locs) {
+            cells.add(loc.x + "" + loc.y);
+        }
+        return cells;
+    }
+
+    private static Set<String> cells(Iterable<int[]> locs) {
+        Set<String> cells = new HashSet<>();
+        for (int[] loc: locs) {
+            cells.add(loc[0] + "" + loc[1]);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,123 @@
+package com.oose2017.rshen3.hareandhounds.utils;
+
+import com.oose2017.rshen3.hareandhounds.model.PieceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rules of BoardHelper before MoveTable and Bitboard replaced them, kept
+ * as they were for the tests to compare against.
+ */
+final class OriginalRules {
+
+    private static final int[] NEXTMOVEHOUNDX = {0, 0, 1, 1, 1};
+    private static final int[] NEXTMOVEHOUNDY = {-1, 1, 0, -1, 1};
+    private static final int[] NEXTMOVEHAREX = {0, 0, 1, -1, 1, 1, -1, -1};
+    private static final int[] NEXTMOVEHAREY = {-1, 1, 0, 0, -1, 1, -1, 1};
+
+    private OriginalRules() {
+    }
+
+    static boolean validateMove(String pieceType, int fromX, int fromY, int toX, int toY) {
+        if (fromX == toX && fromY == toY) {
+            return false;
+        }
+        for (int[] loc: getNextMoves(pieceType, fromX, fromY)) {
+            if (toX == loc[0] && toY == loc[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<int[]> getNextMoves(String pieceType, int fromX, int fromY) {
+        List<int[]> nextMoves = new ArrayList<>();
+        if (pieceType.equals("HOUND")) {
+            if ((fromX == 1 && fromY == 1) || (fromX == 3 && fromY == 1)) {
+                addValid(nextMoves, fromX, fromY, NEXTMOVEHOUNDX, NEXTMOVEHOUNDY, 3);
+            } else if (fromX == 2 && fromY == 0) {
+                nextMoves.add(new int[]{fromX + 1, fromY});
+                nextMoves.add(new int[]{fromX, fromY + 1});
+            } else if (fromX == 2 && fromY == 2) {
+                nextMoves.add(new int[]{fromX + 1, fromY});
+                nextMoves.add(new int[]{fromX, fromY - 1});
+            } else {
+                addValid(nextMoves, fromX, fromY, NEXTMOVEHOUNDX, NEXTMOVEHOUNDY, NEXTMOVEHOUNDX.length);
+            }
+        } else if (pieceType.equals("HARE")) {
+            if ((fromX == 1 && fromY == 1) || (fromX == 3 && fromY == 1)) {
+                addValid(nextMoves, fromX, fromY, NEXTMOVEHAREX, NEXTMOVEHAREY, 4);
+            } else if (fromX == 2 && fromY == 0) {
+                nextMoves.add(new int[]{fromX + 1, fromY});
+                nextMoves.add(new int[]{fromX, fromY + 1});
+                nextMoves.add(new int[]{fromX - 1, fromY});
+            } else if (fromX == 2 && fromY == 2) {
+                nextMoves.add(new int[]{fromX + 1, fromY});
+                nextMoves.add(new int[]{fromX, fromY - 1});
+                nextMoves.add(new int[]{fromX - 1, fromY});
+            } else {
+                addValid(nextMoves, fromX, fromY, NEXTMOVEHAREX, NEXTMOVEHAREY, NEXTMOVEHAREX.length);
+            }
+        }
+        return nextMoves;
+    }
+
+    static String judge(List<PieceInfo> pieceInfos, String state) {
+        PieceInfo hare = null;
+        List<PieceInfo> hounds = new ArrayList<>();
+        for (PieceInfo pieceInfo: pieceInfos) {
+            if (pieceInfo.getPieceType().equals("HARE")) {
+                hare = pieceInfo;
+            } else {
+                hounds.add(pieceInfo);
+            }
+        }
+        boolean fallBack = true;
+        for (PieceInfo hound: hounds) {
+            if (hound.getX() < hare.getX()) {
+                fallBack = false;
+                break;
+            }
+        }
+        if (fallBack) {
+            return "WIN_HARE_BY_ESCAPE";
+        }
+        if (state.equals("TURN_HOUND")) {
+            for (int[] nextMove: getNextMoves("HARE", hare.getX(), hare.getY())) {
+                boolean occupied = false;
+                for (PieceInfo hound: hounds) {
+                    if (hound.getX() == nextMove[0] && hound.getY() == nextMove[1]) {
+                        occupied = true;
+                        break;
+                    }
+                }
+                if (!occupied) {
+                    return "TURN_HARE";
+                }
+            }
+            return "WIN_HOUND";
+        } else if (state.equals("TURN_HARE")) {
+            return "TURN_HOUND";
+        }
+        return null;
+    }
+
+    private static void addValid(List<int[]> nextMoves, int fromX, int fromY, int[] dx, int[] dy, int count) {
+        for (int i = 0; i < count; i++) {
+            if (validate(fromX + dx[i], fromY + dy[i])) {
+                nextMoves.add(new int[]{fromX + dx[i], fromY + dy[i]});
+            }
+        }
+    }
+
+    private static boolean validate(int x, int y) {
+        if (x == 0 && y != 1) {
+            return false;
+        }
+        if (x == 4 && y != 1) {
+            return false;
+        }
+        return x >= 0 && x <= 4 && y >= 0 && y <= 2;
+    }
+}